@@ -50,6 +50,7 @@ import javax.transaction.SystemException;
 import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.net.URI;
+import java.nio.file.Path;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
@@ -332,6 +333,29 @@ public interface Logs extends BasicLogger {
     @Message(id = 81, value = "Failed to instantiate cluster node selector class \"%s\"")
     IllegalArgumentException cannotInstantiateClustertNodeSelector(String name, @Cause ReflectiveOperationException e);
 
+    @Message(id = 82, value = "Stateful session pool is closed")
+    IllegalStateException sessionPoolClosed();
+
+    @LogMessage(level = WARN)
+    @Message(id = 83, value = "No ping response received from %s within %d milliseconds; closing the connection")
+    void pingTimedOut(URI peerURI, long timeout);
+
+    @LogMessage(level = WARN)
+    @Message(id = 84, value = "Failed to load the stored cluster topology from %s")
+    void topologyLoadFailed(Path path, @Cause Throwable cause);
+
+    @LogMessage(level = WARN)
+    @Message(id = 85, value = "Failed to store the cluster topology to %s")
+    void topologySaveFailed(Path path, @Cause Throwable cause);
+
+    @LogMessage(level = WARN)
+    @Message(id = 86, value = "No ping response received from %s within %d milliseconds; closing the EJB channel")
+    void pingTimedOutClosingChannel(URI peerURI, long timeout);
+
+    @LogMessage(level = WARN)
+    @Message(id = 87, value = "No ping response received from %s within %d milliseconds")
+    void pingLost(URI peerURI, long timeout);
+
     // Proxy API errors
 
     @Message(id = 100, value = "Object '%s' is not a valid proxy object")
@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.wildfly.common.Assert;
+
+/**
+ * The results of an invocation broadcast to several nodes by {@link EJBClient#broadcast}.  The result of each node is
+ * available individually as soon as that node responds; alternatively, the caller may wait until a quorum of nodes
+ * has responded successfully or a deadline has passed.
+ */
+public final class BroadcastResult {
+    private final Map<String, CompletableFuture<Object>> results;
+    private final int quorum;
+    private final Map<String, Future<?>> invocations = new ConcurrentHashMap<>();
+    private volatile boolean cancelled;
+    private int succeeded;
+    private int completed;
+
+    BroadcastResult(final Map<String, CompletableFuture<Object>> results, final int quorum) {
+        this.results = results;
+        this.quorum = quorum == 0 ? results.size() : Math.min(quorum, results.size());
+        for (CompletableFuture<Object> future : results.values()) {
+            future.whenComplete((result, problem) -> {
+                synchronized (this) {
+                    completed ++;
+                    if (problem == null) succeeded ++;
+                    notifyAll();
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the names of the nodes to which the invocation was sent.
+     *
+     * @return the node names (not {@code null})
+     */
+    public Set<String> getNodes() {
+        return Collections.unmodifiableSet(results.keySet());
+    }
+
+    /**
+     * Get the result of the invocation on the given node.
+     *
+     * @param nodeName the node name (must not be {@code null})
+     * @return the result stage, or {@code null} if the invocation was not sent to the given node
+     */
+    public CompletionStage<Object> getResult(String nodeName) {
+        Assert.checkNotNullParam("nodeName", nodeName);
+        return results.get(nodeName);
+    }
+
+    /**
+     * Get the results of the invocation on every node.
+     *
+     * @return the map of node name to result stage (not {@code null})
+     */
+    public Map<String, CompletionStage<Object>> getResults() {
+        return Collections.unmodifiableMap(results);
+    }
+
+    /**
+     * Wait until the quorum of nodes has responded successfully, until every node has responded, or until the
+     * deadline has passed, whichever comes first.  If the invocation was not sent to any node, the quorum can never
+     * be reached and this method returns {@code false} at once.
+     *
+     * @param timeout the amount of time to wait
+     * @param timeUnit the time unit (must not be {@code null})
+     * @return {@code true} if the quorum was reached, {@code false} otherwise
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    public boolean awaitQuorum(long timeout, TimeUnit timeUnit) throws InterruptedException {
+        Assert.checkNotNullParam("timeUnit", timeUnit);
+        final long deadline = System.nanoTime() + Math.max(0L, timeUnit.toNanos(timeout));
+        synchronized (this) {
+            long remaining;
+            while (succeeded < quorum && completed < results.size() && (remaining = deadline - System.nanoTime()) > 0L) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return ! results.isEmpty() && succeeded >= quorum;
+        }
+    }
+
+    /**
+     * Cancel the invocations which have not yet completed.  Invocations which have not yet been sent are not sent, and
+     * those which are in progress are cancelled on their node where possible.  Nodes whose invocation is cancelled will
+     * report a cancellation as their result.
+     */
+    public void cancelRemaining() {
+        cancelled = true;
+        for (CompletableFuture<Object> future : results.values()) {
+            future.cancel(false);
+        }
+        for (Future<?> invocation : invocations.values()) {
+            invocation.cancel(true);
+        }
+    }
+
+    void invocationSent(final String nodeName, final Future<?> invocation) {
+        invocations.put(nodeName, invocation);
+        // cancelled while it was being sent
+        if (cancelled) {
+            invocation.cancel(true);
+        }
+    }
+}
@@ -22,7 +22,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import org.wildfly.common.Assert;
 
@@ -47,6 +49,38 @@ public interface ClusterNodeSelector {
      */
     String selectNode(final String clusterName, final String[] connectedNodes, final String[] totalAvailableNodes);
 
+    /**
+     * Returns a node from among the {@code totalAvailableNodes}, as the target node for EJB invocations, taking into
+     * account the statistics gathered by the client context about each node.  The default implementation ignores the
+     * statistics and delegates to {@link #selectNode(String, String[], String[])}.
+     *
+     * @param clusterName         the name of the cluster to which the nodes belong (will not be {@code null})
+     * @param connectedNodes      the node names to which a connection has been established (may be empty but will not be {@code null})
+     * @param totalAvailableNodes all available nodes in the cluster, including connected nodes (will not be empty or {@code null})
+     * @param statistics          the statistics gathered about the nodes (will not be {@code null})
+     * @return the selected node name (must not be {@code null})
+     */
+    default String selectNode(final String clusterName, final String[] connectedNodes, final String[] totalAvailableNodes, final NodeStatistics statistics) {
+        return selectNode(clusterName, connectedNodes, totalAvailableNodes);
+    }
+
+    /**
+     * Returns a node from among the {@code totalAvailableNodes}, as the target node for the given invocation or
+     * session creation.  This variant gives the selector access to the invocation itself, for example to route on a
+     * key taken from its context data.  The default implementation delegates to
+     * {@link #selectNode(String, String[], String[], NodeStatistics)} with the statistics of the invocation's client
+     * context.
+     *
+     * @param context             the invocation context (will not be {@code null})
+     * @param clusterName         the name of the cluster to which the nodes belong (will not be {@code null})
+     * @param connectedNodes      the node names to which a connection has been established (may be empty but will not be {@code null})
+     * @param totalAvailableNodes all available nodes in the cluster, including connected nodes (will not be empty or {@code null})
+     * @return the selected node name (must not be {@code null})
+     */
+    default String selectNode(final AbstractInvocationContext context, final String clusterName, final String[] connectedNodes, final String[] totalAvailableNodes) {
+        return selectNode(clusterName, connectedNodes, totalAvailableNodes, context.getClientContext().getNodeStatistics());
+    }
+
     /**
      * Always use the first available node, regardless of whether it is connected.
      */
@@ -67,6 +101,22 @@ public interface ClusterNodeSelector {
      */
     ClusterNodeSelector RANDOM = (clusterName, connectedNodes, totalAvailableNodes) -> totalAvailableNodes[ThreadLocalRandom.current().nextInt(totalAvailableNodes.length)];
 
+    /**
+     * Use the less costly of two randomly chosen connected nodes, or of two available nodes if none are connected,
+     * where the cost of a node is a peak-sensitive moving average of its response latency multiplied by its number of
+     * in-flight requests.  Slow or saturated nodes therefore receive less traffic without being starved of the samples
+     * needed to notice that they have recovered.  If no statistics are available, a random connected node is used.
+     */
+    ClusterNodeSelector PEAK_EWMA = new ClusterNodeSelector() {
+        public String selectNode(final String clusterName, final String[] connectedNodes, final String[] totalAvailableNodes) {
+            return RANDOM_CONNECTED.selectNode(clusterName, connectedNodes, totalAvailableNodes);
+        }
+
+        public String selectNode(final String clusterName, final String[] connectedNodes, final String[] totalAvailableNodes, final NodeStatistics statistics) {
+            return statistics.selectByLatency(connectedNodes.length > 0 ? connectedNodes : totalAvailableNodes);
+        }
+    };
+
     /**
      * A simple default selector which uses {@link #simpleConnectionThresholdRandomSelector(int)} with a minimum of
      * 5 connections.
@@ -189,4 +239,108 @@ public interface ClusterNodeSelector {
             }
         };
     }
+
+    /**
+     * Select a connected node at random, weighted by the load hints most recently reported by each node, or fall
+     * back to a node selected in the same way from all available nodes if none are connected.  A node which reports
+     * more spare capacity is proportionally more likely to be selected.  Hints lose their influence as they age,
+     * halving every {@code halfLife}, so that a node which has stopped reporting is gradually treated like any other;
+     * nodes which have never reported are given the average weight of the nodes that have.  If no statistics are
+     * available, a random connected node is used.
+     *
+     * @param halfLife the time after which a load hint has half of its original influence (must be greater than zero)
+     * @param timeUnit the unit of the half life (must not be {@code null})
+     * @return the node selector (not {@code null})
+     */
+    static ClusterNodeSelector weightedByLoad(long halfLife, TimeUnit timeUnit) {
+        Assert.checkMinimumParameter("halfLife", 1L, halfLife);
+        Assert.checkNotNullParam("timeUnit", timeUnit);
+        final long halfLifeNanos = timeUnit.toNanos(halfLife);
+        return new ClusterNodeSelector() {
+            public String selectNode(final String clusterName, final String[] connectedNodes, final String[] totalAvailableNodes) {
+                return RANDOM_CONNECTED.selectNode(clusterName, connectedNodes, totalAvailableNodes);
+            }
+
+            public String selectNode(final String clusterName, final String[] connectedNodes, final String[] totalAvailableNodes, final NodeStatistics statistics) {
+                return statistics.selectByLoad(connectedNodes.length > 0 ? connectedNodes : totalAvailableNodes, halfLifeNanos);
+            }
+        };
+    }
+
+    /**
+     * Create a selector which routes each invocation by rendezvous hashing of a routing key taken from the given
+     * invocation context data entry.  The key is hashed over all available nodes, connected or not, so that
+     * invocations with equal keys go to the same node while it remains in the cluster, and only about {@code 1/N} of
+     * the keys move when a node joins or leaves.  Invocations without the entry are routed by the fallback selector.
+     *
+     * @param contextDataKey the name of the context data entry holding the routing key (must not be {@code null})
+     * @param fallback the selector to use for invocations without a routing key (must not be {@code null})
+     * @return the node selector (not {@code null})
+     */
+    static ClusterNodeSelector rendezvousHash(String contextDataKey, ClusterNodeSelector fallback) {
+        Assert.checkNotNullParam("contextDataKey", contextDataKey);
+        return rendezvousHash(context -> context.getContextData().get(contextDataKey), fallback);
+    }
+
+    /**
+     * Create a selector which routes each invocation by rendezvous hashing of a routing key extracted from the
+     * invocation context, for example from one of the parameters of an {@link EJBClientInvocationContext}.  Keys
+     * should have hash codes which are stable across JVMs, such as strings or boxed numbers, so that every client
+     * routes a key to the same node.  Invocations for which the extractor returns {@code null} are routed by the
+     * fallback selector.
+     *
+     * @param keyExtractor the function which extracts the routing key (must not be {@code null})
+     * @param fallback the selector to use for invocations without a routing key (must not be {@code null})
+     * @return the node selector (not {@code null})
+     */
+    static ClusterNodeSelector rendezvousHash(Function<? super AbstractInvocationContext, ?> keyExtractor, ClusterNodeSelector fallback) {
+        Assert.checkNotNullParam("keyExtractor", keyExtractor);
+        Assert.checkNotNullParam("fallback", fallback);
+        return new ClusterNodeSelector() {
+            public String selectNode(final String clusterName, final String[] connectedNodes, final String[] totalAvailableNodes) {
+                return fallback.selectNode(clusterName, connectedNodes, totalAvailableNodes);
+            }
+
+            public String selectNode(final String clusterName, final String[] connectedNodes, final String[] totalAvailableNodes, final NodeStatistics statistics) {
+                return fallback.selectNode(clusterName, connectedNodes, totalAvailableNodes, statistics);
+            }
+
+            public String selectNode(final AbstractInvocationContext context, final String clusterName, final String[] connectedNodes, final String[] totalAvailableNodes) {
+                final Object key = keyExtractor.apply(context);
+                return key == null ? fallback.selectNode(context, clusterName, connectedNodes, totalAvailableNodes) : RendezvousHashing.select(totalAvailableNodes, key);
+            }
+        };
+    }
+
+    /**
+     * Create a selector which prefers the nodes in the same locality zone as the client, as advertised by the nodes in
+     * the cluster topology.  The delegate selector chooses among the connected and available nodes in the local
+     * zone; the delegate chooses among all nodes only when no node of the local zone is available (for example
+     * because it failed and was excluded from discovery) or when every local node has at least {@code maxInFlight}
+     * requests in flight.  Without node statistics, the delegate is used directly.
+     *
+     * @param localZone the zone of the client (must not be {@code null})
+     * @param maxInFlight the number of in-flight requests at which a node is considered to be overloaded (must be greater than zero)
+     * @param delegate the selector to choose among the preferred nodes (must not be {@code null})
+     * @return the node selector (not {@code null})
+     */
+    static ClusterNodeSelector zoneAware(String localZone, int maxInFlight, ClusterNodeSelector delegate) {
+        Assert.checkNotNullParam("localZone", localZone);
+        Assert.checkMinimumParameter("maxInFlight", 1, maxInFlight);
+        Assert.checkNotNullParam("delegate", delegate);
+        return new ClusterNodeSelector() {
+            public String selectNode(final String clusterName, final String[] connectedNodes, final String[] totalAvailableNodes) {
+                return delegate.selectNode(clusterName, connectedNodes, totalAvailableNodes);
+            }
+
+            public String selectNode(final String clusterName, final String[] connectedNodes, final String[] totalAvailableNodes, final NodeStatistics statistics) {
+                final String[] localAvailable = statistics.getAvailableInZone(totalAvailableNodes, localZone, maxInFlight);
+                if (localAvailable == null) {
+                    return delegate.selectNode(clusterName, connectedNodes, totalAvailableNodes, statistics);
+                }
+                final String[] localConnected = statistics.getAvailableInZone(connectedNodes, localZone, maxInFlight);
+                return delegate.selectNode(clusterName, localConnected == null ? new String[0] : localConnected, localAvailable, statistics);
+            }
+        };
+    }
 }
@@ -22,7 +22,9 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import org.wildfly.common.Assert;
 
@@ -53,6 +55,38 @@ public interface DeploymentNodeSelector {
      */
     String selectNode(final String[] eligibleNodes, final String appName, final String moduleName, final String distinctName);
 
+    /**
+     * Selects and returns a node from among the <code>eligibleNodes</code>, taking into account the statistics gathered
+     * by the client context about each node.  The default implementation ignores the statistics and delegates to
+     * {@link #selectNode(String[], String, String, String)}.
+     *
+     * @param eligibleNodes the eligible nodes which can handle the deployment; not {@code null}, will not be empty
+     * @param appName       the app name of the deployment
+     * @param moduleName    the module name of the deployment
+     * @param distinctName  the distinct name of the deployment
+     * @param statistics    the statistics gathered about the nodes (will not be {@code null})
+     * @return the node selection (must not be {@code null})
+     */
+    default String selectNode(final String[] eligibleNodes, final String appName, final String moduleName, final String distinctName, final NodeStatistics statistics) {
+        return selectNode(eligibleNodes, appName, moduleName, distinctName);
+    }
+
+    /**
+     * Selects and returns a node from among the <code>eligibleNodes</code> to handle the given invocation or session
+     * creation.  This variant gives the selector access to the invocation itself, for example to route on a key
+     * taken from its context data.  The default implementation delegates to
+     * {@link #selectNode(String[], String, String, String, NodeStatistics)} with the locator of the invocation and
+     * the statistics of its client context.
+     *
+     * @param context       the invocation context (will not be {@code null})
+     * @param eligibleNodes the eligible nodes which can handle the deployment; not {@code null}, will not be empty
+     * @return the node selection (must not be {@code null})
+     */
+    default String selectNode(final AbstractInvocationContext context, final String[] eligibleNodes) {
+        final EJBLocator<?> locator = context.getLocator();
+        return selectNode(eligibleNodes, locator.getAppName(), locator.getModuleName(), locator.getDistinctName(), context.getClientContext().getNodeStatistics());
+    }
+
     /**
      * Create a deployment node selector that prefers one or more favorite nodes, falling back to another selector if
      * none of the favorites are found.
@@ -88,6 +122,22 @@ public interface DeploymentNodeSelector {
      */
     DeploymentNodeSelector RANDOM = (eligibleNodes, appName, moduleName, distinctName) -> eligibleNodes[ThreadLocalRandom.current().nextInt(eligibleNodes.length)];
 
+    /**
+     * A deployment node selector which uses the less costly of two randomly chosen nodes, where the cost of a node is
+     * a peak-sensitive moving average of its response latency multiplied by its number of in-flight requests.  This
+     * steers requests away from slow nodes in clusters of mixed capacity.  If no statistics are available, the
+     * {@link #RANDOM} policy is used.
+     */
+    DeploymentNodeSelector PEAK_EWMA = new DeploymentNodeSelector() {
+        public String selectNode(final String[] eligibleNodes, final String appName, final String moduleName, final String distinctName) {
+            return RANDOM.selectNode(eligibleNodes, appName, moduleName, distinctName);
+        }
+
+        public String selectNode(final String[] eligibleNodes, final String appName, final String moduleName, final String distinctName, final NodeStatistics statistics) {
+            return statistics.selectByLatency(eligibleNodes);
+        }
+    };
+
     /**
      * A deployment node selector which uses an approximate round-robin policy among all of the eligible nodes.  Note
      * that the round-robin node count may be shared among multiple node sets, thus certain specific usage patterns
@@ -102,4 +152,101 @@ public interface DeploymentNodeSelector {
             return eligibleNodes[Math.floorMod(counter.getAndIncrement(), length)];
         }
     };
+
+    /**
+     * Create a deployment node selector which chooses randomly, weighted by the load hints most recently reported by
+     * each node.  Hints lose their influence as they age, halving every {@code halfLife}; nodes which have never
+     * reported are given the average weight of the nodes that have.  If no statistics are available, the
+     * {@link #RANDOM} policy is used.
+     *
+     * @param halfLife the time after which a load hint has half of its original influence (must be greater than zero)
+     * @param timeUnit the unit of the half life (must not be {@code null})
+     * @return the selector (not {@code null})
+     */
+    static DeploymentNodeSelector weightedByLoad(long halfLife, TimeUnit timeUnit) {
+        Assert.checkMinimumParameter("halfLife", 1L, halfLife);
+        Assert.checkNotNullParam("timeUnit", timeUnit);
+        final long halfLifeNanos = timeUnit.toNanos(halfLife);
+        return new DeploymentNodeSelector() {
+            public String selectNode(final String[] eligibleNodes, final String appName, final String moduleName, final String distinctName) {
+                return RANDOM.selectNode(eligibleNodes, appName, moduleName, distinctName);
+            }
+
+            public String selectNode(final String[] eligibleNodes, final String appName, final String moduleName, final String distinctName, final NodeStatistics statistics) {
+                return statistics.selectByLoad(eligibleNodes, halfLifeNanos);
+            }
+        };
+    }
+
+    /**
+     * Create a deployment node selector which routes each invocation by rendezvous hashing of a routing key taken
+     * from the given invocation context data entry.  Invocations with equal keys go to the same node while that node
+     * is eligible, and only about {@code 1/N} of the keys move when a node joins or leaves.  Invocations without the
+     * entry are routed by the fallback selector.
+     *
+     * @param contextDataKey the name of the context data entry holding the routing key (must not be {@code null})
+     * @param fallback the selector to use for invocations without a routing key (must not be {@code null})
+     * @return the selector (not {@code null})
+     */
+    static DeploymentNodeSelector rendezvousHash(String contextDataKey, DeploymentNodeSelector fallback) {
+        Assert.checkNotNullParam("contextDataKey", contextDataKey);
+        return rendezvousHash(context -> context.getContextData().get(contextDataKey), fallback);
+    }
+
+    /**
+     * Create a deployment node selector which routes each invocation by rendezvous hashing of a routing key extracted
+     * from the invocation context, for example from one of the parameters of an {@link EJBClientInvocationContext}.
+     * Keys should have hash codes which are stable across JVMs, such as strings or boxed numbers, so that every client
+     * routes a key to the same node.  Invocations for which the extractor returns {@code null} are routed by the
+     * fallback selector.
+     *
+     * @param keyExtractor the function which extracts the routing key (must not be {@code null})
+     * @param fallback the selector to use for invocations without a routing key (must not be {@code null})
+     * @return the selector (not {@code null})
+     */
+    static DeploymentNodeSelector rendezvousHash(Function<? super AbstractInvocationContext, ?> keyExtractor, DeploymentNodeSelector fallback) {
+        Assert.checkNotNullParam("keyExtractor", keyExtractor);
+        Assert.checkNotNullParam("fallback", fallback);
+        return new DeploymentNodeSelector() {
+            public String selectNode(final String[] eligibleNodes, final String appName, final String moduleName, final String distinctName) {
+                return fallback.selectNode(eligibleNodes, appName, moduleName, distinctName);
+            }
+
+            public String selectNode(final String[] eligibleNodes, final String appName, final String moduleName, final String distinctName, final NodeStatistics statistics) {
+                return fallback.selectNode(eligibleNodes, appName, moduleName, distinctName, statistics);
+            }
+
+            public String selectNode(final AbstractInvocationContext context, final String[] eligibleNodes) {
+                final Object key = keyExtractor.apply(context);
+                return key == null ? fallback.selectNode(context, eligibleNodes) : RendezvousHashing.select(eligibleNodes, key);
+            }
+        };
+    }
+
+    /**
+     * Create a deployment node selector which prefers the eligible nodes in the same locality zone as the client, as
+     * advertised by the nodes in the cluster topology.  Nodes of other zones are only passed to the delegate when no
+     * node of the local zone is eligible or when every local node has at least {@code maxInFlight} requests in
+     * flight.  Without node statistics, the delegate is used directly.
+     *
+     * @param localZone the zone of the client (must not be {@code null})
+     * @param maxInFlight the number of in-flight requests at which a node is considered to be overloaded (must be greater than zero)
+     * @param delegate the selector to choose among the preferred nodes (must not be {@code null})
+     * @return the selector (not {@code null})
+     */
+    static DeploymentNodeSelector zoneAware(String localZone, int maxInFlight, DeploymentNodeSelector delegate) {
+        Assert.checkNotNullParam("localZone", localZone);
+        Assert.checkMinimumParameter("maxInFlight", 1, maxInFlight);
+        Assert.checkNotNullParam("delegate", delegate);
+        return new DeploymentNodeSelector() {
+            public String selectNode(final String[] eligibleNodes, final String appName, final String moduleName, final String distinctName) {
+                return delegate.selectNode(eligibleNodes, appName, moduleName, distinctName);
+            }
+
+            public String selectNode(final String[] eligibleNodes, final String appName, final String moduleName, final String distinctName, final NodeStatistics statistics) {
+                final String[] local = statistics.getAvailableInZone(eligibleNodes, localZone, maxInFlight);
+                return delegate.selectNode(local == null ? eligibleNodes : local, appName, moduleName, distinctName, statistics);
+            }
+        };
+    }
 }
@@ -32,6 +32,7 @@ import java.net.InetSocketAddress;
 import java.net.URI;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -105,7 +106,7 @@ public final class DiscoveryEJBClientInterceptor implements EJBClientInterceptor
         }
     }
 
-    private boolean isTargetMissing(Exception e) {
+    static boolean isTargetMissing(Exception e) {
         if (e.getCause() instanceof SaslException) {
             return false;
         }
@@ -199,7 +200,7 @@ public final class DiscoveryEJBClientInterceptor implements EJBClientInterceptor
         }
     }
 
-    private void processMissingTarget(final AbstractInvocationContext context) {
+    static void processMissingTarget(final AbstractInvocationContext context) {
         final URI destination = context.getDestination();
 
         if (destination == null) {
@@ -430,7 +431,13 @@ public final class DiscoveryEJBClientInterceptor implements EJBClientInterceptor
         } else if (nodeless == 0) {
             // use the deployment node selector
             DeploymentNodeSelector selector = context.getClientContext().getDeploymentNodeSelector();
-            nodeName = selector.selectNode(nodes.values().toArray(NO_STRINGS), locator.getAppName(), locator.getModuleName(), locator.getDistinctName());
+            String[] candidates = nodes.values().toArray(NO_STRINGS);
+            // avoid nodes which are draining, unless there is nothing else
+            final String[] notDraining = context.getClientContext().getNodeStatistics().withoutDraining(candidates);
+            if (notDraining.length > 0) {
+                candidates = notDraining;
+            }
+            nodeName = selector.selectNode(context, candidates);
             if (nodeName == null) {
                 throw Logs.INVOCATION.selectorReturnedNull(selector);
             }
@@ -548,8 +555,18 @@ public final class DiscoveryEJBClientInterceptor implements EJBClientInterceptor
         }
         Logs.INVOCATION.tracef("Performing cluster discovery (connected nodes = %s, available nodes = %s)", connectedNodes, availableNodes);
 
+        String[] available = availableNodes.toArray(NO_STRINGS);
+        String[] connected = connectedNodes.toArray(NO_STRINGS);
+        // avoid nodes which are draining, unless there is nothing else
+        final NodeStatistics nodeStatistics = clientContext.getNodeStatistics();
+        final String[] notDraining = nodeStatistics.withoutDraining(available);
+        if (notDraining.length > 0 && notDraining != available) {
+            Logs.INVOCATION.tracef("Avoiding draining nodes in cluster discovery (available nodes = %s)", Arrays.asList(notDraining));
+            available = notDraining;
+            connected = nodeStatistics.withoutDraining(connected);
+        }
         final ClusterNodeSelector selector = clientContext.getClusterNodeSelector();
-        final String selectedNode = selector.selectNode(((ClusterAffinity) locator.getAffinity()).getClusterName(), connectedNodes.toArray(NO_STRINGS), availableNodes.toArray(NO_STRINGS));
+        final String selectedNode = selector.selectNode(context, ((ClusterAffinity) locator.getAffinity()).getClusterName(), connected, available);
         if (selectedNode == null) {
             throw withSuppressed(Logs.MAIN.selectorReturnedNull(selector), problems);
         }
@@ -587,7 +604,35 @@ public final class DiscoveryEJBClientInterceptor implements EJBClientInterceptor
         return result == null ? nodes : result;
     }
 
-    FilterSpec getFilterSpec(EJBModuleIdentifier identifier) {
+    /**
+     * Discover every node currently known to host the given module, optionally restricted to the members of a cluster.
+     *
+     * @param moduleIdentifier the module identifier (must not be {@code null})
+     * @param clusterName the cluster name, or {@code null} for nodes in any (or no) cluster
+     * @return the map of node name to location (not {@code null})
+     */
+    static Map<String, URI> discoverNodes(EJBModuleIdentifier moduleIdentifier, String clusterName) {
+        final FilterSpec moduleSpec = getFilterSpec(moduleIdentifier);
+        final FilterSpec filterSpec = clusterName == null ?
+            FilterSpec.all(moduleSpec, FilterSpec.hasAttribute(FILTER_ATTR_NODE)) :
+            FilterSpec.all(moduleSpec, FilterSpec.equal(FILTER_ATTR_CLUSTER, clusterName), FilterSpec.hasAttribute(FILTER_ATTR_NODE));
+        final Map<String, URI> nodes = new HashMap<>();
+        try (final ServicesQueue queue = DISCOVERY_SUPPLIER.get().discover(EJB_SERVICE_TYPE, filterSpec)) {
+            ServiceURL serviceURL;
+            while ((serviceURL = queue.takeService()) != null) {
+                final AttributeValue nodeNameValue = serviceURL.getFirstAttributeValue(FILTER_ATTR_NODE);
+                if (nodeNameValue != null) {
+                    nodes.putIfAbsent(nodeNameValue.toString(), serviceURL.getLocationURI());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Logs.MAIN.operationInterrupted();
+        }
+        return nodes;
+    }
+
+    static FilterSpec getFilterSpec(EJBModuleIdentifier identifier) {
         final String appName = identifier.getAppName();
         final String moduleName = identifier.getModuleName();
         final String distinctName = identifier.getDistinctName();
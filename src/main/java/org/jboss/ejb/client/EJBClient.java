@@ -22,8 +22,16 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.net.SocketAddress;
 import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 
@@ -72,6 +80,12 @@ public final class EJBClient {
      */
     public static final String DISABLE_AFFINITY_LEARNING = "jboss.disable-affinity-learning";
 
+    /**
+     * An invocation context key which, if set to an {@link Integer}, overrides the
+     * {@linkplain org.jboss.ejb.client.annotation.InvocationPriority priority} of the invocation.
+     */
+    public static final String INVOCATION_PRIORITY_KEY = "jboss.invocation-priority";
+
     /**
      * Get an asynchronous view of a proxy.  Any {@code void} method on the proxy will be invoked fully asynchronously
      * without a server round-trip delay.  Any method which returns a {@link java.util.concurrent.Future Future} will
@@ -196,6 +210,27 @@ public final class EJBClient {
 
         final EJBSessionCreationInvocationContext context = clientContext.createSessionCreationInvocationContext(statelessLocator, authenticationContext);
         final StatefulEJBLocator<T> statefulLocator = clientContext.createSession(context, statelessLocator, namingProvider);
+        return createSessionProxy(context, statefulLocator, authenticationContextSupplier);
+    }
+
+    /**
+     * Asynchronously create a new EJB session proxy, in the same way as {@link #createSessionAsync}.  The returned proxy
+     * will be cluster-aware if a cluster affinity is used in the locator.
+     *
+     * @param statelessLocator the stateless locator identifying the stateful EJB (must not be {@code null})
+     * @param executor the executor with which to perform the session creation (must not be {@code null})
+     * @param <T> the view type
+     * @return the completion stage of the new EJB proxy
+     */
+    public static <T> CompletionStage<T> createSessionProxyAsync(final StatelessEJBLocator<T> statelessLocator, final Executor executor) {
+        Assert.checkNotNullParam("statelessLocator", statelessLocator);
+        Assert.checkNotNullParam("executor", executor);
+        final EJBClientContext clientContext = EJBClientContext.getCurrent();
+        final EJBSessionCreationInvocationContext context = clientContext.createSessionCreationInvocationContext(statelessLocator, AuthenticationContext.captureCurrent());
+        return clientContext.createSessionAsync(context, statelessLocator, null, executor).thenApply(statefulLocator -> createSessionProxy(context, statefulLocator, null));
+    }
+
+    private static <T> T createSessionProxy(final EJBSessionCreationInvocationContext context, final StatefulEJBLocator<T> statefulLocator, final Supplier<AuthenticationContext> authenticationContextSupplier) {
         final T proxy = createProxy(statefulLocator, authenticationContextSupplier);
         final Affinity weakAffinity = context.getWeakAffinity();
 
@@ -331,6 +366,26 @@ public final class EJBClient {
         return clientContext.createSession(statelessLocator, authenticationContext, null);
     }
 
+    /**
+     * Asynchronously create a new EJB session.  The session is opened by a task submitted to the given executor, so
+     * the calling thread does not wait for the server.  Note that session creation is not asynchronous on the wire:
+     * the task waits for the server's response, so each outstanding session open occupies a thread of the executor,
+     * and the number of opens in progress at once is limited by the size of the executor.  Retryable failures are
+     * retried within the task, exactly as for {@link #createSession(StatelessEJBLocator)}.
+     *
+     * @param statelessLocator the stateless locator identifying the stateful EJB (must not be {@code null})
+     * @param executor the executor with which to perform the session creation (must not be {@code null})
+     * @param <T> the view type
+     * @return the completion stage of the new EJB locator
+     */
+    public static <T> CompletionStage<StatefulEJBLocator<T>> createSessionAsync(StatelessEJBLocator<T> statelessLocator, Executor executor) {
+        Assert.checkNotNullParam("statelessLocator", statelessLocator);
+        Assert.checkNotNullParam("executor", executor);
+        final EJBClientContext clientContext = EJBClientContext.getCurrent();
+        final EJBSessionCreationInvocationContext context = clientContext.createSessionCreationInvocationContext(statelessLocator, AuthenticationContext.captureCurrent());
+        return clientContext.createSessionAsync(context, statelessLocator, null, executor);
+    }
+
     /**
      * Perform a one-way asynchronous invocation by method locator on a proxy.  Any return value is ignored.
      *
@@ -361,6 +416,85 @@ public final class EJBClient {
         return (Future<?>) invocationHandler.invoke(proxy, proxyMethodInfo, args);
     }
 
+    /**
+     * Broadcast an invocation by method locator to every node currently known to host the locator's module, in
+     * parallel.  If the locator has a {@link ClusterAffinity}, only members of that cluster are targeted; the node
+     * filter, if given, further restricts the set of target nodes.  Each node is invoked with a {@link NodeAffinity}
+     * on a task submitted to the given executor, and its result (or failure) is reported as soon as it arrives.  No
+     * thread waits for the responses: each result is read on a short task submitted to the executor once it has
+     * arrived.  The invocation timeout does not apply to the individual nodes; use
+     * {@link BroadcastResult#awaitQuorum} and {@link BroadcastResult#cancelRemaining} to bound the wait.
+     *
+     * @param locator the EJB locator (must not be {@code null})
+     * @param nodeFilter the filter of node names to invoke, or {@code null} to invoke all matching nodes
+     * @param quorum the number of successful responses required by {@link BroadcastResult#awaitQuorum}, or 0 for all
+     * @param executor the executor with which to perform the invocations (must not be {@code null})
+     * @param methodLocator the method locator (must not be {@code null})
+     * @param args the invocation arguments
+     * @param <T> the view type
+     * @return the broadcast result (not {@code null})
+     */
+    public static <T> BroadcastResult broadcast(EJBLocator<T> locator, Predicate<String> nodeFilter, int quorum, Executor executor, EJBMethodLocator methodLocator, Object... args) {
+        Assert.checkNotNullParam("locator", locator);
+        Assert.checkMinimumParameter("quorum", 0, quorum);
+        Assert.checkNotNullParam("executor", executor);
+        Assert.checkNotNullParam("methodLocator", methodLocator);
+        final Affinity affinity = locator.getAffinity();
+        final String clusterName = affinity instanceof ClusterAffinity ? ((ClusterAffinity) affinity).getClusterName() : null;
+        final EJBClientContext clientContext = EJBClientContext.getCurrent();
+        final AuthenticationContext authenticationContext = AuthenticationContext.captureCurrent();
+        final Map<String, URI> nodes = clientContext.runBiFunction(DiscoveryEJBClientInterceptor::discoverNodes, locator.getIdentifier().getModuleIdentifier(), clusterName);
+        final Map<String, CompletableFuture<Object>> results = new HashMap<>(nodes.size());
+        for (String nodeName : nodes.keySet()) {
+            if (nodeFilter == null || nodeFilter.test(nodeName)) {
+                results.put(nodeName, new CompletableFuture<>());
+            }
+        }
+        final BroadcastResult broadcastResult = new BroadcastResult(results, quorum);
+        for (Map.Entry<String, CompletableFuture<Object>> entry : results.entrySet()) {
+            final CompletableFuture<Object> future = entry.getValue();
+            final String nodeName = entry.getKey();
+            final T proxy = createProxy(locator.withNewAffinity(new NodeAffinity(nodeName)), new FixedSupplier<>(authenticationContext));
+            try {
+                executor.execute(() -> {
+                    if (future.isDone()) {
+                        // cancelled before it was sent
+                        return;
+                    }
+                    try {
+                        final EJBInvocationHandler<? extends T> invocationHandler = EJBInvocationHandler.forProxy(proxy);
+                        final EJBProxyInformation.ProxyMethodInfo proxyMethodInfo = invocationHandler.getProxyMethodInfo(methodLocator);
+                        final Future<?> invocation = clientContext.runCallable(() -> invocationHandler.invokeCancellable(proxy, proxyMethodInfo, args, response -> {
+                            // reading the result unmarshals it, which should not happen on the thread which delivered it
+                            try {
+                                executor.execute(() -> complete(future, response));
+                            } catch (RejectedExecutionException e) {
+                                complete(future, response);
+                            }
+                        }));
+                        broadcastResult.invocationSent(nodeName, invocation);
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(new RequestSendFailedException(e, true));
+            }
+        }
+        return broadcastResult;
+    }
+
+    private static void complete(final CompletableFuture<Object> future, final Future<?> response) {
+        try {
+            // the result has arrived, so this does not wait
+            future.complete(response.get());
+        } catch (ExecutionException e) {
+            future.completeExceptionally(e.getCause());
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+    }
+
     /**
      * Perform an invocation by method locator on a proxy, returning the result.
      *
@@ -39,10 +39,17 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import javax.ejb.NoSuchEJBException;
+
 import org.jboss.ejb._private.Logs;
 import org.jboss.ejb.protocol.remote.RemotingEJBClientInterceptor;
 import org.wildfly.common.Assert;
@@ -135,6 +142,7 @@ public final class EJBClientContext extends Attachable implements Contextual<EJB
     private final Map<String, InterceptorList> configuredPerClassInterceptors;
     private final Map<String, Map<EJBMethodLocator, InterceptorList>> configuredPerMethodInterceptors;
     private final int maximumConnectedClusterNodes;
+    private final NodeStatistics nodeStatistics = new NodeStatistics();
 
     EJBClientContext(Builder builder) {
         final List<EJBTransportProvider> builderTransportProviders = builder.transportProviders;
@@ -477,6 +485,16 @@ public final class EJBClientContext extends Attachable implements Contextual<EJB
         return maximumConnectedClusterNodes;
     }
 
+    /**
+     * Get the statistics gathered about the nodes known to this context, for use by node selectors and by transport
+     * providers which receive load information from servers.
+     *
+     * @return the node statistics (not {@code null})
+     */
+    public NodeStatistics getNodeStatistics() {
+        return nodeStatistics;
+    }
+
     /**
      * Get a copy of this context with the given interceptor(s) added.  If the array is {@code null} or empty, the
      * current context is returned as-is.
@@ -863,6 +881,72 @@ public final class EJBClientContext extends Attachable implements Contextual<EJB
         return statelessLocator.withSessionAndAffinity(sessionID, affinity);
     }
 
+    <T> CompletableFuture<StatefulEJBLocator<T>> createSessionAsync(final EJBSessionCreationInvocationContext context, final StatelessEJBLocator<T> statelessLocator, final NamingProvider namingProvider, final Executor executor) {
+        // Special hook for naming; let's replace this sometime soon.
+        if (namingProvider != null) context.putAttachment(EJBRootContext.NAMING_PROVIDER_ATTACHMENT_KEY, namingProvider);
+
+        Logs.INVOCATION.tracef("Calling createSessionAsync(locator = %s)",statelessLocator);
+
+        final CompletableFuture<StatefulEJBLocator<T>> future = new CompletableFuture<>();
+        createSessionAttempt(context, statelessLocator, executor, future, 0);
+        return future;
+    }
+
+    // the interceptor chain of each attempt runs on the executor, but no thread waits for the receiver to respond
+    private <T> void createSessionAttempt(final EJBSessionCreationInvocationContext context, final StatelessEJBLocator<T> statelessLocator, final Executor executor, final CompletableFuture<StatefulEJBLocator<T>> future, final int attempt) {
+        try {
+            executor.execute(() -> {
+                final CompletionStage<SessionID> pending;
+                try {
+                    pending = runCallable(context::proceedAsync);
+                } catch (Throwable t) {
+                    // the interceptors have seen this failure and requested a retry if appropriate
+                    createSessionFailed(context, statelessLocator, executor, future, attempt, t);
+                    return;
+                }
+                pending.whenComplete((sessionID, problem) -> {
+                    if (problem == null) {
+                        future.complete(statelessLocator.withSessionAndAffinity(sessionID, context.getLocator().getAffinity()));
+                        return;
+                    }
+                    final Throwable cause = problem instanceof CompletionException && problem.getCause() != null ? problem.getCause() : problem;
+                    // the interceptors have already returned, so treat a missing target the way discovery would have
+                    if ((cause instanceof NoSuchEJBException || cause instanceof RequestSendFailedException) && DiscoveryEJBClientInterceptor.isTargetMissing((Exception) cause)) {
+                        DiscoveryEJBClientInterceptor.processMissingTarget(context);
+                    }
+                    createSessionFailed(context, statelessLocator, executor, future, attempt, cause);
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new RequestSendFailedException(e, true));
+        }
+    }
+
+    private <T> void createSessionFailed(final EJBSessionCreationInvocationContext context, final StatelessEJBLocator<T> statelessLocator, final Executor executor, final CompletableFuture<StatefulEJBLocator<T>> future, final int attempt, final Throwable problem) {
+        // the same retry decisions as the blocking createSession
+        if (problem instanceof RequestSendFailedException) {
+            if (! ((RequestSendFailedException) problem).canBeRetried()) {
+                future.completeExceptionally(problem);
+                return;
+            }
+        } else if (! context.shouldRetry()) {
+            if (problem instanceof Exception || problem instanceof Error) {
+                future.completeExceptionally(problem);
+            } else {
+                Exception e = new RequestSendFailedException(problem.getClass().getSimpleName() + ": " + problem.getMessage(), problem.getCause());
+                e.setStackTrace(problem.getStackTrace());
+                future.completeExceptionally(e);
+            }
+            return;
+        }
+        if (attempt == MAX_SESSION_RETRIES - 1) {
+            future.completeExceptionally(new RequestSendFailedException(problem.getMessage() + " (maximum retries exceeded)", problem));
+            return;
+        }
+        Logs.INVOCATION.tracef("Retrying invocation (attempt %d): %s", attempt + 1, statelessLocator);
+        createSessionAttempt(context, statelessLocator, executor, future, attempt + 1);
+    }
+
     InterceptorList getClassPathInterceptors() {
         return classPathInterceptors;
     }
@@ -37,6 +37,7 @@ import javax.transaction.Transaction;
 
 import org.jboss.ejb._private.Logs;
 import org.jboss.ejb.client.annotation.ClientTransactionPolicy;
+import org.jboss.ejb.client.annotation.InvocationPriority;
 import org.wildfly.common.Assert;
 import org.wildfly.common.annotation.NotNull;
 import org.wildfly.security.auth.client.AuthenticationContext;
@@ -80,6 +81,7 @@ public final class EJBClientInvocationContext extends AbstractInvocationContext
 
     private int interceptorChainIndex;
     private boolean blockingCaller;
+    private Runnable resultListener;
 
     EJBClientInvocationContext(final EJBInvocationHandler<?> invocationHandler, final EJBClientContext ejbClientContext, final Object invokedProxy, final Object[] parameters, final EJBProxyInformation.ProxyMethodInfo methodInfo, final int allowedRetries, final Supplier<AuthenticationContext> authenticationContextSupplier) {
         super(invocationHandler.getLocator(), ejbClientContext);
@@ -183,6 +185,18 @@ public final class EJBClientInvocationContext extends AbstractInvocationContext
         return methodInfo.getTransactionPolicy();
     }
 
+    /**
+     * Get the priority of this invocation.  The priority is taken from the {@link EJBClient#INVOCATION_PRIORITY_KEY}
+     * context data key if it is set, or else from the {@link InvocationPriority} annotation of the method or its
+     * interface.
+     *
+     * @return the priority of this invocation
+     */
+    public int getPriority() {
+        final Object priority = getContextData().get(EJBClient.INVOCATION_PRIORITY_KEY);
+        return priority instanceof Integer ? ((Integer) priority).intValue() : methodInfo.getPriority();
+    }
+
     /**
      * Determine whether the request is expected to be compressed.
      *
@@ -450,9 +464,11 @@ public final class EJBClientInvocationContext extends AbstractInvocationContext
                     transition(State.SENT);
                     checkStateInvariants();
                 }
+                receiverInvocationContext.attemptStarted();
                 try {
                     receiver.processInvocation(receiverInvocationContext);
                 } catch (Throwable t) {
+                    receiverInvocationContext.attemptFinished(true);
                     synchronized (lock) {
                         if (state != State.SENT) {
                             transition(State.SENT);
@@ -618,6 +634,8 @@ public final class EJBClientInvocationContext extends AbstractInvocationContext
                     // relocate the EJB
                     invocationHandler.setWeakAffinity(getWeakAffinity());
                     invocationHandler.setStrongAffinity(getLocator().getAffinity());
+                    // the result was consumed by someone else
+                    fireResultListener();
                 }
             }
         } finally {
@@ -636,21 +654,55 @@ public final class EJBClientInvocationContext extends AbstractInvocationContext
 
     void resultReady(EJBReceiverInvocationContext.ResultProducer resultProducer) {
         Assert.checkNotNullParam("resultProducer", resultProducer);
+        boolean accepted = false;
         synchronized (lock) {
             if (state.isWaiting() && this.resultProducer == null) {
                 this.resultProducer = resultProducer;
                 if (state == State.WAITING) {
                     transition(State.READY);
                 }
-                checkStateInvariants();
-                return;
+                accepted = true;
             }
             checkStateInvariants();
         }
+        if (accepted) {
+            fireResultListener();
+            return;
+        }
         // for whatever reason, we don't care
         resultProducer.discardResult();
     }
 
+    /**
+     * Set the action to run once the result of this invocation can be read without waiting, or run it at once if it
+     * already can.  The action runs on the thread which delivers the result, so it should hand off any real work.
+     *
+     * @param resultListener the action (must not be {@code null})
+     */
+    void setResultListener(Runnable resultListener) {
+        synchronized (lock) {
+            this.resultListener = resultListener;
+        }
+        fireResultListener();
+    }
+
+    private void fireResultListener() {
+        final Object lock = this.lock;
+        if (holdsLock(lock)) {
+            // the caller will get to the result itself once it releases the lock
+            return;
+        }
+        final Runnable resultListener;
+        synchronized (lock) {
+            resultListener = this.resultListener;
+            if (resultListener == null || state != State.READY && state != State.DONE) {
+                return;
+            }
+            this.resultListener = null;
+        }
+        resultListener.run();
+    }
+
     /**
      * Get the invoked proxy object.
      *
@@ -867,6 +919,7 @@ public final class EJBClientInvocationContext extends AbstractInvocationContext
                                     if (remaining == 0L) {
                                         // timed out
                                         timedOut = true;
+                                        receiverInvocationContext.attemptFinished(true);
                                         resultReady(new ThrowableResult(() -> new TimeoutException("No invocation response received in " + timeout + " milliseconds")));
                                     } else try {
                                         checkStateInvariants();
@@ -989,6 +1042,7 @@ public final class EJBClientInvocationContext extends AbstractInvocationContext
             }
             if (retry) sendRequestInitial();
         }
+        fireResultListener();
     }
 
     final class FutureResponse implements Future<Object> {
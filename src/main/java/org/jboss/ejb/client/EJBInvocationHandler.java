@@ -25,6 +25,7 @@ import java.lang.reflect.Proxy;
 import java.rmi.RemoteException;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import javax.ejb.EJBException;
@@ -196,6 +197,35 @@ final class EJBInvocationHandler<T> extends Attachable implements InvocationHand
         }
     }
 
+    /**
+     * Send an invocation without waiting for its result, even if the method is synchronous, so that the caller can
+     * cancel it.  The result listener is given the future result once that can be read without waiting; it is called
+     * on the thread which delivers the result, so it should hand off any real work.
+     *
+     * @param proxy the proxy
+     * @param methodInfo the method to invoke
+     * @param args the invocation arguments
+     * @param resultListener the result listener
+     * @return the future result of the invocation
+     * @throws Exception if the invocation could not be sent
+     */
+    Future<?> invokeCancellable(final Object proxy, final EJBProxyInformation.ProxyMethodInfo methodInfo, final Object[] args, final Consumer<Future<?>> resultListener) throws Exception {
+        if (methodInfo.getMethodType() != EJBProxyInformation.MT_BUSINESS) {
+            // answered locally
+            final Future<?> future = new FinishedFuture<>(invoke(proxy, methodInfo, args));
+            resultListener.accept(future);
+            return future;
+        }
+        final EJBClientInvocationContext invocationContext = new EJBClientInvocationContext(this, EJBClientContext.getCurrent(), proxy, args, methodInfo, 8, authenticationContextSupplier);
+        invocationContext.setLocator(locatorRef.get());
+        invocationContext.setBlockingCaller(false);
+        invocationContext.setWeakAffinity(getWeakAffinity());
+        invocationContext.sendRequestInitial();
+        final Future<?> future = invocationContext.getFutureResponse();
+        invocationContext.setResultListener(() -> resultListener.accept(future));
+        return future;
+    }
+
     void setWeakAffinity(Affinity newWeakAffinity) {
         weakAffinity = newWeakAffinity;
     }
@@ -42,6 +42,7 @@ import org.jboss.ejb.client.annotation.ClientTransaction;
 import org.jboss.ejb.client.annotation.ClientTransactionPolicy;
 import org.jboss.ejb.client.annotation.CompressionHint;
 import org.jboss.ejb.client.annotation.Idempotent;
+import org.jboss.ejb.client.annotation.InvocationPriority;
 
 /**
  * Cached information about an EJB proxy.
@@ -96,6 +97,7 @@ final class EJBProxyInformation<T> {
             }
             final boolean classIdempotent = ENABLE_SCANNING && type.getAnnotation(Idempotent.class) != null;
             final boolean classAsync = ENABLE_SCANNING && type.getAnnotation(ClientAsynchronous.class) != null;
+            final InvocationPriority classPriority = ENABLE_SCANNING ? type.getAnnotation(InvocationPriority.class) : null;
             final Field[] declaredFields = proxyClass.getDeclaredFields();
             for (Field declaredField : declaredFields) {
                 declaredField.setAccessible(true);
@@ -108,6 +110,7 @@ final class EJBProxyInformation<T> {
                         final boolean clientAsync = alwaysAsync || classAsync || ENABLE_SCANNING && method.getAnnotation(ClientAsynchronous.class) != null;
                         final CompressionHint compressionHint = ENABLE_SCANNING ? method.getAnnotation(CompressionHint.class) : null;
                         final ClientTransaction transactionHint = ENABLE_SCANNING ? method.getAnnotation(ClientTransaction.class) : null;
+                        final InvocationPriority priorityHint = ENABLE_SCANNING ? method.getAnnotation(InvocationPriority.class) : null;
                         final ClientInterceptors clientInterceptors = ENABLE_SCANNING ? type.getAnnotation(ClientInterceptors.class) : null;
                         final EJBClientContext.InterceptorList interceptors = getInterceptorsFromAnnotation(clientInterceptors);
                         final int compressionLevel;
@@ -123,6 +126,7 @@ final class EJBProxyInformation<T> {
                             compressRequest = compressionHint.compressRequest();
                             compressResponse = compressionHint.compressResponse();
                         }
+                        final int priority = priorityHint != null ? priorityHint.value() : classPriority != null ? classPriority.value() : InvocationPriority.NORMAL;
                         transactionPolicy = transactionHint != null ? transactionHint.value() : clientAsync ? ClientTransactionPolicy.NOT_SUPPORTED : classTransactionHint != null ? classTransactionHint.value() : ClientTransactionPolicy.SUPPORTS;
                         // build the old signature format
                         final StringBuilder b = new StringBuilder();
@@ -138,7 +142,7 @@ final class EJBProxyInformation<T> {
                         final String methodName = method.getName();
                         final int methodType = getMethodType(type, methodName, methodParamTypes);
                         final EJBMethodLocator methodLocator = new EJBMethodLocator(methodName, parameterTypeNames);
-                        final ProxyMethodInfo proxyMethodInfo = new ProxyMethodInfo(methodType, compressionLevel, compressRequest, compressResponse, idempotent, transactionPolicy, method, methodLocator, b.toString(), clientAsync, interceptors);
+                        final ProxyMethodInfo proxyMethodInfo = new ProxyMethodInfo(methodType, compressionLevel, compressRequest, compressResponse, idempotent, transactionPolicy, method, methodLocator, b.toString(), clientAsync, interceptors, priority);
                         methodInfoMap.put(method, proxyMethodInfo);
                         fallbackMap.put(method, proxyMethodInfo);
                         methodLocatorMap.put(methodLocator, proxyMethodInfo);
@@ -312,8 +316,9 @@ final class EJBProxyInformation<T> {
         final String signature;
         final boolean clientAsync;
         final EJBClientContext.InterceptorList interceptors;
+        final int priority;
 
-        ProxyMethodInfo(final int methodType, final int compressionLevel, final boolean compressRequest, final boolean compressResponse, final boolean idempotent, final ClientTransactionPolicy transactionPolicy, final Method method, final EJBMethodLocator methodLocator, final String signature, final boolean clientAsync, final EJBClientContext.InterceptorList interceptors) {
+        ProxyMethodInfo(final int methodType, final int compressionLevel, final boolean compressRequest, final boolean compressResponse, final boolean idempotent, final ClientTransactionPolicy transactionPolicy, final Method method, final EJBMethodLocator methodLocator, final String signature, final boolean clientAsync, final EJBClientContext.InterceptorList interceptors, final int priority) {
             this.methodType = methodType;
             this.compressionLevel = compressionLevel;
             this.compressRequest = compressRequest;
@@ -325,6 +330,7 @@ final class EJBProxyInformation<T> {
             this.signature = signature;
             this.clientAsync = clientAsync;
             this.interceptors = interceptors;
+            this.priority = priority;
         }
 
         public int getMethodType() {
@@ -371,6 +377,10 @@ final class EJBProxyInformation<T> {
             return interceptors;
         }
 
+        int getPriority() {
+            return priority;
+        }
+
         boolean isSynchronous() {
             final Class<?> returnType = method.getReturnType();
             return returnType != void.class && returnType != Future.class;
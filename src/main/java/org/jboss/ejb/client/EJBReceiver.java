@@ -20,6 +20,8 @@ package org.jboss.ejb.client;
 
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import org.wildfly.common.Assert;
 
@@ -75,6 +77,24 @@ public abstract class EJBReceiver extends Attachable {
         return createSession$$bridge(receiverContext).getSessionId();
     }
 
+    /**
+     * Creates a session in the same way as {@link #createSession(EJBReceiverSessionCreationContext)}, without waiting
+     * for the peer to respond.  Receivers which can be notified of the response should override this method; the
+     * default implementation creates the session on the calling thread.
+     *
+     * @param receiverContext the EJB receiver session creation context
+     * @return a stage which is completed with the session ID for the newly opened session
+     */
+    protected CompletionStage<SessionID> createSessionAsync(final EJBReceiverSessionCreationContext receiverContext) {
+        final CompletableFuture<SessionID> future = new CompletableFuture<>();
+        try {
+            future.complete(createSession(receiverContext));
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+        return future;
+    }
+
     /**
      * @deprecated Compatibility bridge, remove at Final.
      */
@@ -20,6 +20,7 @@ package org.jboss.ejb.client;
 
 import java.util.Arrays;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
 import org.wildfly.common.Assert;
@@ -33,11 +34,46 @@ import org.wildfly.security.auth.client.AuthenticationContext;
 public final class EJBReceiverInvocationContext extends AbstractReceiverInvocationContext {
 
     private final EJBClientInvocationContext clientInvocationContext;
+    private final AtomicReference<Attempt> attempt = new AtomicReference<>();
 
     EJBReceiverInvocationContext(final EJBClientInvocationContext clientInvocationContext) {
         this.clientInvocationContext = clientInvocationContext;
     }
 
+    /**
+     * Record that the invocation is about to be handed to the receiver, so that the latency and in-flight count of
+     * the target node can be tracked until a result is delivered.
+     */
+    void attemptStarted() {
+        final Affinity targetAffinity = clientInvocationContext.getTargetAffinity();
+        final Attempt newAttempt;
+        if (targetAffinity instanceof NodeAffinity) {
+            newAttempt = new Attempt(clientInvocationContext.getClientContext().getNodeStatistics(), ((NodeAffinity) targetAffinity).getNodeName());
+            newAttempt.statistics.requestStarted(newAttempt.nodeName);
+        } else {
+            newAttempt = null;
+        }
+        final Attempt oldAttempt = attempt.getAndSet(newAttempt);
+        if (oldAttempt != null) {
+            // the previous attempt never delivered a result
+            oldAttempt.statistics.requestAbandoned(oldAttempt.nodeName);
+        }
+    }
+
+    void attemptFinished(boolean failed) {
+        final Attempt oldAttempt = attempt.getAndSet(null);
+        if (oldAttempt != null) {
+            oldAttempt.statistics.requestFinished(oldAttempt.nodeName, System.nanoTime() - oldAttempt.startTime, failed);
+        }
+    }
+
+    void attemptAbandoned() {
+        final Attempt oldAttempt = attempt.getAndSet(null);
+        if (oldAttempt != null) {
+            oldAttempt.statistics.requestAbandoned(oldAttempt.nodeName);
+        }
+    }
+
     /**
      * Indicate that the invocation should proceed asynchronously, if it isn't already.
      */
@@ -54,6 +90,7 @@ public final class EJBReceiverInvocationContext extends AbstractReceiverInvocati
      * @param resultProducer the result producer
      */
     public void resultReady(ResultProducer resultProducer) {
+        attemptFinished(false);
         clientInvocationContext.resultReady(resultProducer);
     }
 
@@ -61,6 +98,7 @@ public final class EJBReceiverInvocationContext extends AbstractReceiverInvocati
      * Indicate that the request was successfully cancelled and that no result is forthcoming.
      */
     public void requestCancelled() {
+        attemptAbandoned();
         clientInvocationContext.cancelled();
     }
 
@@ -83,6 +121,7 @@ public final class EJBReceiverInvocationContext extends AbstractReceiverInvocati
     public void requestFailed(Exception cause, Executor retryExecutor) {
         Assert.checkNotNullParam("cause", cause);
         Assert.checkNotNullParam("retryExecutor", retryExecutor);
+        attemptFinished(true);
         clientInvocationContext.failed(cause, retryExecutor);
     }
 
@@ -180,4 +219,14 @@ public final class EJBReceiverInvocationContext extends AbstractReceiverInvocati
         }
     }
 
+    static final class Attempt {
+        final NodeStatistics statistics;
+        final String nodeName;
+        final long startTime = System.nanoTime();
+
+        Attempt(final NodeStatistics statistics, final String nodeName) {
+            this.statistics = statistics;
+            this.nodeName = nodeName;
+        }
+    }
 }
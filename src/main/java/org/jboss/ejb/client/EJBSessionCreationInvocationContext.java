@@ -19,6 +19,9 @@
 package org.jboss.ejb.client;
 
 import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 import org.jboss.ejb._private.Logs;
 import org.wildfly.common.Assert;
@@ -31,11 +34,16 @@ import org.wildfly.security.auth.client.AuthenticationContext;
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class EJBSessionCreationInvocationContext extends AbstractInvocationContext {
+    // given to the interceptors in place of a session ID which the receiver has not created yet
+    static final SessionID PENDING = new UnknownSessionID(new byte[0]);
 
     private final AuthenticationContext authenticationContext;
     private final EJBClientContext.InterceptorList interceptorList;
     private int interceptorChainIndex;
     private boolean retry;
+    // set while the chain runs for createSessionAsync, which leaves an incomplete outcome of the receiver in pendingSession
+    private boolean async;
+    private CompletionStage<SessionID> pendingSession;
 
     EJBSessionCreationInvocationContext(final StatelessEJBLocator<?> locator, final EJBClientContext ejbClientContext, AuthenticationContext authenticationContext, final EJBClientContext.InterceptorList interceptorList) {
         super(locator, ejbClientContext);
@@ -60,7 +68,26 @@ public final class EJBSessionCreationInvocationContext extends AbstractInvocatio
                 final URI destination = getDestination();
                 final EJBReceiver receiver = getClientContext().resolveReceiver(destination, getLocator());
                 setReceiver(receiver);
-                final SessionID sessionID = receiver.createSession(new EJBReceiverSessionCreationContext(this, authenticationContext));
+                final SessionID sessionID;
+                if (async) {
+                    final CompletableFuture<SessionID> future = receiver.createSessionAsync(new EJBReceiverSessionCreationContext(this, authenticationContext)).toCompletableFuture();
+                    if (! future.isDone()) {
+                        // the interceptors see the request as sent; the outcome is handled once the receiver completes it
+                        pendingSession = future;
+                        retry = false;
+                        return PENDING;
+                    }
+                    try {
+                        sessionID = future.join();
+                    } catch (CompletionException e) {
+                        final Throwable cause = e.getCause();
+                        if (cause instanceof Exception) throw (Exception) cause;
+                        if (cause instanceof Error) throw (Error) cause;
+                        throw e;
+                    }
+                } else {
+                    sessionID = receiver.createSession(new EJBReceiverSessionCreationContext(this, authenticationContext));
+                }
                 if (sessionID == null) {
                     throw Logs.INVOCATION.nullSessionID(receiver, getLocator().asStateless());
                 }
@@ -74,6 +101,26 @@ public final class EJBSessionCreationInvocationContext extends AbstractInvocatio
         }
     }
 
+    /**
+     * Proceed with the interceptor chain without waiting for the receiver to create the session.  The interceptors
+     * are given a placeholder session ID if the receiver has not completed the session creation by the time it
+     * returns; failures which are only reported later do not pass through them.
+     *
+     * @return a stage which is completed with the session ID
+     * @throws Exception if the chain failed before the session creation request was sent
+     */
+    CompletionStage<SessionID> proceedAsync() throws Exception {
+        async = true;
+        try {
+            final SessionID sessionID = proceed();
+            final CompletionStage<SessionID> pending = pendingSession;
+            return sessionID == PENDING && pending != null ? pending : CompletableFuture.completedFuture(sessionID);
+        } finally {
+            async = false;
+            pendingSession = null;
+        }
+    }
+
     public void requestRetry() {
         retry = true;
     }
@@ -0,0 +1,507 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.client;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.wildfly.common.Assert;
+
+/**
+ * Per-node statistics gathered by an EJB client context, made available to node selectors which need more than the
+ * names of the candidate nodes.  Transport providers report the load hints sent by servers, and the client context
+ * measures the response latency and the number of in-flight requests of every invocation sent to a named node, as
+ * well as the ping round trip time where the transport supports it; selectors such as
+ * {@link ClusterNodeSelector#weightedByLoad(long, java.util.concurrent.TimeUnit)} and
+ * {@link ClusterNodeSelector#PEAK_EWMA} consume them.  Transport providers also report nodes which leave the
+ * topology and modules which become unavailable, so that client-side state bound to them can be dropped.
+ */
+public final class NodeStatistics {
+    /**
+     * The time constant of the latency moving average; a sample loses about two thirds of its weight in this time,
+     * whether or not further samples arrive.
+     */
+    private static final double LATENCY_DECAY_NANOS = TimeUnit.SECONDS.toNanos(10L);
+    /**
+     * The latency sample recorded for a failed request, whatever its elapsed time.
+     */
+    private static final double FAILURE_PENALTY = TimeUnit.SECONDS.toNanos(5L);
+    /**
+     * The cost of a node which has requests in flight but has not yet produced any latency sample.
+     */
+    private static final double UNKNOWN_LATENCY_PENALTY = TimeUnit.SECONDS.toNanos(60L);
+
+    private final ConcurrentHashMap<String, Load> loads = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Latency> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> zones = new ConcurrentHashMap<>();
+    private final Set<String> draining = ConcurrentHashMap.newKeySet();
+    private final CopyOnWriteArrayList<AvailabilityListener> availabilityListeners = new CopyOnWriteArrayList<>();
+
+    NodeStatistics() {
+    }
+
+    /**
+     * Report a load hint received from a node.  This method is intended to be called by transport providers.
+     *
+     * @param nodeName the node name (must not be {@code null})
+     * @param activeRequests the number of requests currently being processed by the node
+     * @param queueDepth the number of requests waiting to be processed by the node
+     * @param capacityWeight the relative capacity of the node (a node with twice the weight can take twice the load)
+     */
+    public void updateLoad(String nodeName, int activeRequests, int queueDepth, int capacityWeight) {
+        Assert.checkNotNullParam("nodeName", nodeName);
+        loads.put(nodeName, new Load(activeRequests, queueDepth, capacityWeight, System.nanoTime()));
+    }
+
+    /**
+     * Get the most recent load hint received from a node.
+     *
+     * @param nodeName the node name (must not be {@code null})
+     * @return the load hint, or {@code null} if the node has not reported any
+     */
+    public Load getLoad(String nodeName) {
+        Assert.checkNotNullParam("nodeName", nodeName);
+        return loads.get(nodeName);
+    }
+
+    /**
+     * Forget everything known about a node.  This method is intended to be called by transport providers when a node
+     * leaves the cluster topology.
+     *
+     * @param nodeName the node name (must not be {@code null})
+     */
+    public void removeNode(String nodeName) {
+        Assert.checkNotNullParam("nodeName", nodeName);
+        loads.remove(nodeName);
+        latencies.remove(nodeName);
+        zones.remove(nodeName);
+        draining.remove(nodeName);
+        for (AvailabilityListener listener : availabilityListeners) {
+            listener.nodeRemoved(nodeName);
+        }
+    }
+
+    /**
+     * Record that a module is no longer available on a node.  This method is intended to be called by transport
+     * providers.
+     *
+     * @param nodeName the node name (must not be {@code null})
+     * @param moduleIdentifier the module identifier (must not be {@code null})
+     */
+    public void moduleUnavailable(String nodeName, EJBModuleIdentifier moduleIdentifier) {
+        Assert.checkNotNullParam("nodeName", nodeName);
+        Assert.checkNotNullParam("moduleIdentifier", moduleIdentifier);
+        for (AvailabilityListener listener : availabilityListeners) {
+            listener.moduleUnavailable(nodeName, moduleIdentifier);
+        }
+    }
+
+    void addAvailabilityListener(AvailabilityListener listener) {
+        availabilityListeners.add(listener);
+    }
+
+    void removeAvailabilityListener(AvailabilityListener listener) {
+        availabilityListeners.remove(listener);
+    }
+
+    /**
+     * Record whether a node has announced that it is draining in preparation for shutdown.  Draining nodes are
+     * avoided when selecting a node for a new invocation, unless no other node is available; invocations which have
+     * affinity to a draining node still go to it.  This method is intended to be called by transport providers.
+     *
+     * @param nodeName the node name (must not be {@code null})
+     * @param draining {@code true} if the node is draining, {@code false} if it accepts new work again
+     */
+    public void setDraining(String nodeName, boolean draining) {
+        Assert.checkNotNullParam("nodeName", nodeName);
+        if (draining) {
+            this.draining.add(nodeName);
+        } else {
+            this.draining.remove(nodeName);
+        }
+    }
+
+    /**
+     * Determine whether a node has announced that it is draining.
+     *
+     * @param nodeName the node name (must not be {@code null})
+     * @return {@code true} if the node is draining, {@code false} otherwise
+     */
+    public boolean isDraining(String nodeName) {
+        Assert.checkNotNullParam("nodeName", nodeName);
+        return draining.contains(nodeName);
+    }
+
+    /**
+     * Get the nodes which are not draining.
+     *
+     * @return the given array if no node is draining, otherwise a new (possibly empty) array
+     */
+    String[] withoutDraining(String[] nodes) {
+        if (draining.isEmpty()) {
+            return nodes;
+        }
+        int count = 0;
+        final String[] matching = new String[nodes.length];
+        for (String node : nodes) {
+            if (! draining.contains(node)) {
+                matching[count ++] = node;
+            }
+        }
+        return count == nodes.length ? nodes : Arrays.copyOf(matching, count);
+    }
+
+    /**
+     * Record the locality zone advertised for a node.  This method is intended to be called by transport providers.
+     *
+     * @param nodeName the node name (must not be {@code null})
+     * @param zone the zone name (must not be {@code null})
+     */
+    public void setZone(String nodeName, String zone) {
+        Assert.checkNotNullParam("nodeName", nodeName);
+        Assert.checkNotNullParam("zone", zone);
+        zones.put(nodeName, zone);
+    }
+
+    /**
+     * Get the locality zone advertised for a node.
+     *
+     * @param nodeName the node name (must not be {@code null})
+     * @return the zone name, or {@code null} if the node has not advertised a zone
+     */
+    public String getZone(String nodeName) {
+        Assert.checkNotNullParam("nodeName", nodeName);
+        return zones.get(nodeName);
+    }
+
+    /**
+     * Get the nodes which are in the given zone and have fewer than {@code maxInFlight} requests in flight.
+     *
+     * @return the matching nodes, or {@code null} if there are none
+     */
+    String[] getAvailableInZone(String[] nodes, String zone, int maxInFlight) {
+        int count = 0;
+        final String[] matching = new String[nodes.length];
+        for (String node : nodes) {
+            if (zone.equals(zones.get(node)) && getInFlightCount(node) < maxInFlight) {
+                matching[count ++] = node;
+            }
+        }
+        return count == 0 ? null : count == nodes.length ? nodes : Arrays.copyOf(matching, count);
+    }
+
+    /**
+     * Get the current peak-sensitive moving average of the response latency of a node.
+     *
+     * @param nodeName the node name (must not be {@code null})
+     * @return the latency estimate in nanoseconds, or 0 if no response has been received from the node
+     */
+    public long getLatencyEstimate(String nodeName) {
+        Assert.checkNotNullParam("nodeName", nodeName);
+        final Latency latency = latencies.get(nodeName);
+        return latency == null ? 0L : latency.getEstimate(System.nanoTime());
+    }
+
+    /**
+     * Get the number of requests which have been sent to a node and for which no result has yet been delivered.
+     *
+     * @param nodeName the node name (must not be {@code null})
+     * @return the number of in-flight requests
+     */
+    public int getInFlightCount(String nodeName) {
+        Assert.checkNotNullParam("nodeName", nodeName);
+        final Latency latency = latencies.get(nodeName);
+        return latency == null ? 0 : latency.getInFlight();
+    }
+
+    /**
+     * Record the round trip time of a protocol-level ping to a node.  This method is intended to be called by
+     * transport providers.
+     *
+     * @param nodeName the node name (must not be {@code null})
+     * @param roundTripNanos the round trip time in nanoseconds
+     */
+    public void recordRoundTrip(String nodeName, long roundTripNanos) {
+        Assert.checkNotNullParam("nodeName", nodeName);
+        latencies.computeIfAbsent(nodeName, ignored -> new Latency()).recordRoundTrip(roundTripNanos);
+    }
+
+    /**
+     * Get the moving average of the ping round trip time of a node, which measures the network and the transport
+     * without the cost of processing an invocation.
+     *
+     * @param nodeName the node name (must not be {@code null})
+     * @return the round trip estimate in nanoseconds, or 0 if no ping has been answered by the node
+     */
+    public long getRoundTripEstimate(String nodeName) {
+        Assert.checkNotNullParam("nodeName", nodeName);
+        final Latency latency = latencies.get(nodeName);
+        return latency == null ? 0L : latency.getRoundTrip();
+    }
+
+    void requestStarted(String nodeName) {
+        latencies.computeIfAbsent(nodeName, ignored -> new Latency()).requestStarted();
+    }
+
+    void requestFinished(String nodeName, long elapsedNanos, boolean failed) {
+        final Latency latency = latencies.get(nodeName);
+        if (latency != null) {
+            latency.requestFinished(elapsedNanos, failed, System.nanoTime());
+        }
+    }
+
+    void requestAbandoned(String nodeName) {
+        final Latency latency = latencies.get(nodeName);
+        if (latency != null) {
+            latency.requestAbandoned();
+        }
+    }
+
+    /**
+     * Select the cheaper of two nodes sampled at random, where the cost of a node is its latency estimate multiplied
+     * by one more than its number of in-flight requests.
+     */
+    String selectByLatency(String[] nodes) {
+        return selectByLatency(nodes, System.nanoTime());
+    }
+
+    String selectByLatency(String[] nodes, long now) {
+        final int length = nodes.length;
+        if (length == 1) {
+            return nodes[0];
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(length);
+        int second = random.nextInt(length - 1);
+        if (second >= first) {
+            second ++;
+        }
+        return getCost(nodes[second], now) < getCost(nodes[first], now) ? nodes[second] : nodes[first];
+    }
+
+    private double getCost(String nodeName, long now) {
+        final Latency latency = latencies.get(nodeName);
+        return latency == null ? 0.0 : latency.getCost(now);
+    }
+
+    /**
+     * Select a node at random, weighted by the available capacity reported in each node's load hint.  Hints decay
+     * towards the average weight as they age, halving their influence every {@code halfLifeNanos}; nodes without a
+     * hint are given the average weight.
+     */
+    String selectByLoad(String[] nodes, long halfLifeNanos) {
+        final int length = nodes.length;
+        if (length == 1) {
+            return nodes[0];
+        }
+        final double[] weights = new double[length];
+        // read each hint once, since a node may be removed or report again while we are selecting
+        final Load[] nodeLoads = new Load[length];
+        final long now = System.nanoTime();
+        double known = 0;
+        int knownCount = 0;
+        for (int i = 0; i < length; i ++) {
+            final Load load = nodeLoads[i] = loads.get(nodes[i]);
+            if (load == null) {
+                weights[i] = Double.NaN;
+            } else {
+                weights[i] = load.getAvailableCapacity();
+                known += weights[i];
+                knownCount ++;
+            }
+        }
+        final double neutral = knownCount == 0 ? 1.0 : Math.max(known / knownCount, Double.MIN_NORMAL);
+        double total = 0;
+        for (int i = 0; i < length; i ++) {
+            if (Double.isNaN(weights[i])) {
+                weights[i] = neutral;
+            } else {
+                final double decay = Math.pow(0.5, (double) (now - nodeLoads[i].getTimestamp()) / halfLifeNanos);
+                weights[i] = neutral + (weights[i] - neutral) * decay;
+            }
+            total += weights[i];
+        }
+        double pick = ThreadLocalRandom.current().nextDouble() * total;
+        for (int i = 0; i < length; i ++) {
+            pick -= weights[i];
+            if (pick < 0) {
+                return nodes[i];
+            }
+        }
+        return nodes[length - 1];
+    }
+
+    /**
+     * A load hint reported by a node.
+     */
+    public static final class Load {
+        private final int activeRequests;
+        private final int queueDepth;
+        private final int capacityWeight;
+        private final long timestamp;
+
+        Load(final int activeRequests, final int queueDepth, final int capacityWeight, final long timestamp) {
+            this.activeRequests = activeRequests;
+            this.queueDepth = queueDepth;
+            this.capacityWeight = capacityWeight;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * Get the number of requests the node was processing when the hint was sent.
+         *
+         * @return the number of active requests
+         */
+        public int getActiveRequests() {
+            return activeRequests;
+        }
+
+        /**
+         * Get the number of requests which were waiting to be processed when the hint was sent.
+         *
+         * @return the queue depth
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * Get the relative capacity weight of the node.
+         *
+         * @return the capacity weight
+         */
+        public int getCapacityWeight() {
+            return capacityWeight;
+        }
+
+        /**
+         * Get the time at which the hint was received, as given by {@link System#nanoTime()}.
+         *
+         * @return the receipt time
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        double getAvailableCapacity() {
+            return Math.max(capacityWeight, 0) / (1.0 + Math.max(activeRequests, 0) + Math.max(queueDepth, 0));
+        }
+    }
+
+    static final class Latency {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private double estimate;
+        private long lastUpdate = System.nanoTime();
+        private double roundTrip;
+
+        Latency() {
+        }
+
+        int getInFlight() {
+            return Math.max(0, inFlight.get());
+        }
+
+        void requestStarted() {
+            inFlight.incrementAndGet();
+        }
+
+        void requestAbandoned() {
+            inFlight.decrementAndGet();
+        }
+
+        void requestFinished(long elapsedNanos, boolean failed, long now) {
+            inFlight.decrementAndGet();
+            synchronized (this) {
+                // a failure is recorded as a slow response, so that a node which fails fast does not look attractive
+                update(failed ? Math.max(elapsedNanos, FAILURE_PENALTY) : elapsedNanos, now);
+            }
+        }
+
+        private void update(double sample, long now) {
+            assert Thread.holdsLock(this);
+            final double weight = getWeight(now);
+            if (sample > decay(weight)) {
+                // react to latency peaks immediately
+                estimate = sample;
+            } else {
+                estimate = estimate * weight + sample * (1.0 - weight);
+            }
+            lastUpdate = now;
+        }
+
+        private double getWeight(long now) {
+            assert Thread.holdsLock(this);
+            return Math.exp(- Math.max(0L, now - lastUpdate) / LATENCY_DECAY_NANOS);
+        }
+
+        /**
+         * Get the estimate as decayed towards the ping round trip since the last sample, so that a node which had a
+         * latency peak or a failure, and is therefore not chosen and sends no further samples, is tried again.
+         */
+        private double decay(double weight) {
+            assert Thread.holdsLock(this);
+            return estimate <= roundTrip ? estimate : roundTrip + (estimate - roundTrip) * weight;
+        }
+
+        synchronized void recordRoundTrip(long roundTripNanos) {
+            // pings are periodic, so a plain average over the last few samples is enough
+            roundTrip = roundTrip == 0.0 ? roundTripNanos : roundTrip * 0.75 + roundTripNanos * 0.25;
+        }
+
+        synchronized long getRoundTrip() {
+            return (long) roundTrip;
+        }
+
+        synchronized long getEstimate(long now) {
+            return (long) decay(getWeight(now));
+        }
+
+        double getCost(long now) {
+            final int inFlight = getInFlight();
+            final double estimate;
+            synchronized (this) {
+                if (this.estimate != 0.0) {
+                    estimate = decay(getWeight(now));
+                } else if (roundTrip != 0.0) {
+                    // before the first response, the ping round trip is the best available lower bound
+                    estimate = roundTrip;
+                } else {
+                    // no response yet; only attractive while idle
+                    return inFlight == 0 ? 0.0 : UNKNOWN_LATENCY_PENALTY + inFlight;
+                }
+            }
+            return estimate * (inFlight + 1);
+        }
+    }
+
+    /**
+     * A listener for nodes and modules which become unavailable.  Listeners are called by the thread of the transport
+     * which received the report, so they must not block.
+     */
+    interface AvailabilityListener {
+        void nodeRemoved(String nodeName);
+
+        void moduleUnavailable(String nodeName, EJBModuleIdentifier moduleIdentifier);
+    }
+}
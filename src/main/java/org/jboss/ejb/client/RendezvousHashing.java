@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.client;
+
+/**
+ * Rendezvous (highest random weight) hashing of routing keys onto node names.  Every node is scored against the key
+ * and the highest score wins, so adding or removing a node only moves the keys which that node wins or loses, about
+ * {@code 1/N} of the total.  The score depends only on the hash codes of the key and of the node name, so keys whose
+ * hash codes are stable across JVMs (such as strings and boxed numbers) are routed identically by every client.
+ */
+final class RendezvousHashing {
+
+    private RendezvousHashing() {
+    }
+
+    static String select(String[] nodes, Object key) {
+        final int keyHash = key.hashCode();
+        String selected = nodes[0];
+        long selectedScore = score(selected, keyHash);
+        for (int i = 1; i < nodes.length; i ++) {
+            final String node = nodes[i];
+            final long score = score(node, keyHash);
+            // break ties by name so that the result does not depend on the order of the nodes
+            if (score > selectedScore || score == selectedScore && node.compareTo(selected) < 0) {
+                selected = node;
+                selectedScore = score;
+            }
+        }
+        return selected;
+    }
+
+    private static long score(String node, int keyHash) {
+        // finalization step of MurmurHash3, applied to the concatenated hash codes
+        long h = (long) node.hashCode() << 32 | keyHash & 0xffffffffL;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.client;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.jboss.ejb._private.Logs;
+import org.wildfly.common.Assert;
+import org.wildfly.security.auth.client.AuthenticationContext;
+
+/**
+ * A client-side pool of pre-opened stateful EJB sessions.  Sessions are opened asynchronously in the background, so
+ * that {@link #acquire()} can usually hand out a ready proxy without a session creation round trip.  Each acquired
+ * session is removed from the pool and the pool is refilled in the background.
+ * <p>
+ * Sessions are opened through the normal session creation path of the client context which was current when the
+ * pool was created, so cluster affinity and deployment availability are honored exactly as for
+ * {@link EJBClient#createSessionProxy(StatelessEJBLocator)}.  Pooled sessions which have been idle longer than the
+ * configured maximum idle time are discarded rather than handed out, since the server may have removed them.
+ * Sessions which are discarded without being handed out, either because they were idle too long or because the pool
+ * was closed, are removed on the server with the remove action given when the pool was created, which would
+ * typically call a {@code @Remove} method of the view; without one, they are left for the server to time out.
+ * Pooled sessions bound to a node which leaves the topology, or whose module becomes unavailable on their node, are
+ * evicted straight away.
+ *
+ * @param <T> the view type
+ */
+public final class StatefulSessionPool<T> implements AutoCloseable {
+    private final StatelessEJBLocator<T> statelessLocator;
+    private final EJBClientContext clientContext;
+    private final AuthenticationContext authenticationContext;
+    private final Executor executor;
+    private final int size;
+    private final long maxIdleNanos;
+    private final Consumer<? super T> removeAction;
+    private final ConcurrentLinkedQueue<PooledSession<T>> sessions = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AvailabilityListener availabilityListener;
+    private volatile boolean closed;
+
+    private StatefulSessionPool(final StatelessEJBLocator<T> statelessLocator, final EJBClientContext clientContext, final AuthenticationContext authenticationContext, final int size, final long maxIdleNanos, final Executor executor, final Consumer<? super T> removeAction) {
+        this.statelessLocator = statelessLocator;
+        this.clientContext = clientContext;
+        this.authenticationContext = authenticationContext;
+        this.size = size;
+        this.maxIdleNanos = maxIdleNanos;
+        this.executor = executor;
+        this.removeAction = removeAction;
+        availabilityListener = new AvailabilityListener(this, clientContext.getNodeStatistics());
+    }
+
+    /**
+     * Create a new session pool and begin filling it in the background.  The current EJB client context and
+     * authentication context are captured and used for all sessions opened by the pool.
+     *
+     * @param statelessLocator the stateless locator identifying the stateful EJB (must not be {@code null})
+     * @param size the number of sessions to keep ready (must be greater than zero)
+     * @param maxIdleTime the maximum time a pooled session may remain unused, or 0 for no limit
+     * @param timeUnit the unit of the maximum idle time (must not be {@code null})
+     * @param executor the executor with which to open sessions (must not be {@code null})
+     * @param <T> the view type
+     * @return the new session pool (not {@code null})
+     */
+    public static <T> StatefulSessionPool<T> create(final StatelessEJBLocator<T> statelessLocator, final int size, final long maxIdleTime, final TimeUnit timeUnit, final Executor executor) {
+        return create(statelessLocator, size, maxIdleTime, timeUnit, executor, null);
+    }
+
+    /**
+     * Create a new session pool and begin filling it in the background.  The current EJB client context and
+     * authentication context are captured and used for all sessions opened and removed by the pool.
+     *
+     * @param statelessLocator the stateless locator identifying the stateful EJB (must not be {@code null})
+     * @param size the number of sessions to keep ready (must be greater than zero)
+     * @param maxIdleTime the maximum time a pooled session may remain unused, or 0 for no limit
+     * @param timeUnit the unit of the maximum idle time (must not be {@code null})
+     * @param executor the executor with which to open and remove sessions (must not be {@code null})
+     * @param removeAction the action which removes a session which is discarded without being handed out, given a
+     *     proxy for it, or {@code null} to leave such sessions for the server to time out
+     * @param <T> the view type
+     * @return the new session pool (not {@code null})
+     */
+    public static <T> StatefulSessionPool<T> create(final StatelessEJBLocator<T> statelessLocator, final int size, final long maxIdleTime, final TimeUnit timeUnit, final Executor executor, final Consumer<? super T> removeAction) {
+        Assert.checkNotNullParam("statelessLocator", statelessLocator);
+        Assert.checkMinimumParameter("size", 1, size);
+        Assert.checkMinimumParameter("maxIdleTime", 0L, maxIdleTime);
+        Assert.checkNotNullParam("timeUnit", timeUnit);
+        Assert.checkNotNullParam("executor", executor);
+        final EJBClientContext clientContext = EJBClientContext.getCurrent();
+        final StatefulSessionPool<T> pool = new StatefulSessionPool<>(statelessLocator, clientContext, AuthenticationContext.captureCurrent(), size, timeUnit.toNanos(maxIdleTime), executor, removeAction);
+        AvailabilityListener.expunge();
+        clientContext.getNodeStatistics().addAvailabilityListener(pool.availabilityListener);
+        pool.refill();
+        return pool;
+    }
+
+    /**
+     * Get the stateless locator for which this pool opens sessions.
+     *
+     * @return the stateless locator (not {@code null})
+     */
+    public StatelessEJBLocator<T> getStatelessLocator() {
+        return statelessLocator;
+    }
+
+    /**
+     * Get the number of sessions currently ready in the pool.
+     *
+     * @return the number of ready sessions
+     */
+    public int getAvailableCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Acquire a session proxy.  If a ready session is pooled, a proxy for it is returned immediately; otherwise a
+     * session is created synchronously on the calling thread.  In either case the pool is refilled in the background.
+     *
+     * @return the new session proxy (not {@code null})
+     * @throws Exception if no session was pooled and session creation failed
+     */
+    public T acquire() throws Exception {
+        if (closed) {
+            throw Logs.MAIN.sessionPoolClosed();
+        }
+        try {
+            PooledSession<T> session;
+            while ((session = sessions.poll()) != null) {
+                if (maxIdleNanos == 0L || System.nanoTime() - session.created < maxIdleNanos) {
+                    return session.createProxy(null);
+                }
+                Logs.INVOCATION.tracef("Discarding idle pooled session %s", session.locator);
+                remove(session);
+            }
+            final EJBSessionCreationInvocationContext context = clientContext.createSessionCreationInvocationContext(statelessLocator, authenticationContext);
+            return new PooledSession<>(clientContext.runCallable(() -> clientContext.createSession(context, statelessLocator, null)), context.getWeakAffinity()).createProxy(null);
+        } finally {
+            refill();
+        }
+    }
+
+    /**
+     * Close this pool.  Sessions which are still pooled, or which finish opening later, are discarded and removed with
+     * the remove action of the pool, and no further sessions are opened.
+     */
+    public void close() {
+        closed = true;
+        clientContext.getNodeStatistics().removeAvailabilityListener(availabilityListener);
+        PooledSession<T> session;
+        while ((session = sessions.poll()) != null) {
+            remove(session);
+        }
+    }
+
+    private void nodeRemoved(final String nodeName) {
+        // the sessions went with the node, so there is nothing to remove
+        evict(session -> session.isBoundTo(nodeName));
+    }
+
+    private void moduleUnavailable(final String nodeName, final EJBModuleIdentifier moduleIdentifier) {
+        evict(session -> session.isBoundTo(nodeName) && session.locator.getIdentifier().getModuleIdentifier().equals(moduleIdentifier));
+    }
+
+    private void evict(final Predicate<PooledSession<T>> predicate) {
+        if (sessions.removeIf(predicate)) {
+            refill();
+        }
+    }
+
+    private void remove(final PooledSession<T> session) {
+        final Consumer<? super T> removeAction = this.removeAction;
+        if (removeAction == null) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    clientContext.runExConsumer(removeAction::accept, session.createProxy(new FixedSupplier<>(authenticationContext)));
+                } catch (Throwable t) {
+                    Logs.INVOCATION.debugf(t, "Failed to remove discarded session %s", session.locator);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Logs.INVOCATION.debugf(e, "Failed to remove discarded session %s", session.locator);
+        }
+    }
+
+    private void refill() {
+        while (reserve()) {
+            openSession();
+        }
+    }
+
+    private boolean reserve() {
+        int cnt;
+        do {
+            cnt = pending.get();
+            if (closed || sessions.size() + cnt >= size) {
+                return false;
+            }
+        } while (! pending.compareAndSet(cnt, cnt + 1));
+        return true;
+    }
+
+    private void openSession() {
+        final EJBSessionCreationInvocationContext context = clientContext.createSessionCreationInvocationContext(statelessLocator, authenticationContext);
+        clientContext.createSessionAsync(context, statelessLocator, null, executor).whenComplete((locator, problem) -> {
+            pending.decrementAndGet();
+            if (problem != null) {
+                // do not spin on an unavailable bean; the next acquire will try again
+                Logs.INVOCATION.debugf(problem, "Failed to pre-open session for %s", statelessLocator);
+                return;
+            }
+            final PooledSession<T> session = new PooledSession<>(locator, context.getWeakAffinity());
+            if (closed) {
+                remove(session);
+                return;
+            }
+            sessions.add(session);
+            // the pool may have been closed while the session was being added
+            if (closed && sessions.remove(session)) {
+                remove(session);
+                return;
+            }
+            refill();
+        });
+    }
+
+    /**
+     * The availability listener of a pool, which refers to the pool weakly so that a pool which is dropped without
+     * being closed does not live as long as its client context.  The listeners of such pools are unregistered when
+     * the next pool is created, or when they are next notified.  The sessions of such a pool are left for the server
+     * to time out.
+     */
+    static final class AvailabilityListener extends WeakReference<StatefulSessionPool<?>> implements NodeStatistics.AvailabilityListener {
+        private static final ReferenceQueue<StatefulSessionPool<?>> QUEUE = new ReferenceQueue<>();
+
+        private final NodeStatistics nodeStatistics;
+
+        AvailabilityListener(final StatefulSessionPool<?> pool, final NodeStatistics nodeStatistics) {
+            super(pool, QUEUE);
+            this.nodeStatistics = nodeStatistics;
+        }
+
+        static void expunge() {
+            Reference<? extends StatefulSessionPool<?>> reference;
+            while ((reference = QUEUE.poll()) != null) {
+                final AvailabilityListener listener = (AvailabilityListener) reference;
+                listener.nodeStatistics.removeAvailabilityListener(listener);
+            }
+        }
+
+        public void nodeRemoved(final String nodeName) {
+            final StatefulSessionPool<?> pool = get();
+            if (pool == null) {
+                nodeStatistics.removeAvailabilityListener(this);
+            } else {
+                pool.nodeRemoved(nodeName);
+            }
+        }
+
+        public void moduleUnavailable(final String nodeName, final EJBModuleIdentifier moduleIdentifier) {
+            final StatefulSessionPool<?> pool = get();
+            if (pool == null) {
+                nodeStatistics.removeAvailabilityListener(this);
+            } else {
+                pool.moduleUnavailable(nodeName, moduleIdentifier);
+            }
+        }
+    }
+
+    static final class PooledSession<T> {
+        final StatefulEJBLocator<T> locator;
+        final Affinity weakAffinity;
+        final long created = System.nanoTime();
+
+        PooledSession(final StatefulEJBLocator<T> locator, final Affinity weakAffinity) {
+            this.locator = locator;
+            this.weakAffinity = weakAffinity;
+        }
+
+        boolean isBoundTo(final String nodeName) {
+            return isNode(locator.getAffinity(), nodeName) || isNode(weakAffinity, nodeName);
+        }
+
+        private static boolean isNode(final Affinity affinity, final String nodeName) {
+            return affinity instanceof NodeAffinity && ((NodeAffinity) affinity).getNodeName().equals(nodeName);
+        }
+
+        T createProxy(final Supplier<AuthenticationContext> authenticationContextSupplier) {
+            final T proxy = EJBClient.createProxy(locator, authenticationContextSupplier);
+            if (weakAffinity != null && Affinity.NONE != weakAffinity) {
+                EJBClient.setWeakAffinity(proxy, weakAffinity);
+            }
+            return proxy;
+        }
+    }
+}
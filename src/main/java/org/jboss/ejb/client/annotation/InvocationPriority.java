@@ -0,0 +1,53 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.client.annotation;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * The priority of invocations of the annotated interface or method.  Servers which support it execute higher priority
+ * invocations first when they are busy, while still giving lower priority invocations a share of the capacity.  The
+ * priority may be overridden for a single invocation by the {@link org.jboss.ejb.client.EJBClient#INVOCATION_PRIORITY_KEY}
+ * context data key.  If no priority is specified, then {@link #NORMAL} is used.
+ */
+@Target({METHOD, TYPE})
+@Retention(RUNTIME)
+public @interface InvocationPriority {
+    int value();
+
+    /**
+     * The priority of background or batch work.  Any priority below {@link #NORMAL} is treated as low.
+     */
+    int LOW = -100;
+
+    /**
+     * The default priority.
+     */
+    int NORMAL = 0;
+
+    /**
+     * The priority of interactive work.  Any priority above {@link #NORMAL} is treated as high.
+     */
+    int HIGH = 100;
+}
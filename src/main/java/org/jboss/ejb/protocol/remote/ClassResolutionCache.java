@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.protocol.remote;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.ejb.client.EJBModuleIdentifier;
+import org.jboss.ejb.server.ModuleAvailabilityListener;
+
+/**
+ * The classes resolved while unmarshalling invocation requests, kept per deployed module and shared by all of the
+ * channels of a {@link RemoteEJBService}.  An entry is only used with the class loader it was built for, so a
+ * redeployed module starts afresh even before its undeployment is noticed; undeployment releases the entry.  The
+ * cache is registered once with the association, so that it is invalidated once per undeployment, whether or not any
+ * channels are open.
+ */
+final class ClassResolutionCache implements ModuleAvailabilityListener {
+    private final ConcurrentHashMap<EJBModuleIdentifier, Entry> entries = new ConcurrentHashMap<>();
+
+    ClassResolutionCache() {
+    }
+
+    /**
+     * Get the resolved classes of a module.
+     *
+     * @param module the module of the invoked EJB
+     * @param classLoader the class loader which the container resolves the module's requests with
+     * @return the map of class names to resolved classes
+     */
+    ConcurrentMap<String, Class<?>> getClasses(final EJBModuleIdentifier module, final ClassLoader classLoader) {
+        final Entry entry = entries.get(module);
+        if (entry != null && entry.classLoader == classLoader) {
+            return entry.classes;
+        }
+        return entries.compute(module, (ignored, existing) -> existing != null && existing.classLoader == classLoader ? existing : new Entry(classLoader)).classes;
+    }
+
+    public void moduleAvailable(final List<EJBModuleIdentifier> modules) {
+    }
+
+    public void moduleUnavailable(final List<EJBModuleIdentifier> modules) {
+        entries.keySet().removeAll(modules);
+    }
+
+    static final class Entry {
+        final ClassLoader classLoader;
+        final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<>();
+
+        Entry(final ClassLoader classLoader) {
+            this.classLoader = classLoader;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.protocol.remote;
+
+import static java.security.AccessController.doPrivileged;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.ejb._private.Logs;
+import org.jboss.remoting3.ConnectionPeerIdentity;
+import org.jboss.remoting3.Endpoint;
+import org.wildfly.security.auth.client.AuthenticationContext;
+import org.xnio.IoFuture;
+import org.xnio.OptionMap;
+
+/**
+ * Opens connections and EJB channels to newly discovered cluster nodes in the background, so that the first
+ * invocation sent to such a node does not have to connect, authenticate and negotiate the EJB protocol inline.
+ * Connections are opened up to the maximum number of connected cluster nodes of the client context, a few at a
+ * time, and each is delayed by a random amount so that many clients learning of the same topology change do not
+ * connect to the new nodes at the same instant.
+ * <p>
+ * Remoting only shares a connection between requests which use the same authentication configuration, so the nodes
+ * are connected to with the authentication context of the most recent discovery, which is the one that discovery
+ * uses to connect to cluster nodes as well.  Until the first discovery, the context which was current when the
+ * receiver started is used.  If an application invokes with several identities, only the connections of the most
+ * recent one are warmed; the others are opened on first use, as they would be without warming.
+ */
+final class ClusterConnectionWarmer {
+    static final boolean ENABLED = doPrivileged((PrivilegedAction<Boolean>) () -> Boolean.valueOf(System.getProperty("org.jboss.ejb.client.discovery.warm-up", "false"))).booleanValue();
+    static final int CONCURRENCY = doPrivileged((PrivilegedAction<Integer>) () -> Integer.valueOf(System.getProperty("org.jboss.ejb.client.discovery.warm-up-concurrency", "2"))).intValue();
+    static final long MAX_JITTER = doPrivileged((PrivilegedAction<Long>) () -> Long.valueOf(System.getProperty("org.jboss.ejb.client.discovery.warm-up-jitter", "1000"))).longValue();
+
+    private final RemoteEJBReceiver ejbReceiver;
+    private final RemotingEJBDiscoveryProvider discoveryProvider;
+    private final Endpoint endpoint;
+    private volatile AuthenticationContext authenticationContext;
+    // destinations which are waiting for their jitter delay, queued, or connecting
+    private final Set<URI> pending = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<Task> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+
+    ClusterConnectionWarmer(final RemoteEJBReceiver ejbReceiver, final RemotingEJBDiscoveryProvider discoveryProvider, final Endpoint endpoint, final AuthenticationContext authenticationContext) {
+        this.ejbReceiver = ejbReceiver;
+        this.discoveryProvider = discoveryProvider;
+        this.endpoint = endpoint;
+        this.authenticationContext = authenticationContext;
+    }
+
+    void discoveryStarted(final AuthenticationContext authenticationContext) {
+        this.authenticationContext = authenticationContext;
+    }
+
+    void topologyChanged(final TopologySnapshot topology) {
+        final int target = ejbReceiver.getReceiverContext().getClientContext().getMaximumConnectedClusterNodes();
+        if (target <= 0) {
+            return;
+        }
+        final AuthenticationContext authenticationContext = this.authenticationContext;
+        for (Map.Entry<String, Set<String>> entry : topology.getClusterNodes().entrySet()) {
+            final String clusterName = entry.getKey();
+            int connected = 0;
+            final List<URI> candidates = new ArrayList<>();
+            for (String nodeName : entry.getValue()) {
+                final URI uri = discoveryProvider.getClusterNodeURI(clusterName, nodeName, ejbReceiver);
+                if (uri != null) {
+                    if (pending.contains(uri) || ejbReceiver.isConnected(uri)) {
+                        connected ++;
+                    } else {
+                        candidates.add(uri);
+                    }
+                }
+            }
+            // spread the clients of a cluster over its nodes
+            Collections.shuffle(candidates, ThreadLocalRandom.current());
+            for (URI uri : candidates) {
+                if (connected >= target) {
+                    break;
+                }
+                if (pending.add(uri)) {
+                    connected ++;
+                    schedule(new Task(uri, clusterName, authenticationContext));
+                }
+            }
+        }
+    }
+
+    private void schedule(final Task task) {
+        final long delay = MAX_JITTER <= 0L ? 0L : ThreadLocalRandom.current().nextLong(MAX_JITTER);
+        endpoint.getXnioWorker().getIoThread().executeAfter(() -> {
+            queue.add(task);
+            drain();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void drain() {
+        for (;;) {
+            int cnt = running.get();
+            if (cnt >= CONCURRENCY) {
+                return;
+            }
+            if (! running.compareAndSet(cnt, cnt + 1)) {
+                continue;
+            }
+            final Task task = queue.poll();
+            if (task == null) {
+                running.decrementAndGet();
+                // a task may have been queued after we polled
+                if (queue.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            connect(task);
+        }
+    }
+
+    private void connect(final Task task) {
+        final URI uri = task.uri;
+        Logs.INVOCATION.tracef("Warming up connection to cluster %s node at %s", task.clusterName, uri);
+        final IoFuture<ConnectionPeerIdentity> future = doPrivileged((PrivilegedAction<IoFuture<ConnectionPeerIdentity>>) () -> discoveryProvider.getConnectedIdentityUsingClusterEffective(endpoint, uri, "ejb", "jboss", task.authenticationContext, task.clusterName));
+        future.addNotifier(new IoFuture.HandlingNotifier<ConnectionPeerIdentity, Task>() {
+            public void handleCancelled(final Task task) {
+                finish(task);
+            }
+
+            public void handleFailed(final IOException exception, final Task task) {
+                Logs.INVOCATION.debugf(exception, "Failed to warm up connection to %s", task.uri);
+                finish(task);
+            }
+
+            public void handleDone(final ConnectionPeerIdentity identity, final Task task) {
+                ejbReceiver.serviceHandle.getClientService(identity.getConnection(), OptionMap.EMPTY).addNotifier((ioFuture, attachment) -> finish(attachment), task);
+            }
+        }, task);
+    }
+
+    private void finish(final Task task) {
+        pending.remove(task.uri);
+        running.decrementAndGet();
+        drain();
+    }
+
+    static final class Task {
+        final URI uri;
+        final String clusterName;
+        final AuthenticationContext authenticationContext;
+
+        Task(final URI uri, final String clusterName, final AuthenticationContext authenticationContext) {
+            this.uri = uri;
+            this.clusterName = clusterName;
+            this.authenticationContext = authenticationContext;
+        }
+    }
+}
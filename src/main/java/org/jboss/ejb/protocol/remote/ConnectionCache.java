@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.protocol.remote;
+
+import java.net.URI;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.ConnectionPeerIdentity;
+import org.wildfly.security.auth.client.AuthenticationContext;
+import org.xnio.IoFuture;
+
+/**
+ * A cache of the peer identities resolved for each destination, authentication context and effective cluster, so
+ * that invocations to an already connected destination skip the resolution of the SSL context and authentication
+ * configuration.  Authentication contexts are immutable, so they are compared by identity.  An entry is removed
+ * when its connection closes, and the oldest entries are evicted one at a time when the cache is full.
+ */
+final class ConnectionCache {
+    // a backstop against applications which create a new authentication context for every call
+    private static final int MAX_SIZE = 1024;
+
+    private final ConcurrentHashMap<Key, ConnectionPeerIdentity> identities = new ConcurrentHashMap<>();
+    // the keys in the order they were added; keys whose connection has closed are dropped along with their entries
+    private final ConcurrentLinkedQueue<Key> order = new ConcurrentLinkedQueue<>();
+    // the connections which have a close handler registered by this cache
+    private final Set<Connection> watched = ConcurrentHashMap.newKeySet();
+
+    ConnectionCache() {
+    }
+
+    /**
+     * Get the cached peer identity for a destination.
+     *
+     * @return the peer identity, or {@code null} if there is none or its connection is no longer open
+     */
+    ConnectionPeerIdentity get(final URI destination, final AuthenticationContext authenticationContext, final String clusterName) {
+        final ConnectionPeerIdentity identity = identities.get(new Key(destination, authenticationContext, clusterName));
+        return identity != null && identity.getConnection().isOpen() ? identity : null;
+    }
+
+    /**
+     * Cache the peer identity produced by the given future once it completes successfully.
+     *
+     * @return the given future
+     */
+    IoFuture<ConnectionPeerIdentity> cache(final URI destination, final AuthenticationContext authenticationContext, final String clusterName, final IoFuture<ConnectionPeerIdentity> future) {
+        future.addNotifier(new IoFuture.HandlingNotifier<ConnectionPeerIdentity, Key>() {
+            public void handleDone(final ConnectionPeerIdentity identity, final Key key) {
+                put(key, identity);
+            }
+        }, new Key(destination, authenticationContext, clusterName));
+        return future;
+    }
+
+    void put(final URI destination, final AuthenticationContext authenticationContext, final String clusterName, final ConnectionPeerIdentity identity) {
+        put(new Key(destination, authenticationContext, clusterName), identity);
+    }
+
+    private void put(final Key key, final ConnectionPeerIdentity identity) {
+        final Connection connection = identity.getConnection();
+        if (! connection.isOpen()) {
+            return;
+        }
+        if (watched.add(connection)) {
+            connection.addCloseHandler((closed, exception) -> {
+                identities.values().removeIf(cached -> cached.getConnection() == closed);
+                order.removeIf(cachedKey -> ! identities.containsKey(cachedKey));
+                watched.remove(closed);
+            });
+        }
+        if (identities.put(key, identity) == null) {
+            order.add(key);
+            while (identities.size() > MAX_SIZE) {
+                final Key eldest = order.poll();
+                if (eldest == null) {
+                    break;
+                }
+                identities.remove(eldest);
+            }
+        }
+        if (! connection.isOpen()) {
+            // the connection closed while the entry was being added, perhaps after its close handler ran
+            identities.remove(key, identity);
+        }
+    }
+
+    static final class Key {
+        private final URI destination;
+        private final AuthenticationContext authenticationContext;
+        private final String clusterName;
+        private final int hashCode;
+
+        Key(final URI destination, final AuthenticationContext authenticationContext, final String clusterName) {
+            this.destination = destination;
+            this.authenticationContext = authenticationContext;
+            this.clusterName = clusterName;
+            hashCode = (destination.hashCode() * 31 + System.identityHashCode(authenticationContext)) * 31 + Objects.hashCode(clusterName);
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof Key && equals((Key) obj);
+        }
+
+        boolean equals(final Key other) {
+            return this == other || other != null && hashCode == other.hashCode && authenticationContext == other.authenticationContext && destination.equals(other.destination) && Objects.equals(clusterName, other.clusterName);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.jboss.ejb.protocol.remote;
 
 import java.net.URI;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -30,6 +31,16 @@ interface DiscoveredNodeRegistry {
 
     List<NodeInformation> getAllNodeInformation();
 
+    TopologySnapshot getTopology();
+
+    /**
+     * Apply an update to the topology and publish the result as a new snapshot, unless it changed nothing.
+     *
+     * @param update the update to apply to a builder of the current snapshot
+     * @return {@code true} if a new snapshot was published, {@code false} if the update changed nothing
+     */
+    boolean updateTopology(Consumer<TopologySnapshot.Builder> update);
+
     void addNode(String clusterName, String nodeName, URI registeredBy);
 
     void removeNode(String clusterName, String nodeName);
@@ -19,6 +19,7 @@
 package org.jboss.ejb.protocol.remote;
 
 import static java.lang.Math.min;
+import static java.security.AccessController.doPrivileged;
 import static org.xnio.Bits.allAreClear;
 import static org.xnio.Bits.allAreSet;
 import static org.xnio.IoUtils.safeClose;
@@ -35,13 +36,24 @@ import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.channels.ClosedChannelException;
 import java.nio.charset.StandardCharsets;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterInputStream;
@@ -68,6 +80,7 @@ import org.jboss.ejb.client.EJBModuleIdentifier;
 import org.jboss.ejb.client.EJBReceiverInvocationContext;
 import org.jboss.ejb.client.EJBSessionCreationInvocationContext;
 import org.jboss.ejb.client.NodeAffinity;
+import org.jboss.ejb.client.NodeStatistics;
 import org.jboss.ejb.client.RequestSendFailedException;
 import org.jboss.ejb.client.SessionID;
 import org.jboss.ejb.client.StatefulEJBLocator;
@@ -103,6 +116,7 @@ import org.wildfly.transaction.client.provider.remoting.SimpleIdResolver;
 import org.xnio.Cancellable;
 import org.xnio.FutureResult;
 import org.xnio.IoFuture;
+import org.xnio.XnioWorker;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -110,12 +124,17 @@ import org.xnio.IoFuture;
  */
 @SuppressWarnings("deprecation")
 class EJBClientChannel {
+    static final long PING_INTERVAL = doPrivileged((PrivilegedAction<Long>) () -> Long.valueOf(System.getProperty("org.jboss.ejb.client.ping-interval", "30000"))).longValue();
+    static final long PING_TIMEOUT = doPrivileged((PrivilegedAction<Long>) () -> Long.valueOf(System.getProperty("org.jboss.ejb.client.ping-timeout", "10000"))).longValue();
+    static final PingMonitor.TimeoutAction PING_TIMEOUT_ACTION = doPrivileged((PrivilegedAction<PingMonitor.TimeoutAction>) () -> PingMonitor.TimeoutAction.of(System.getProperty("org.jboss.ejb.client.ping-timeout-action", "close-channel")));
 
     private final MarshallerFactory marshallerFactory;
 
     private final Channel channel;
     private final int version;
+    private final int capabilities;
     private final DiscoveredNodeRegistry discoveredNodeRegistry;
+    private final NodeStatistics nodeStatistics;
 
     private final InvocationTracker invocationTracker;
 
@@ -128,10 +147,14 @@ class EJBClientChannel {
 
     private final RetryExecutorWrapper retryExecutorWrapper;
 
-    EJBClientChannel(final Channel channel, final int version, final DiscoveredNodeRegistry discoveredNodeRegistry, final FutureResult<EJBClientChannel> futureResult, RetryExecutorWrapper retryExecutorWrapper) {
+    private final PingMonitor pingMonitor = new PingMonitor();
+
+    EJBClientChannel(final Channel channel, final int version, final int capabilities, final DiscoveredNodeRegistry discoveredNodeRegistry, final NodeStatistics nodeStatistics, final FutureResult<EJBClientChannel> futureResult, RetryExecutorWrapper retryExecutorWrapper) {
         this.channel = channel;
         this.version = version;
+        this.capabilities = capabilities;
         this.discoveredNodeRegistry = discoveredNodeRegistry;
+        this.nodeStatistics = nodeStatistics;
         this.retryExecutorWrapper = retryExecutorWrapper;
         marshallerFactory = Marshalling.getProvidedMarshallerFactory("river");
         MarshallingConfiguration configuration = new MarshallingConfiguration();
@@ -157,9 +180,13 @@ class EJBClientChannel {
         futureResultRef = new AtomicReference<>(futureResult);
         final String nodeName = connection.getRemoteEndpointName();
         final NodeInformation nodeInformation = discoveredNodeRegistry.getNodeInformation(nodeName);
-        nodeInformation.addAddress(this);
         nodeInformation.setInvalid(false);
-        channel.addCloseHandler((ignored1, ignored2) -> nodeInformation.removeConnection(this));
+        nodeInformation.setProvisional(false);
+        // a node which was draining is accepting work again once it can be reconnected to
+        nodeStatistics.setDraining(nodeName, false);
+        final URI peerURI = connection.getPeerURI();
+        discoveredNodeRegistry.updateTopology(builder -> builder.addConnection(nodeName, this, peerURI));
+        channel.addCloseHandler((ignored1, ignored2) -> discoveredNodeRegistry.updateTopology(builder -> builder.removeConnection(nodeName, this)));
     }
 
     static int mask(int original) {
@@ -168,6 +195,7 @@ class EJBClientChannel {
 
     private void processMessage(final MessageInputStream message) {
         boolean leaveOpen = false;
+        pingMonitor.messageReceived();
         try {
             final int msg = message.readUnsignedByte();
             switch (msg) {
@@ -181,6 +209,7 @@ class EJBClientChannel {
                 case Protocol.SESSION_NOT_ACTIVE:
                 case Protocol.EJB_NOT_STATEFUL:
                 case Protocol.BAD_VIEW_TYPE:
+                case Protocol.SERVER_BUSY:
                 case Protocol.PROCEED_ASYNC_RESPONSE:{
                     final int invId = message.readUnsignedShort();
                     leaveOpen = invocationTracker.signalResponse(invId, msg, message, false);
@@ -195,7 +224,8 @@ class EJBClientChannel {
                 }
                 case Protocol.MODULE_AVAILABLE: {
                     int count = StreamUtils.readPackedSignedInt32(message);
-                    final NodeInformation nodeInformation = discoveredNodeRegistry.getNodeInformation(getChannel().getConnection().getRemoteEndpointName());
+                    final String nodeName = getChannel().getConnection().getRemoteEndpointName();
+                    final URI peerURI = getChannel().getConnection().getPeerURI();
                     final EJBModuleIdentifier[] moduleList = new EJBModuleIdentifier[count];
                     for (int i = 0; i < count; i ++) {
                         final String appName = message.readUTF();
@@ -207,13 +237,14 @@ class EJBClientChannel {
                         Logs.INVOCATION.debugf("Received MODULE_AVAILABLE(%x) message for module %s", msg, moduleIdentifier);
 
                     }
-                    nodeInformation.addModules(this, moduleList);
+                    // the whole message is published as a single topology snapshot
+                    discoveredNodeRegistry.updateTopology(builder -> builder.addModules(nodeName, this, peerURI, Arrays.asList(moduleList)));
                     finishPart(0b01);
                     break;
                 }
                 case Protocol.MODULE_UNAVAILABLE: {
                     int count = StreamUtils.readPackedSignedInt32(message);
-                    final NodeInformation nodeInformation = discoveredNodeRegistry.getNodeInformation(getChannel().getConnection().getRemoteEndpointName());
+                    final String nodeName = getChannel().getConnection().getRemoteEndpointName();
                     final HashSet<EJBModuleIdentifier> set = new HashSet<>(count);
                     for (int i = 0; i < count; i ++) {
                         final String appName = message.readUTF();
@@ -223,22 +254,33 @@ class EJBClientChannel {
                         set.add(moduleIdentifier);
                         Logs.INVOCATION.debugf("Received MODULE_UNAVAILABLE(%x) message for module %s", msg, moduleIdentifier);
                     }
-                    nodeInformation.removeModules(this, set);
+                    discoveredNodeRegistry.updateTopology(builder -> builder.removeModules(nodeName, this, set));
+                    for (EJBModuleIdentifier moduleIdentifier : set) {
+                        nodeStatistics.moduleUnavailable(nodeName, moduleIdentifier);
+                    }
                     break;
                 }
                 case Protocol.CLUSTER_TOPOLOGY_ADDITION:
                 case Protocol.CLUSTER_TOPOLOGY_COMPLETE: {
                     int clusterCount = StreamUtils.readPackedSignedInt32(message);
+                    // membership and client mappings are published as a single topology snapshot once the whole message is read
+                    final URI peerURI = channel.getConnection().getPeerURI();
+                    final String protocol = channel.getConnection().getProtocol();
+                    final List<Consumer<TopologySnapshot.Builder>> updates = new ArrayList<>();
+                    final Map<String, Set<String>> confirmed = new HashMap<>();
                     for (int i = 0; i < clusterCount; i ++) {
                         final String clusterName = message.readUTF();
+                        final Set<String> clusterMembers = new HashSet<>();
+                        confirmed.put(clusterName, clusterMembers);
                         int memberCount = StreamUtils.readPackedSignedInt32(message);
                         for (int j = 0; j < memberCount; j ++) {
                             final String nodeName = message.readUTF();
-                            discoveredNodeRegistry.addNode(clusterName, nodeName, channel.getConnection().getPeerURI());
-                            final NodeInformation nodeInformation = discoveredNodeRegistry.getNodeInformation(nodeName);
+                            clusterMembers.add(nodeName);
+                            updates.add(builder -> builder.addNode(clusterName, nodeName, peerURI));
+                            discoveredNodeRegistry.getNodeInformation(nodeName).setProvisional(false);
                             Logs.INVOCATION.debugf("Received CLUSTER_TOPOLOGY(%x) message, registering cluster %s to node %s", msg, clusterName, nodeName);
 
-                            // create and register the concrete ServiceURLs for each client mapping
+                            // record the client mappings from which the concrete ServiceURLs are created
                             int mappingCount = StreamUtils.readPackedSignedInt32(message);
                             for (int k = 0; k < mappingCount; k ++) {
                                 int b = message.readUnsignedByte();
@@ -250,43 +292,140 @@ class EJBClientChannel {
                                 final String destHost = message.readUTF();
                                 final int destPort = message.readUnsignedShort();
                                 final InetSocketAddress destination = new InetSocketAddress(destHost, destPort);
-                                nodeInformation.addAddress(channel.getConnection().getProtocol(), clusterName, block, destination);
+                                updates.add(builder -> builder.addMapping(clusterName, nodeName, protocol, block, destination));
                                 Logs.INVOCATION.debugf("Received CLUSTER_TOPOLOGY(%x) message block, registering block %s to address %s", msg, block, destination);
                             }
                         }
                     }
+                    final Set<String> evicted = new HashSet<>();
+                    final boolean changed = discoveredNodeRegistry.updateTopology(builder -> {
+                        for (Consumer<TopologySnapshot.Builder> update : updates) {
+                            update.accept(builder);
+                        }
+                        if (msg == Protocol.CLUSTER_TOPOLOGY_COMPLETE) {
+                            // a stored member which the full topology of a live node does not list has left the cluster
+                            for (Map.Entry<String, Set<String>> entry : confirmed.entrySet()) {
+                                for (String nodeName : new ArrayList<>(builder.getClusterNodes(entry.getKey()))) {
+                                    if (! entry.getValue().contains(nodeName) && discoveredNodeRegistry.getNodeInformation(nodeName).isProvisional()) {
+                                        builder.removeNode(entry.getKey(), nodeName);
+                                        evicted.add(nodeName);
+                                    }
+                                }
+                            }
+                        }
+                    });
+                    if (msg == Protocol.CLUSTER_TOPOLOGY_COMPLETE) {
+                        discoveredNodeRegistry.getNodeInformation(channel.getConnection().getRemoteEndpointName()).topologyResynchronized();
+                    }
+                    if (changed) {
+                        topologyDiverged();
+                    }
+                    if (! evicted.isEmpty()) {
+                        Logs.INVOCATION.debugf("Evicted stored cluster members %s which are not part of the topology of %s", evicted, peerURI);
+                        forgetDepartedNodes(evicted);
+                    }
                     finishPart(0b10);
                     break;
                 }
                 case Protocol.CLUSTER_TOPOLOGY_REMOVAL: {
                     int clusterCount = StreamUtils.readPackedSignedInt32(message);
+                    final List<String> removedClusters = new ArrayList<>(clusterCount);
+                    final Set<String> members = new HashSet<>();
                     for (int i = 0; i < clusterCount; i ++) {
                         String clusterName = message.readUTF();
-                        discoveredNodeRegistry.removeCluster(clusterName);
+                        removedClusters.add(clusterName);
+                        members.addAll(discoveredNodeRegistry.getTopology().getClusterNodes(clusterName));
 
                         Logs.INVOCATION.debugf("Received CLUSTER_TOPOLOGY_REMOVAL(%x) message for cluster %s", msg, clusterName);
-
-                        for (NodeInformation nodeInformation : discoveredNodeRegistry.getAllNodeInformation()) {
-                            nodeInformation.removeCluster(clusterName);
+                    }
+                    if (discoveredNodeRegistry.updateTopology(builder -> {
+                        for (String clusterName : removedClusters) {
+                            builder.removeCluster(clusterName);
                         }
+                    })) {
+                        topologyDiverged();
                     }
+                    forgetDepartedNodes(members);
                     break;
                 }
                 case Protocol.CLUSTER_TOPOLOGY_NODE_REMOVAL: {
                     int clusterCount = StreamUtils.readPackedSignedInt32(message);
+                    final List<String[]> removed = new ArrayList<>();
+                    final Set<String> members = new HashSet<>();
                     for (int i = 0; i < clusterCount; i ++) {
                         String clusterName = message.readUTF();
                         int memberCount = StreamUtils.readPackedSignedInt32(message);
                         for (int j = 0; j < memberCount; j ++) {
                             String nodeName = message.readUTF();
-                            discoveredNodeRegistry.removeNode(clusterName, nodeName);
-                            final NodeInformation nodeInformation = discoveredNodeRegistry.getNodeInformation(nodeName);
-                            nodeInformation.removeCluster(clusterName);
+                            removed.add(new String[] { clusterName, nodeName });
+                            members.add(nodeName);
 
                             Logs.INVOCATION.debugf("Received CLUSTER_TOPOLOGY_NODE_REMOVAL(%x) message for (cluster, node) = (%s, %s)", msg, clusterName, nodeName);
 
                         }
                     }
+                    if (discoveredNodeRegistry.updateTopology(builder -> {
+                        for (String[] member : removed) {
+                            builder.removeNode(member[0], member[1]);
+                        }
+                    })) {
+                        topologyDiverged();
+                    }
+                    forgetDepartedNodes(members);
+                    break;
+                }
+                case Protocol.NODE_LOAD: {
+                    final int activeRequests = PackedInteger.readPackedInteger(message);
+                    final int queueDepth = PackedInteger.readPackedInteger(message);
+                    final int capacityWeight = PackedInteger.readPackedInteger(message);
+                    final String nodeName = channel.getConnection().getRemoteEndpointName();
+                    Logs.INVOCATION.tracef("Received NODE_LOAD(%x) message from node %s (active = %d, queued = %d, weight = %d)", msg, nodeName, activeRequests, queueDepth, capacityWeight);
+                    nodeStatistics.updateLoad(nodeName, activeRequests, queueDepth, capacityWeight);
+                    break;
+                }
+                case Protocol.NODE_ZONES: {
+                    int count = PackedInteger.readPackedInteger(message);
+                    for (int i = 0; i < count; i ++) {
+                        final String nodeName = message.readUTF();
+                        final String zone = message.readUTF();
+                        Logs.INVOCATION.debugf("Received NODE_ZONES(%x) message, node %s is in zone %s", msg, nodeName, zone);
+                        nodeStatistics.setZone(nodeName, zone);
+                    }
+                    break;
+                }
+                case Protocol.NODE_DRAINING: {
+                    final boolean draining = message.readBoolean();
+                    final String nodeName = channel.getConnection().getRemoteEndpointName();
+                    Logs.INVOCATION.debugf("Received NODE_DRAINING(%x) message from node %s (draining = %s)", msg, nodeName, Boolean.valueOf(draining));
+                    nodeStatistics.setDraining(nodeName, draining);
+                    break;
+                }
+                case Protocol.TOPOLOGY_VERSION: {
+                    final long topologyVersion = message.readLong();
+                    final String nodeName = channel.getConnection().getRemoteEndpointName();
+                    Logs.INVOCATION.tracef("Received TOPOLOGY_VERSION(%x) message from node %s (version = %x)", msg, nodeName, topologyVersion);
+                    discoveredNodeRegistry.getNodeInformation(nodeName).setTopologyVersion(topologyVersion);
+                    break;
+                }
+                case Protocol.PONG: {
+                    final int sequence = PackedInteger.readPackedInteger(message);
+                    if (sequence == 0) {
+                        // the server answers pings
+                        Logs.INVOCATION.tracef("Received PONG(%x) announcement from %s", msg, channel.getConnection().getPeerURI());
+                        schedulePing();
+                    } else {
+                        final long roundTrip = pingMonitor.pongReceived(sequence, System.nanoTime());
+                        if (roundTrip < 0L) {
+                            // a late answer to an earlier ping
+                            break;
+                        }
+                        final String nodeName = channel.getConnection().getRemoteEndpointName();
+                        Logs.INVOCATION.tracef("Received PONG(%x) message from node %s (round trip = %d ns)", msg, nodeName, roundTrip);
+                        if (nodeName != null) {
+                            nodeStatistics.recordRoundTrip(nodeName, roundTrip);
+                        }
+                        schedulePing();
+                    }
                     break;
                 }
                 default: {
@@ -301,6 +440,95 @@ class EJBClientChannel {
         }
     }
 
+    // our topology now differs from what the other nodes last sent, so they must send theirs in full when we reconnect
+    private void topologyDiverged() {
+        final String nodeName = channel.getConnection().getRemoteEndpointName();
+        for (NodeInformation nodeInformation : discoveredNodeRegistry.getAllNodeInformation()) {
+            if (! nodeInformation.getNodeName().equals(nodeName)) {
+                nodeInformation.topologyDiverged();
+            }
+        }
+    }
+
+    private void forgetDepartedNodes(final Set<String> nodeNames) {
+        final TopologySnapshot topology = discoveredNodeRegistry.getTopology();
+        for (String nodeName : nodeNames) {
+            if (! topology.isClusterMember(nodeName)) {
+                // the node has left every cluster, so its statistics no longer describe anything we can reach
+                nodeStatistics.removeNode(nodeName);
+            }
+        }
+    }
+
+    private void schedulePing() {
+        if (PING_INTERVAL <= 0L || ! channel.isOpen()) {
+            return;
+        }
+        final XnioWorker worker = channel.getConnection().getEndpoint().getXnioWorker();
+        // the ping may wait for message window space, so it is not written on the I/O thread
+        worker.getIoThread().executeAfter(() -> worker.execute(this::sendPing), PING_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendPing() {
+        if (! channel.isOpen()) {
+            return;
+        }
+        final int sequence = pingMonitor.pingSent(System.nanoTime());
+        try (MessageOutputStream os = invocationTracker.allocateMessage()) {
+            os.writeByte(Protocol.PING);
+            PackedInteger.writePackedInteger(os, sequence);
+        } catch (IOException e) {
+            // the channel is failing; its close handler takes care of the invocations
+            Logs.INVOCATION.tracef(e, "Failed to send ping to %s", channel.getConnection().getPeerURI());
+            return;
+        }
+        scheduleCheckPing(sequence);
+    }
+
+    private void scheduleCheckPing(final int sequence) {
+        channel.getConnection().getEndpoint().getXnioWorker().getIoThread().executeAfter(() -> checkPing(sequence), PING_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkPing(final int sequence) {
+        if (! channel.isOpen()) {
+            return;
+        }
+        switch (pingMonitor.check(sequence)) {
+            case WAITING: {
+                scheduleCheckPing(sequence);
+                break;
+            }
+            case LOST: {
+                final Connection connection = channel.getConnection();
+                switch (PING_TIMEOUT_ACTION) {
+                    case LOG: {
+                        Logs.INVOCATION.pingLost(connection.getPeerURI(), PING_TIMEOUT);
+                        // keep measuring in case the server recovers
+                        schedulePing();
+                        break;
+                    }
+                    case CLOSE_CHANNEL: {
+                        // closing the channel fails the in-flight invocations with a retryable exception
+                        Logs.INVOCATION.pingTimedOutClosingChannel(connection.getPeerURI(), PING_TIMEOUT);
+                        channel.closeAsync();
+                        break;
+                    }
+                    case CLOSE_CONNECTION: {
+                        Logs.INVOCATION.pingTimedOut(connection.getPeerURI(), PING_TIMEOUT);
+                        connection.closeAsync();
+                        break;
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    // stateful and transactional invocations can only be served by the node they were sent to
+    static boolean isAffine(final EJBClientInvocationContext invocationContext) {
+        return invocationContext.getLocator().isStateful() || invocationContext.getTransaction() != null;
+    }
+
     private static final AttachmentKey<MethodInvocation> INV_KEY = new AttachmentKey<>();
 
     public void processInvocation(final EJBReceiverInvocationContext receiverContext, final ConnectionPeerIdentity peerIdentity) {
@@ -319,6 +547,10 @@ class EJBClientChannel {
             try {
                 out.write(Protocol.INVOCATION_REQUEST);
                 out.writeShort(invocation.getIndex());
+                if (allAreSet(capabilities, Protocol.CAPABILITY_SERVER_BUSY)) {
+                    // tell the server whether it may turn the invocation away
+                    out.writeBoolean(isAffine(invocationContext));
+                }
 
                 Marshaller marshaller = getMarshaller();
                 marshaller.start(new NoFlushByteOutput(Marshalling.createByteOutput(out)));
@@ -349,6 +581,11 @@ class EJBClientChannel {
                     // write sec context
                     marshaller.writeInt(peerIdentityId);
 
+                    // write priority, if the peer can read it
+                    if (allAreSet(capabilities, Protocol.CAPABILITY_INVOCATION_PRIORITY)) {
+                        marshaller.writeInt(invocationContext.getPriority());
+                    }
+
                     // write weak affinity
                     marshaller.writeObject(invocationContext.getWeakAffinity());
 
@@ -605,7 +842,28 @@ class EJBClientChannel {
     }
 
     public <T> StatefulEJBLocator<T> openSession(final StatelessEJBLocator<T> statelessLocator, final ConnectionPeerIdentity identity, EJBSessionCreationInvocationContext clientInvocationContext) throws Exception {
-        SessionOpenInvocation<T> invocation = invocationTracker.addInvocation(id -> new SessionOpenInvocation<>(id, statelessLocator, clientInvocationContext));
+        SessionOpenInvocation<T> invocation = invocationTracker.addInvocation(id -> new SessionOpenInvocation<>(id, statelessLocator, clientInvocationContext, null));
+        writeOpenSession(invocation, statelessLocator, identity, clientInvocationContext);
+        // await the response
+        return invocation.getResult();
+    }
+
+    /**
+     * Open a session without waiting for the response.  The returned stage is completed once the response has been
+     * received and read.
+     */
+    <T> CompletionStage<StatefulEJBLocator<T>> openSessionAsync(final StatelessEJBLocator<T> statelessLocator, final ConnectionPeerIdentity identity, EJBSessionCreationInvocationContext clientInvocationContext) {
+        final CompletableFuture<StatefulEJBLocator<T>> future = new CompletableFuture<>();
+        try {
+            SessionOpenInvocation<T> invocation = invocationTracker.addInvocation(id -> new SessionOpenInvocation<>(id, statelessLocator, clientInvocationContext, future));
+            writeOpenSession(invocation, statelessLocator, identity, clientInvocationContext);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private <T> void writeOpenSession(final SessionOpenInvocation<T> invocation, final StatelessEJBLocator<T> statelessLocator, final ConnectionPeerIdentity identity, EJBSessionCreationInvocationContext clientInvocationContext) throws Exception {
         try (MessageOutputStream out = invocationTracker.allocateMessage()) {
             out.write(Protocol.OPEN_SESSION_REQUEST);
             out.writeShort(invocation.getIndex());
@@ -619,8 +877,6 @@ class EJBClientChannel {
             createException.initCause(e);
             throw createException;
         }
-        // await the response
-        return invocation.getResult();
     }
 
     private static <T> void writeRawIdentifier(final EJBLocator<T> statelessLocator, final MessageOutputStream out) throws IOException {
@@ -632,7 +888,7 @@ class EJBClientChannel {
         out.writeUTF(statelessLocator.getBeanName());
     }
 
-    static IoFuture<EJBClientChannel> construct(final Channel channel, final DiscoveredNodeRegistry discoveredNodeRegistry, RetryExecutorWrapper retryExecutorWrapper) {
+    static IoFuture<EJBClientChannel> construct(final Channel channel, final DiscoveredNodeRegistry discoveredNodeRegistry, final NodeStatistics nodeStatistics, RetryExecutorWrapper retryExecutorWrapper) {
         FutureResult<EJBClientChannel> futureResult = new FutureResult<>();
         // now perform opening negotiation: receive server greeting
         channel.receiveMessage(new Channel.Receiver() {
@@ -648,6 +904,18 @@ class EJBClientChannel {
                 // receive message body
                 try {
                     final int version = min(3, StreamUtils.readInt8(message));
+                    int capabilities = 0;
+                    if (version >= 3) {
+                        // newer servers follow the marshaller names with their capabilities
+                        int marshallerCount = StreamUtils.readPackedUnsignedInt31(message);
+                        for (int i = 0; i < marshallerCount; i ++) {
+                            message.readUTF();
+                        }
+                        try {
+                            capabilities = PackedInteger.readPackedInteger(message);
+                        } catch (EOFException ignored) {
+                        }
+                    }
                     // drain the rest of the message because it's just garbage really
                     while (message.read() != -1) {
                         message.skip(Long.MAX_VALUE);
@@ -656,9 +924,14 @@ class EJBClientChannel {
                     try (MessageOutputStream out = channel.writeMessage()) {
                         out.write(version);
                         out.writeUTF("river");
+                        if (version >= 3) {
+                            // older servers discard anything after the marshaller name
+                            out.writeLong(discoveredNodeRegistry.getNodeInformation(channel.getConnection().getRemoteEndpointName()).getTopologyVersion());
+                            PackedInteger.writePackedInteger(out, Protocol.CAPABILITIES);
+                        }
                     }
                     // almost done; wait for initial module available report
-                    final EJBClientChannel ejbClientChannel = new EJBClientChannel(channel, version, discoveredNodeRegistry, futureResult, retryExecutorWrapper);
+                    final EJBClientChannel ejbClientChannel = new EJBClientChannel(channel, version, capabilities, discoveredNodeRegistry, nodeStatistics, futureResult, retryExecutorWrapper);
                     channel.receiveMessage(new Channel.Receiver() {
                         public void handleError(final Channel channel, final IOException error) {
                             futureResult.setException(error);
@@ -703,15 +976,19 @@ class EJBClientChannel {
 
         private final StatelessEJBLocator<T> statelessLocator;
         private final EJBSessionCreationInvocationContext clientInvocationContext;
+        // completed with the result instead of waiting for it, if not null
+        private final CompletableFuture<StatefulEJBLocator<T>> future;
+        private boolean completing;
         private int id;
         private MessageInputStream inputStream;
         private XAOutflowHandle outflowHandle;
         private IOException ex;
 
-        protected SessionOpenInvocation(final int index, final StatelessEJBLocator<T> statelessLocator, EJBSessionCreationInvocationContext clientInvocationContext) {
+        protected SessionOpenInvocation(final int index, final StatelessEJBLocator<T> statelessLocator, EJBSessionCreationInvocationContext clientInvocationContext, final CompletableFuture<StatefulEJBLocator<T>> future) {
             super(index);
             this.statelessLocator = statelessLocator;
             this.clientInvocationContext = clientInvocationContext;
+            this.future = future;
         }
 
         public void handleResponse(final int id, final MessageInputStream inputStream) {
@@ -720,12 +997,14 @@ class EJBClientChannel {
                 this.inputStream = inputStream;
                 notifyAll();
             }
+            complete();
         }
 
         public void handleClosed() {
             synchronized (this) {
                 notifyAll();
             }
+            complete();
         }
 
         public void handleException(IOException cause) {
@@ -733,6 +1012,32 @@ class EJBClientChannel {
                 this.ex = cause;
                 notifyAll();
             }
+            complete();
+        }
+
+        private void complete() {
+            if (future == null) {
+                return;
+            }
+            synchronized (this) {
+                // the result is only read once, even if the channel closes after the response arrived
+                if (completing) {
+                    return;
+                }
+                completing = true;
+            }
+            // the response body is read on a worker thread, not on the thread which receives channel messages
+            try {
+                channel.getConnection().getEndpoint().getXnioWorker().execute(() -> {
+                    try {
+                        future.complete(getResult());
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(new RequestSendFailedException(e, true));
+            }
         }
 
         void setOutflowHandle(final XAOutflowHandle outflowHandle) {
@@ -1065,8 +1370,8 @@ class EJBClientChannel {
                         disassociateRemoteTxIfPossible(receiverInvocationContext.getClientInvocationContext());
                         final String message = inputStream.readUTF();
                         final EJBModuleIdentifier moduleIdentifier = receiverInvocationContext.getClientInvocationContext().getLocator().getIdentifier().getModuleIdentifier();
-                        final NodeInformation nodeInformation = discoveredNodeRegistry.getNodeInformation(getChannel().getConnection().getRemoteEndpointName());
-                        nodeInformation.removeModule(EJBClientChannel.this, moduleIdentifier);
+                        final String nodeName = getChannel().getConnection().getRemoteEndpointName();
+                        discoveredNodeRegistry.updateTopology(builder -> builder.removeModules(nodeName, EJBClientChannel.this, Collections.singleton(moduleIdentifier)));
                         receiverInvocationContext.requestFailed(new NoSuchEJBException(message + " @ " + getChannel().getConnection().getPeerURI()), getRetryExecutor());
                     } catch (IOException e) {
                         receiverInvocationContext.requestFailed(new EJBException("Failed to read 'No such EJB' response", e), getRetryExecutor());
@@ -1075,6 +1380,22 @@ class EJBClientChannel {
                     }
                     break;
                 }
+                case Protocol.SERVER_BUSY: {
+                    free();
+                    try {
+                        if (version >= 3) {
+                            final XAOutflowHandle outflowHandle = getOutflowHandle();
+                            if (outflowHandle != null) outflowHandle.forgetEnlistment();
+                        }
+                        disassociateRemoteTxIfPossible(receiverInvocationContext.getClientInvocationContext());
+                        // the server did not look at the request, so it is safe to send it to another node, unless only this node can serve it
+                        final boolean retry = ! isAffine(receiverInvocationContext.getClientInvocationContext());
+                        receiverInvocationContext.requestFailed(new RequestSendFailedException("Server busy @ " + getChannel().getConnection().getPeerURI(), retry), getRetryExecutor());
+                    } finally {
+                        safeClose(inputStream);
+                    }
+                    break;
+                }
                 case Protocol.BAD_VIEW_TYPE: {
                     free();
                     try {
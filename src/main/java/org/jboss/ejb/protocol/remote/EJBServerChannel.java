@@ -20,23 +20,29 @@ package org.jboss.ejb.protocol.remote;
 
 import static java.lang.Math.min;
 import static java.security.AccessController.doPrivileged;
+import static org.xnio.Bits.allAreSet;
 import static org.xnio.IoUtils.safeClose;
 
 import java.io.DataInput;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.UndeclaredThrowableException;
-import java.net.Inet6Address;
 import java.net.SocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.security.PrivilegedAction;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterInputStream;
@@ -59,7 +65,6 @@ import org.jboss.ejb.client.EJBClientInvocationContext;
 import org.jboss.ejb.client.EJBIdentifier;
 import org.jboss.ejb.client.EJBLocator;
 import org.jboss.ejb.client.EJBMethodLocator;
-import org.jboss.ejb.client.EJBModuleIdentifier;
 import org.jboss.ejb.client.NodeAffinity;
 import org.jboss.ejb.client.RequestSendFailedException;
 import org.jboss.ejb.client.SessionID;
@@ -67,12 +72,11 @@ import org.jboss.ejb.client.TransactionID;
 import org.jboss.ejb.client.UserTransactionID;
 import org.jboss.ejb.client.XidTransactionID;
 import org.jboss.ejb.client.annotation.CompressionHint;
+import org.jboss.ejb.client.annotation.InvocationPriority;
 import org.jboss.ejb.server.Association;
 import org.jboss.ejb.server.CancelHandle;
-import org.jboss.ejb.server.ClusterTopologyListener;
+import org.jboss.ejb.server.EJBMethodResolver;
 import org.jboss.ejb.server.InvocationRequest;
-import org.jboss.ejb.server.ListenerHandle;
-import org.jboss.ejb.server.ModuleAvailabilityListener;
 import org.jboss.ejb.server.Request;
 import org.jboss.ejb.server.SessionOpenRequest;
 import org.jboss.marshalling.AbstractClassResolver;
@@ -114,12 +118,27 @@ final class EJBServerChannel {
     private final MarshallerFactory marshallerFactory;
     private final MarshallingConfiguration configuration;
     private final IntIndexHashMap<InProgress> invocations = new IntIndexHashMap<>(InProgress::getInvId);
-
-    EJBServerChannel(final RemotingTransactionServer transactionServer, final Channel channel, final int version, final MessageTracker messageTracker) {
+    private final LoadReporter loadReporter;
+    private final AtomicLong lastLoadReport = new AtomicLong(System.nanoTime() - LoadReporter.DEFAULT_INTERVAL);
+    private final int capabilities;
+    private final ClassResolutionCache classResolutionCache;
+    private final PriorityDispatcher dispatcher;
+    private final ConcurrentLinkedQueue<byte[]> notifications = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean notificationsDraining = new AtomicBoolean();
+    private final boolean pongReserved;
+    // the sequence of the pong waiting to be written, or -1 if none is
+    private final AtomicInteger pendingPong = new AtomicInteger(-1);
+
+    EJBServerChannel(final RemotingTransactionServer transactionServer, final Channel channel, final int version, final MessageTracker messageTracker, final boolean pongReserved, final LoadReporter loadReporter, final int capabilities, final ClassResolutionCache classResolutionCache, final PriorityDispatcher dispatcher) {
         this.transactionServer = transactionServer;
         this.channel = channel;
         this.version = version;
         this.messageTracker = messageTracker;
+        this.pongReserved = pongReserved;
+        this.loadReporter = loadReporter;
+        this.capabilities = capabilities;
+        this.classResolutionCache = classResolutionCache;
+        this.dispatcher = dispatcher;
         final MarshallingConfiguration configuration = new MarshallingConfiguration();
         if (version < 3) {
             configuration.setClassTable(ProtocolV1ClassTable.INSTANCE);
@@ -135,37 +154,143 @@ final class EJBServerChannel {
         this.configuration = configuration;
     }
 
-    Channel.Receiver getReceiver(final Association association, final ListenerHandle handle1, final ListenerHandle handle2) {
-        return new ReceiverImpl(association, handle1, handle2);
+    Channel.Receiver getReceiver(final Association association) {
+        return new ReceiverImpl(association);
+    }
+
+    Channel getChannel() {
+        return channel;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    private void removeInvocation(final int invId) {
+        if (invocations.removeKey(invId) != null) {
+            loadReporter.requestFinished();
+            if (version >= 3 && LoadReporter.claimReport(lastLoadReport)) {
+                writeLoad();
+            }
+        }
+    }
+
+    /**
+     * Queue an encoded notification message for this channel.  The message is written from a worker thread so that
+     * the notifying thread never waits for the outbound window of a slow channel; messages are written in the order
+     * they were queued.
+     *
+     * @param payload the encoded message, which must not be modified, or {@code null} to send nothing
+     */
+    void queueNotification(final byte[] payload) {
+        if (payload == null) {
+            return;
+        }
+        notifications.add(payload);
+        if (notificationsDraining.compareAndSet(false, true)) {
+            channel.getConnection().getEndpoint().getXnioWorker().execute(this::drainNotifications);
+        }
+    }
+
+    private void drainNotifications() {
+        for (;;) {
+            byte[] payload;
+            while ((payload = notifications.poll()) != null) {
+                try (MessageOutputStream os = messageTracker.openMessageUninterruptibly()) {
+                    os.write(payload);
+                } catch (IOException e) {
+                    // nothing to do at this point; the client doesn't want the response
+                    Logs.REMOTING.trace("EJB notification message write failed", e);
+                }
+            }
+            notificationsDraining.set(false);
+            // a message may have been queued after the last poll
+            if (notifications.isEmpty() || ! notificationsDraining.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    void writeDraining(final boolean draining) {
+        if (version >= 3) {
+            queueNotification(NotificationBroadcaster.encode(Protocol.NODE_DRAINING, os -> os.writeBoolean(draining)));
+        }
+    }
+
+    /**
+     * Turn an invocation away without reading it, if the server is overloaded.  Only called for clients which
+     * understand the response, and for invocations which they have not marked as affine to this node.
+     *
+     * @return {@code true} if the invocation was turned away, {@code false} if it should be admitted
+     */
+    private boolean rejectIfBusy(final int invId) {
+        if (! loadReporter.isOverloaded()) {
+            return false;
+        }
+        Logs.REMOTING.tracef("Rejecting invocation %d on %s; server busy", Integer.valueOf(invId), channel);
+        try (MessageOutputStream os = messageTracker.openMessageUninterruptibly()) {
+            os.writeByte(Protocol.SERVER_BUSY);
+            os.writeShort(invId);
+        } catch (IOException e) {
+            // nothing to do at this point; the client doesn't want the response
+            Logs.REMOTING.trace("EJB response write failed", e);
+        }
+        return true;
+    }
+
+    void writePingSupport() {
+        if (version >= 3) {
+            writePong(0);
+        }
+    }
+
+    /**
+     * Answer a ping.  The pong may have to wait for message window space, so it is written from a worker thread and
+     * never blocks the thread which receives messages.  A client only waits for the answer to its latest ping, so
+     * pings which arrive while a pong is still waiting are answered by that pong, with the latest sequence.
+     */
+    private void writePong(final int sequence) {
+        if (pendingPong.getAndSet(sequence) == -1) {
+            channel.getConnection().getEndpoint().getXnioWorker().execute(this::flushPong);
+        }
     }
 
-    ClusterTopologyListener createTopologyListener() {
-        return new ClusterTopologyWriter();
+    private void flushPong() {
+        final int sequence = pendingPong.getAndSet(-1);
+        // if the channel's window allows it, one message is kept back from the tracker for pongs, so that a busy
+        // server still answers before the client gives up; otherwise the pong waits behind the responses
+        try (MessageOutputStream os = pongReserved ? channel.writeMessage() : messageTracker.openMessageUninterruptibly()) {
+            os.writeByte(Protocol.PONG);
+            PackedInteger.writePackedInteger(os, sequence);
+        } catch (IOException e) {
+            // nothing to do at this point; the client will notice
+            Logs.REMOTING.trace("EJB pong message write failed", e);
+        }
     }
 
-    ModuleAvailabilityListener createModuleListener() {
-        return new ModuleAvailabilityWriter();
+    private void writeLoad() {
+        try (MessageOutputStream os = messageTracker.openMessageUninterruptibly()) {
+            os.writeByte(Protocol.NODE_LOAD);
+            PackedInteger.writePackedInteger(os, loadReporter.getActiveRequests());
+            PackedInteger.writePackedInteger(os, loadReporter.getQueueDepth());
+            PackedInteger.writePackedInteger(os, loadReporter.getCapacityWeight());
+        } catch (IOException e) {
+            // the hint is advisory only
+            Logs.REMOTING.trace("EJB load message write failed", e);
+        }
     }
 
     class ReceiverImpl implements Channel.Receiver {
         private final Association association;
-        private final ListenerHandle handle1;
-        private final ListenerHandle handle2;
 
-        ReceiverImpl(final Association association, final ListenerHandle handle1, final ListenerHandle handle2) {
+        ReceiverImpl(final Association association) {
             this.association = association;
-            this.handle1 = handle1;
-            this.handle2 = handle2;
         }
 
         public void handleError(final Channel channel, final IOException error) {
-            handle1.close();
-            handle2.close();
         }
 
         public void handleEnd(final Channel channel) {
-            handle1.close();
-            handle2.close();
         }
 
         public void handleMessage(final Channel channel, final MessageInputStream message) {
@@ -225,6 +350,11 @@ final class EJBServerChannel {
                         }
                         break;
                     }
+                    case Protocol.PING: {
+                        // answered directly, without involving the association
+                        writePong(PackedInteger.readPackedInteger(message));
+                        break;
+                    }
                     case Protocol.TXN_RECOVERY_REQUEST: {
                         final int invId = message.readUnsignedShort();
                         try {
@@ -400,6 +530,16 @@ final class EJBServerChannel {
         }
 
         void handleInvocationRequest(final int invId, final InputStream input) throws IOException, ClassNotFoundException {
+            if (allAreSet(capabilities, Protocol.CAPABILITY_SERVER_BUSY)) {
+                // stateful and transactional invocations cannot be retried on another node
+                final int affine = input.read();
+                if (affine == -1) {
+                    throw new EOFException();
+                }
+                if (affine == 0 && rejectIfBusy(invId)) {
+                    return;
+                }
+            }
             final MarshallingConfiguration configuration = EJBServerChannel.this.configuration.clone();
             final ServerClassResolver classResolver = new ServerClassResolver();
             configuration.setClassResolver(classResolver);
@@ -410,6 +550,7 @@ final class EJBServerChannel {
 
             final Connection connection = channel.getConnection();
             final SecurityIdentity identity;
+            final int priority;
             if (version >= 3) {
                 unmarshaller = marshallerFactory.createUnmarshaller(configuration);
                 unmarshaller.start(Marshalling.createByteInput(input));
@@ -417,6 +558,11 @@ final class EJBServerChannel {
                 methodLocator = unmarshaller.readObject(EJBMethodLocator.class);
                 int identityId = unmarshaller.readInt();
                 identity = identityId == 0 ? connection.getLocalIdentity() : connection.getLocalIdentity(identityId);
+                if (allAreSet(capabilities, Protocol.CAPABILITY_INVOCATION_PRIORITY)) {
+                    priority = dispatcher.getPriority(unmarshaller.readInt(), identity);
+                } else {
+                    priority = dispatcher.getPriority(InvocationPriority.NORMAL, identity);
+                }
             } else {
                 assert version <= 2;
                 DataInputStream data = new DataInputStream(input);
@@ -440,12 +586,14 @@ final class EJBServerChannel {
                 }
                 methodLocator = new EJBMethodLocator(methodName, parameterTypeNames);
                 identity = connection.getLocalIdentity();
+                priority = dispatcher.getPriority(InvocationPriority.NORMAL, identity);
             }
             final RemotingInvocationRequest request = new RemotingInvocationRequest(
-                invId, identifier, methodLocator, classResolver, unmarshaller, identity
+                invId, identifier, methodLocator, classResolver, unmarshaller, identity, priority
             );
             InProgress value = new InProgress(request);
             invocations.put(value);
+            loadReporter.requestStarted();
             try {
                 value.setCancelHandle(association.receiveInvocationRequest(request));
             } catch (Throwable t) {
@@ -517,7 +665,7 @@ final class EJBServerChannel {
         }
 
         public Executor getRequestExecutor() {
-            return channel.getConnection().getEndpoint().getXnioWorker();
+            return dispatcher.getExecutor(channel.getConnection().getEndpoint().getXnioWorker(), getPriority());
         }
 
         public SocketAddress getPeerAddress() {
@@ -550,7 +698,7 @@ final class EJBServerChannel {
                 // nothing to do at this point; the client doesn't want the response
                 Logs.REMOTING.trace("EJB response write failed", e);
             } finally {
-                invocations.removeKey(invId);
+                removeInvocation(invId);
             }
         }
 
@@ -574,7 +722,7 @@ final class EJBServerChannel {
                 // nothing to do at this point; the client doesn't want the response
                 Logs.REMOTING.trace("EJB response write failed", e);
             } finally {
-                invocations.removeKey(invId);
+                removeInvocation(invId);
             }
         }
 
@@ -586,7 +734,7 @@ final class EJBServerChannel {
                 // nothing to do at this point; the client doesn't want the response
                 Logs.REMOTING.trace("EJB response write failed", e);
             } finally {
-                invocations.removeKey(invId);
+                removeInvocation(invId);
             }
         }
 
@@ -600,7 +748,7 @@ final class EJBServerChannel {
                 // nothing to do at this point; the client doesn't want the response
                 Logs.REMOTING.trace("EJB response write failed", e);
             } finally {
-                invocations.removeKey(invId);
+                removeInvocation(invId);
             }
         }
 
@@ -637,7 +785,7 @@ final class EJBServerChannel {
                 // nothing to do at this point; the client doesn't want the response
                 Logs.REMOTING.trace("EJB response write failed", e);
             } finally {
-                invocations.removeKey(invId);
+                removeInvocation(invId);
             }
         }
 
@@ -755,18 +903,24 @@ final class EJBServerChannel {
         final EJBMethodLocator methodLocator;
         final ServerClassResolver classResolver;
         final Unmarshaller remaining;
+        final int priority;
         int txnCmd = 0; // assume nobody will ask about the transaction
 
-        RemotingInvocationRequest(final int invId, final EJBIdentifier identifier, final EJBMethodLocator methodLocator, final ServerClassResolver classResolver, final Unmarshaller remaining, final SecurityIdentity identity) {
+        RemotingInvocationRequest(final int invId, final EJBIdentifier identifier, final EJBMethodLocator methodLocator, final ServerClassResolver classResolver, final Unmarshaller remaining, final SecurityIdentity identity, final int priority) {
             super(invId, identity);
             this.identifier = identifier;
             this.methodLocator = methodLocator;
             this.classResolver = classResolver;
             this.remaining = remaining;
+            this.priority = priority;
+        }
+
+        public int getPriority() {
+            return priority;
         }
 
         public Resolved getRequestContent(final ClassLoader classLoader) throws IOException, ClassNotFoundException {
-            classResolver.setClassLoader(classLoader);
+            classResolver.setClassLoader(classLoader, classResolutionCache.getClasses(identifier.getModuleIdentifier(), classLoader));
             int responseCompressLevel = 0;
             // resolve the rest of everything here
             try (Unmarshaller unmarshaller = remaining) {
@@ -850,7 +1004,7 @@ final class EJBServerChannel {
                 if(version == 2) {
                     //version 2 did not send compression information in the response stream
                     //instead it must be read from the class
-                    Method invokedMethod = findMethod(locator.getViewType(), methodLocator);
+                    Method invokedMethod = EJBMethodResolver.findMethod(locator.getViewType(), methodLocator);
                     CompressionHint compressionHint = invokedMethod == null ? null : invokedMethod.getAnnotation(CompressionHint.class);
                     // then class level
                     if (compressionHint == null) {
@@ -970,7 +1124,7 @@ final class EJBServerChannel {
                             // nothing to do at this point; the client doesn't want the response
                             Logs.REMOTING.trace("EJB response write failed", e);
                         } finally {
-                            invocations.removeKey(invId);
+                            removeInvocation(invId);
                         }
                     }
 
@@ -1008,7 +1162,7 @@ final class EJBServerChannel {
                 // nothing to do at this point; the client doesn't want the response
                 Logs.REMOTING.trace("EJB response write failed", e);
             } finally {
-                invocations.removeKey(invId);
+                removeInvocation(invId);
             }
         }
 
@@ -1022,7 +1176,7 @@ final class EJBServerChannel {
                 // nothing to do at this point; the client doesn't want the response
                 Logs.REMOTING.trace("EJB response write failed", e);
             } finally {
-                invocations.removeKey(invId);
+                removeInvocation(invId);
             }
         }
 
@@ -1047,36 +1201,13 @@ final class EJBServerChannel {
                 // nothing to do at this point; the client doesn't want the response
                 Logs.REMOTING.trace("EJB response write failed", e);
             } finally {
-                invocations.removeKey(invId);
+                removeInvocation(invId);
             } else {
                 writeFailure(Logs.REMOTING.requestCancelled());
             }
         }
     }
 
-    private static Method findMethod(final Class componentView, final EJBMethodLocator ejbMethodLocator) {
-        final Method[] viewMethods = componentView.getMethods();
-        for (final Method method : viewMethods) {
-            if (method.getName().equals(ejbMethodLocator.getMethodName())) {
-                final Class<?>[] methodParamTypes = method.getParameterTypes();
-                if (methodParamTypes.length != ejbMethodLocator.getParameterCount()) {
-                    continue;
-                }
-                boolean found = true;
-                for (int i = 0; i < methodParamTypes.length; i++) {
-                    if (!methodParamTypes[i].getName().equals(ejbMethodLocator.getParameterTypeName(i))) {
-                        found = false;
-                        break;
-                    }
-                }
-                if (found) {
-                    return method;
-                }
-            }
-        }
-        return null;
-    }
-
     static final class InProgress {
         private final RemotingInvocationRequest incomingInvocation;
         private CancelHandle cancelHandle;
@@ -1113,6 +1244,8 @@ final class EJBServerChannel {
 
     static final class ServerClassResolver extends AbstractClassResolver {
         private ClassLoader classLoader;
+        // classes already resolved by earlier requests to the same deployment, once the class loader is known
+        private ConcurrentMap<String, Class<?>> resolved;
 
         ServerClassResolver() {
             super(true);
@@ -1141,135 +1274,22 @@ final class EJBServerChannel {
             return classLoader == null ? getClass().getClassLoader() : classLoader;
         }
 
-        void setClassLoader(final ClassLoader classLoader) {
-            this.classLoader = classLoader == null ? getClass().getClassLoader() : classLoader;
-        }
-    }
-
-    final class ClusterTopologyWriter implements ClusterTopologyListener {
-        ClusterTopologyWriter() {
-        }
-
-        public void clusterTopology(final List<ClusterInfo> clusterInfoList) {
-            try (MessageOutputStream os = messageTracker.openMessageUninterruptibly()) {
-                os.writeByte(Protocol.CLUSTER_TOPOLOGY_COMPLETE);
-                PackedInteger.writePackedInteger(os, clusterInfoList.size());
-                for (ClusterInfo clusterInfo : clusterInfoList) {
-                    os.writeUTF(clusterInfo.getClusterName());
-                    final List<NodeInfo> nodeInfoList = clusterInfo.getNodeInfoList();
-                    PackedInteger.writePackedInteger(os, nodeInfoList.size());
-                    for (NodeInfo nodeInfo : nodeInfoList) {
-                        os.writeUTF(nodeInfo.getNodeName());
-                        final List<MappingInfo> mappingInfoList = nodeInfo.getMappingInfoList();
-                        PackedInteger.writePackedInteger(os, mappingInfoList.size());
-                        for (MappingInfo mappingInfo : mappingInfoList) {
-                            boolean is6 = mappingInfo.getSourceAddress() instanceof Inet6Address;
-                            if (is6) {
-                                PackedInteger.writePackedInteger(os, mappingInfo.getNetmaskBits() << 1);
-                            } else {
-                                PackedInteger.writePackedInteger(os, mappingInfo.getNetmaskBits() << 1 | 1);
-                            }
-                            os.write(mappingInfo.getSourceAddress().getAddress());
-                            os.writeUTF(mappingInfo.getDestinationAddress());
-                            os.writeShort(mappingInfo.getDestinationPort());
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                // nothing to do at this point; the client doesn't want the response
-                Logs.REMOTING.trace("EJB cluster message write failed", e);
-            }
-        }
-
-        public void clusterRemoval(final List<String> clusterNames) {
-            try (MessageOutputStream os = messageTracker.openMessageUninterruptibly()) {
-                os.writeByte(Protocol.CLUSTER_TOPOLOGY_REMOVAL);
-                PackedInteger.writePackedInteger(os, clusterNames.size());
-                for (String clusterName : clusterNames) {
-                    os.writeUTF(clusterName);
-                }
-            } catch (IOException e) {
-                // nothing to do at this point; the client doesn't want the response
-                Logs.REMOTING.trace("EJB cluster message write failed", e);
-            }
-        }
-
-        public void clusterNewNodesAdded(final ClusterInfo clusterInfo) {
-            try (MessageOutputStream os = messageTracker.openMessageUninterruptibly()) {
-                os.writeByte(Protocol.CLUSTER_TOPOLOGY_ADDITION);
-                PackedInteger.writePackedInteger(os, 1);
-                os.writeUTF(clusterInfo.getClusterName());
-                final List<NodeInfo> nodeInfoList = clusterInfo.getNodeInfoList();
-                PackedInteger.writePackedInteger(os, nodeInfoList.size());
-                for (NodeInfo nodeInfo : nodeInfoList) {
-                    os.writeUTF(nodeInfo.getNodeName());
-                    final List<MappingInfo> mappingInfoList = nodeInfo.getMappingInfoList();
-                    PackedInteger.writePackedInteger(os, mappingInfoList.size());
-                    for (MappingInfo mappingInfo : mappingInfoList) {
-                        boolean is6 = mappingInfo.getSourceAddress() instanceof Inet6Address;
-                        if (is6) {
-                            PackedInteger.writePackedInteger(os, mappingInfo.getNetmaskBits() << 1);
-                        } else {
-                            PackedInteger.writePackedInteger(os, mappingInfo.getNetmaskBits() << 1 | 1);
-                        }
-                        os.write(mappingInfo.getSourceAddress().getAddress());
-                        os.writeUTF(mappingInfo.getDestinationAddress());
-                        os.writeShort(mappingInfo.getDestinationPort());
-                    }
-                }
-            } catch (IOException e) {
-                // nothing to do at this point; the client doesn't want the response
-                Logs.REMOTING.trace("EJB cluster message write failed", e);
+        protected Class<?> loadClass(final String name) throws ClassNotFoundException {
+            final ConcurrentMap<String, Class<?>> resolved = this.resolved;
+            if (resolved == null) {
+                return super.loadClass(name);
             }
-        }
-
-        public void clusterNodesRemoved(final List<ClusterRemovalInfo> clusterRemovalInfoList) {
-            try (MessageOutputStream os = messageTracker.openMessageUninterruptibly()) {
-                os.writeByte(Protocol.CLUSTER_TOPOLOGY_NODE_REMOVAL);
-                PackedInteger.writePackedInteger(os, clusterRemovalInfoList.size());
-                for (ClusterRemovalInfo removalInfo : clusterRemovalInfoList) {
-                    os.writeUTF(removalInfo.getClusterName());
-                    final List<String> nodeNamesList = removalInfo.getNodeNames();
-                    PackedInteger.writePackedInteger(os, nodeNamesList.size());
-                    for (String name : nodeNamesList) {
-                        os.writeUTF(name);
-                    }
-                }
-            } catch (IOException e) {
-                // nothing to do at this point; the client doesn't want the response
-                Logs.REMOTING.trace("EJB cluster message write failed", e);
+            Class<?> clazz = resolved.get(name);
+            if (clazz == null) {
+                clazz = super.loadClass(name);
+                resolved.putIfAbsent(name, clazz);
             }
-        }
-    }
-
-    final class ModuleAvailabilityWriter implements ModuleAvailabilityListener {
-        ModuleAvailabilityWriter() {
-        }
-
-        public void moduleAvailable(final List<EJBModuleIdentifier> modules) {
-            doWrite(true, modules);
-        }
-
-        public void moduleUnavailable(final List<EJBModuleIdentifier> modules) {
-            doWrite(false, modules);
+            return clazz;
         }
 
-        private void doWrite(final boolean available, final List<EJBModuleIdentifier> modules) {
-            try (MessageOutputStream os = messageTracker.openMessageUninterruptibly()) {
-                os.writeByte(available ? Protocol.MODULE_AVAILABLE : Protocol.MODULE_UNAVAILABLE);
-                PackedInteger.writePackedInteger(os, modules.size());
-                for (EJBModuleIdentifier module : modules) {
-                    final String appName = module.getAppName();
-                    os.writeUTF(appName == null ? "" : appName);
-                    final String moduleName = module.getModuleName();
-                    os.writeUTF(moduleName == null ? "" : moduleName);
-                    final String distinctName = module.getDistinctName();
-                    os.writeUTF(distinctName == null ? "" : distinctName);
-                }
-            } catch (IOException e) {
-                // nothing to do at this point; the client doesn't want the response
-                Logs.REMOTING.trace("EJB availability message write failed", e);
-            }
+        void setClassLoader(final ClassLoader classLoader, final ConcurrentMap<String, Class<?>> resolved) {
+            this.classLoader = classLoader == null ? getClass().getClassLoader() : classLoader;
+            this.resolved = resolved;
         }
     }
 }
@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.protocol.remote;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * The server-side source of the load hints which are piggybacked onto the response stream of each channel.  One
+ * instance is shared by all of the channels of a {@link RemoteEJBService}, so that every client sees the load of the
+ * whole node rather than of its own connection.
+ */
+final class LoadReporter {
+    static final long DEFAULT_INTERVAL = TimeUnit.SECONDS.toNanos(1L);
+    static final int DEFAULT_CAPACITY_WEIGHT = 100;
+
+    // admitted and not yet answered, including requests waiting in the lanes of the dispatcher
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private volatile int capacityWeight = DEFAULT_CAPACITY_WEIGHT;
+    private volatile IntSupplier queueDepthSupplier = () -> 0;
+    private volatile int maxActiveRequests;
+    private volatile int maxQueueDepth;
+    private volatile BooleanSupplier overloadSignal;
+
+    LoadReporter() {
+    }
+
+    void requestStarted() {
+        activeRequests.incrementAndGet();
+    }
+
+    void requestFinished() {
+        activeRequests.decrementAndGet();
+    }
+
+    int getActiveRequests() {
+        return Math.max(0, activeRequests.get());
+    }
+
+    int getQueueDepth() {
+        return Math.max(0, queueDepthSupplier.getAsInt());
+    }
+
+    int getCapacityWeight() {
+        return capacityWeight;
+    }
+
+    void setCapacityWeight(final int capacityWeight) {
+        this.capacityWeight = capacityWeight;
+    }
+
+    void setQueueDepthSupplier(final IntSupplier queueDepthSupplier) {
+        this.queueDepthSupplier = queueDepthSupplier;
+    }
+
+    void setMaxActiveRequests(final int maxActiveRequests) {
+        this.maxActiveRequests = maxActiveRequests;
+    }
+
+    void setMaxQueueDepth(final int maxQueueDepth) {
+        this.maxQueueDepth = maxQueueDepth;
+    }
+
+    void setOverloadSignal(final BooleanSupplier overloadSignal) {
+        this.overloadSignal = overloadSignal;
+    }
+
+    /**
+     * Determine whether a new invocation should be turned away.  A limit of zero is no limit.
+     *
+     * @return {@code true} if the server is at or over one of its limits, {@code false} otherwise
+     */
+    boolean isOverloaded() {
+        final int maxActiveRequests = this.maxActiveRequests;
+        if (maxActiveRequests > 0 && getActiveRequests() >= maxActiveRequests) {
+            return true;
+        }
+        final int maxQueueDepth = this.maxQueueDepth;
+        if (maxQueueDepth > 0 && getQueueDepth() >= maxQueueDepth) {
+            return true;
+        }
+        final BooleanSupplier overloadSignal = this.overloadSignal;
+        return overloadSignal != null && overloadSignal.getAsBoolean();
+    }
+
+    /**
+     * Determine whether a channel is due to send a load hint, claiming the report if so.
+     *
+     * @param lastReport the time of the channel's last report
+     * @return {@code true} if the caller should send a hint now, {@code false} otherwise
+     */
+    static boolean claimReport(final AtomicLong lastReport) {
+        final long now = System.nanoTime();
+        final long last = lastReport.get();
+        return now - last >= DEFAULT_INTERVAL && lastReport.compareAndSet(last, now);
+    }
+}
@@ -23,14 +23,13 @@ import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import org.jboss.ejb.client.EJBClientContext;
 import org.jboss.ejb.client.EJBModuleIdentifier;
@@ -48,13 +47,13 @@ import org.wildfly.discovery.spi.DiscoveryResult;
 final class NodeInformation {
     private final String nodeName;
 
-    private final ConcurrentMap<EJBClientChannel, Set<EJBModuleIdentifier>> modulesByConnection = new ConcurrentHashMap<>(1);
-    private final ConcurrentMap<String, ClusterNodeInformation> clustersByName = new ConcurrentHashMap<>(1);
-    private final ConcurrentMap<EJBClientChannel, InetSocketAddress> addressesByConnection = new ConcurrentHashMap<>(1);
-
-    private volatile List<ServiceURL> serviceURLCache;
-
     private volatile boolean invalid;
+    // the last cluster topology reported by this node, presented when reconnecting so that only changes are resent
+    private volatile long topologyVersion;
+    // guarded by this; set when another node changed the merged topology, until this node sends its topology in full
+    private boolean topologyDiverged;
+    // loaded from a stored topology and not yet confirmed by a live channel
+    private volatile boolean provisional;
 
     NodeInformation(final String nodeName) {
         this.nodeName = nodeName;
@@ -64,129 +63,105 @@ final class NodeInformation {
         return nodeName;
     }
 
-    boolean discover(ServiceType serviceType, FilterSpec filterSpec, DiscoveryResult discoveryResult) {
+    boolean discover(ServiceType serviceType, FilterSpec filterSpec, DiscoveryResult discoveryResult, TopologySnapshot topology) {
         if (invalid) return false;
         boolean found = false;
-        List<ServiceURL> serviceURLCache = getServiceURLCache();
-        for (ServiceURL serviceURL : serviceURLCache) {
-            if (serviceURL.satisfies(filterSpec) && serviceType.implies(serviceURL)) {
-                found = true;
-                discoveryResult.addMatch(serviceURL);
+        for (List<ServiceURL> serviceURLs : topology.getServiceURLs(nodeName).values()) {
+            for (ServiceURL serviceURL : serviceURLs) {
+                if (serviceURL.satisfies(filterSpec) && serviceType.implies(serviceURL)) {
+                    found = true;
+                    discoveryResult.addMatch(serviceURL);
+                }
             }
         }
         return found;
     }
 
-    ConcurrentMap<String, ClusterNodeInformation> getClustersByName() {
-        return clustersByName;
-    }
-
-    // this structure mashes together the cluster topo reports from various nodes, and the mod avail report from this node
-    static class TempInfo {
-        Map<String, CidrAddress> clusters;
-        Set<EJBModuleIdentifier> modules;
-        URI destination;
-
-        TempInfo(URI destination) {
-            this.destination = destination;
+    /**
+     * Create the service URLs of a node for one destination, from the modules reported over the connections to that
+     * destination and the clusters which advertise it.
+     *
+     * @param nodeNameValue the node name attribute value
+     * @param destination the destination
+     * @param clustersByName the client mappings of the node, by cluster name
+     * @param connections the connections to the node
+     * @return the service URLs, or {@code null} if neither a connection nor a cluster mapping leads to the destination
+     */
+    static List<ServiceURL> createServiceURLs(final AttributeValue nodeNameValue, final URI destination, final Map<String, ClusterNodeInformation> clustersByName, final Collection<TopologySnapshot.Connection> connections) {
+        Set<EJBModuleIdentifier> modules = null;
+        for (TopologySnapshot.Connection connection : connections) {
+            if (destination.equals(connection.getDestination())) {
+                if (modules == null) modules = new HashSet<>();
+                modules.addAll(connection.getModules());
+            }
         }
-    }
-
-    private List<ServiceURL> getServiceURLCache() {
-        List<ServiceURL> serviceURLCache = this.serviceURLCache;
-        if (serviceURLCache == null) {
-            synchronized (this) {
-                serviceURLCache = this.serviceURLCache;
-                if (serviceURLCache == null) {
-                    // the final list to store
-                    serviceURLCache = new ArrayList<>();
-                    HashMap<URI, TempInfo> map = new HashMap<>();
-                    // populate the modules first
-                    for (Map.Entry<EJBClientChannel, Set<EJBModuleIdentifier>> entry : modulesByConnection.entrySet()) {
-                        final EJBClientChannel channel = entry.getKey();
-                        final URI peerURI = channel.getChannel().getConnection().getPeerURI();
-                        TempInfo tempInfo = new TempInfo(peerURI);
-                        tempInfo.modules = entry.getValue();
-                        map.put(tempInfo.destination, tempInfo);
-                    }
-                    // populate standalone nodes next (these will most likely be duplicates of above)
-                    for (Map.Entry<EJBClientChannel, InetSocketAddress> entry : addressesByConnection.entrySet()) {
-                        final EJBClientChannel channel = entry.getKey();
-                        final URI peerURI = channel.getChannel().getConnection().getPeerURI();
-                        map.computeIfAbsent(peerURI, TempInfo::new);
-                    }
-                    // populate the clusters next
-                    for (final Map.Entry<String, ClusterNodeInformation> entry : clustersByName.entrySet()) {
-                        final String clusterName = entry.getKey();
-                        final ClusterNodeInformation clusterNodeInformation = entry.getValue();
-                        for (Map.Entry<String, CidrAddressTable<InetSocketAddress>> entry1 : clusterNodeInformation.getAddressTablesByProtocol().entrySet()) {
-                            final String protocol = entry1.getKey();
-                            final CidrAddressTable<InetSocketAddress> table = entry1.getValue();
-                            for (CidrAddressTable.Mapping<InetSocketAddress> mapping : table) {
-                                CidrAddress cidrAddress = mapping.getRange();
-                                final InetSocketAddress address = mapping.getValue();
-                                URI uri;
-                                try {
-                                    uri = new URI(protocol, null, address.getHostString(), address.getPort(), null, null, null);
-                                } catch (URISyntaxException e) {
-                                    continue;
-                                }
-                                TempInfo tempInfo = map.computeIfAbsent(uri, TempInfo::new);
-                                if (tempInfo.clusters == null) {
-                                    tempInfo.clusters = new HashMap<>();
-                                }
-                                tempInfo.clusters.put(clusterName, cidrAddress);
-                            }
-                        }
-                    }
-                    // populate the service URLs from the cross product (!) of clusters and modules
-                    final AttributeValue nodeNameValue = AttributeValue.fromString(nodeName);
-                    for (TempInfo info : map.values()) {
-                        final ServiceURL.Builder builder = new ServiceURL.Builder();
-                        builder.setUri(info.destination);
-                        builder.setAbstractType(EJBClientContext.EJB_SERVICE_TYPE.getAbstractType());
-                        builder.setAbstractTypeAuthority(EJBClientContext.EJB_SERVICE_TYPE.getAbstractTypeAuthority());
-                        builder.addAttribute(EJBClientContext.FILTER_ATTR_NODE, nodeNameValue);
-                        if (info.modules != null) for (EJBModuleIdentifier moduleIdentifier : info.modules) {
-                            final String appName = moduleIdentifier.getAppName();
-                            final String moduleName = moduleIdentifier.getModuleName();
-                            final String distinctName = moduleIdentifier.getDistinctName();
-                            if (distinctName.isEmpty()) {
-                                if (appName.isEmpty()) {
-                                    builder.addAttribute(EJBClientContext.FILTER_ATTR_EJB_MODULE, AttributeValue.fromString(moduleName));
-                                } else {
-                                    builder.addAttribute(EJBClientContext.FILTER_ATTR_EJB_MODULE, AttributeValue.fromString(appName + "/" + moduleName));
-                                }
-                            } else {
-                                if (appName.isEmpty()) {
-                                    builder.addAttribute(EJBClientContext.FILTER_ATTR_EJB_MODULE_DISTINCT, AttributeValue.fromString(moduleName + "/" + distinctName));
-                                } else {
-                                    builder.addAttribute(EJBClientContext.FILTER_ATTR_EJB_MODULE_DISTINCT, AttributeValue.fromString(appName + "/" + moduleName + "/" + distinctName));
-                                }
-                            }
-                        }
-                        // create a no-cluster mapping
-                        serviceURLCache.add(builder.create());
-                        if (info.clusters != null) for (Map.Entry<String, CidrAddress> entry : info.clusters.entrySet()) {
-                            final String clusterName = entry.getKey();
-                            builder.addAttribute(EJBClientContext.FILTER_ATTR_CLUSTER, AttributeValue.fromString(clusterName));
-                            final CidrAddress cidrAddress = entry.getValue();
-                            if (cidrAddress.getNetmaskBits() == 0) {
-                                // historically we treat IPv4 and IPv6 any addresses as any
-                                builder.removeAttribute(EJBClientContext.FILTER_ATTR_SOURCE_IP);
-                            } else {
-                                final AttributeValue value = AttributeValue.fromString(cidrAddress.toString());
-                                builder.addAttribute(EJBClientContext.FILTER_ATTR_SOURCE_IP, value);
-                            }
-                            serviceURLCache.add(builder.create());
-                        }
+        Map<String, CidrAddress> clusters = null;
+        for (Map.Entry<String, ClusterNodeInformation> entry : clustersByName.entrySet()) {
+            for (Map.Entry<String, CidrAddressTable<InetSocketAddress>> entry1 : entry.getValue().getAddressTablesByProtocol().entrySet()) {
+                for (CidrAddressTable.Mapping<InetSocketAddress> mapping : entry1.getValue()) {
+                    if (destination.equals(getClusterURI(entry1.getKey(), mapping.getValue()))) {
+                        if (clusters == null) clusters = new HashMap<>();
+                        clusters.put(entry.getKey(), mapping.getRange());
                     }
+                }
+            }
+        }
+        if (modules == null && clusters == null) {
+            return null;
+        }
+        final List<ServiceURL> list = new ArrayList<>();
+        addServiceURLs(list, nodeNameValue, destination, modules, clusters);
+        return Collections.unmodifiableList(list);
+    }
 
-                    this.serviceURLCache = serviceURLCache;
+    // populate the service URLs from the cross product (!) of clusters and modules for one destination
+    private static void addServiceURLs(final List<ServiceURL> list, final AttributeValue nodeNameValue, final URI destination, final Set<EJBModuleIdentifier> modules, final Map<String, CidrAddress> clusters) {
+        final ServiceURL.Builder builder = new ServiceURL.Builder();
+        builder.setUri(destination);
+        builder.setAbstractType(EJBClientContext.EJB_SERVICE_TYPE.getAbstractType());
+        builder.setAbstractTypeAuthority(EJBClientContext.EJB_SERVICE_TYPE.getAbstractTypeAuthority());
+        builder.addAttribute(EJBClientContext.FILTER_ATTR_NODE, nodeNameValue);
+        if (modules != null) for (EJBModuleIdentifier moduleIdentifier : modules) {
+            final String appName = moduleIdentifier.getAppName();
+            final String moduleName = moduleIdentifier.getModuleName();
+            final String distinctName = moduleIdentifier.getDistinctName();
+            if (distinctName.isEmpty()) {
+                if (appName.isEmpty()) {
+                    builder.addAttribute(EJBClientContext.FILTER_ATTR_EJB_MODULE, AttributeValue.fromString(moduleName));
+                } else {
+                    builder.addAttribute(EJBClientContext.FILTER_ATTR_EJB_MODULE, AttributeValue.fromString(appName + "/" + moduleName));
                 }
+            } else {
+                if (appName.isEmpty()) {
+                    builder.addAttribute(EJBClientContext.FILTER_ATTR_EJB_MODULE_DISTINCT, AttributeValue.fromString(moduleName + "/" + distinctName));
+                } else {
+                    builder.addAttribute(EJBClientContext.FILTER_ATTR_EJB_MODULE_DISTINCT, AttributeValue.fromString(appName + "/" + moduleName + "/" + distinctName));
+                }
+            }
+        }
+        // create a no-cluster mapping
+        list.add(builder.create());
+        if (clusters != null) for (Map.Entry<String, CidrAddress> entry : clusters.entrySet()) {
+            final String clusterName = entry.getKey();
+            builder.addAttribute(EJBClientContext.FILTER_ATTR_CLUSTER, AttributeValue.fromString(clusterName));
+            final CidrAddress cidrAddress = entry.getValue();
+            if (cidrAddress.getNetmaskBits() == 0) {
+                // historically we treat IPv4 and IPv6 any addresses as any
+                builder.removeAttribute(EJBClientContext.FILTER_ATTR_SOURCE_IP);
+            } else {
+                final AttributeValue value = AttributeValue.fromString(cidrAddress.toString());
+                builder.addAttribute(EJBClientContext.FILTER_ATTR_SOURCE_IP, value);
             }
+            list.add(builder.create());
+        }
+    }
+
+    static URI getClusterURI(final String protocol, final InetSocketAddress address) {
+        try {
+            return new URI(protocol, null, address.getHostString(), address.getPort(), null, null, null);
+        } catch (URISyntaxException e) {
+            return null;
         }
-        return serviceURLCache;
     }
 
     boolean isInvalid() {
@@ -197,65 +172,44 @@ final class NodeInformation {
         this.invalid = invalid;
     }
 
-    void addAddress(final String protocol, final String clusterName, final CidrAddress block, final InetSocketAddress destination) {
-        synchronized (this) {
-            serviceURLCache = null;
-            clustersByName.computeIfAbsent(clusterName, name -> new ClusterNodeInformation())
-                .getAddressTablesByProtocol()
-                .computeIfAbsent(protocol, ignored -> new CidrAddressTable<>())
-                .put(block, destination);
-        }
-    }
-
-
-    void removeCluster(final String clusterName) {
-        synchronized (this) {
-            serviceURLCache = null;
-            clustersByName.remove(clusterName);
-        }
+    boolean isProvisional() {
+        return provisional;
     }
 
-    void addModules(final EJBClientChannel clientChannel, final EJBModuleIdentifier[] moduleList) {
-        synchronized (this) {
-            serviceURLCache = null;
-            Collections.addAll(modulesByConnection.computeIfAbsent(clientChannel, ignored -> new HashSet<>()), moduleList);
-        }
+    void setProvisional(final boolean provisional) {
+        this.provisional = provisional;
     }
 
-    void removeModules(final EJBClientChannel clientChannel, final HashSet<EJBModuleIdentifier> toRemove) {
-        synchronized (this) {
-            serviceURLCache = null;
-            final Set<EJBModuleIdentifier> set = modulesByConnection.get(clientChannel);
-            if (set != null) {
-                set.removeAll(toRemove);
-            }
-        }
+    long getTopologyVersion() {
+        return topologyVersion;
     }
 
-    void removeModule(final EJBClientChannel clientChannel, final EJBModuleIdentifier toRemove) {
+    void setTopologyVersion(final long topologyVersion) {
         synchronized (this) {
-            serviceURLCache = null;
-            final Set<EJBModuleIdentifier> set = modulesByConnection.get(clientChannel);
-            if (set != null) {
-                set.remove(toRemove);
+            // a version only describes what we hold if nothing else has changed it since the last full report
+            if (! topologyDiverged) {
+                this.topologyVersion = topologyVersion;
             }
         }
     }
 
-    void addAddress(EJBClientChannel clientChannel) {
+    /**
+     * Record that another node has changed the merged topology, so that this node must send its topology in full
+     * when we next connect to it.
+     */
+    void topologyDiverged() {
         synchronized (this) {
-            addressesByConnection.put(clientChannel, (InetSocketAddress) clientChannel.getChannel().getConnection().getPeerAddress());
-            serviceURLCache = null;
+            topologyDiverged = true;
+            topologyVersion = 0L;
         }
     }
 
-    void removeConnection(EJBClientChannel clientChannel) {
+    /**
+     * Record that this node has sent its topology in full.
+     */
+    void topologyResynchronized() {
         synchronized (this) {
-            boolean moduleRemoved = modulesByConnection.remove(clientChannel) != null;
-            boolean addressRemoved = addressesByConnection.remove(clientChannel) != null;
-            if (moduleRemoved || addressRemoved) {
-                serviceURLCache = null;
-            }
+            topologyDiverged = false;
         }
     }
 
@@ -265,8 +219,45 @@ final class NodeInformation {
         ClusterNodeInformation() {
         }
 
+        ClusterNodeInformation(final ClusterNodeInformation original) {
+            for (Map.Entry<String, CidrAddressTable<InetSocketAddress>> entry : original.addressTablesByProtocol.entrySet()) {
+                final CidrAddressTable<InetSocketAddress> table = new CidrAddressTable<>();
+                for (CidrAddressTable.Mapping<InetSocketAddress> mapping : entry.getValue()) {
+                    table.put(mapping.getRange(), mapping.getValue());
+                }
+                addressTablesByProtocol.put(entry.getKey(), table);
+            }
+        }
+
         Map<String, CidrAddressTable<InetSocketAddress>> getAddressTablesByProtocol() {
             return addressTablesByProtocol;
         }
+
+        boolean hasMapping(final String protocol, final CidrAddress block, final InetSocketAddress destination) {
+            return destination.equals(getMapping(protocol, block));
+        }
+
+        InetSocketAddress getMapping(final String protocol, final CidrAddress block) {
+            final CidrAddressTable<InetSocketAddress> table = addressTablesByProtocol.get(protocol);
+            if (table != null) {
+                for (CidrAddressTable.Mapping<InetSocketAddress> mapping : table) {
+                    if (mapping.getRange().equals(block)) {
+                        return mapping.getValue();
+                    }
+                }
+            }
+            return null;
+        }
+
+        void addDestinations(final Collection<URI> destinations) {
+            for (Map.Entry<String, CidrAddressTable<InetSocketAddress>> entry : addressTablesByProtocol.entrySet()) {
+                for (CidrAddressTable.Mapping<InetSocketAddress> mapping : entry.getValue()) {
+                    final URI uri = getClusterURI(entry.getKey(), mapping.getValue());
+                    if (uri != null) {
+                        destinations.add(uri);
+                    }
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,265 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.protocol.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.ejb._private.Logs;
+import org.jboss.ejb.client.EJBModuleIdentifier;
+import org.jboss.ejb.server.ClusterTopologyListener;
+import org.jboss.ejb.server.ModuleAvailabilityListener;
+
+/**
+ * The topology and module availability listener of a {@link RemoteEJBService}, registered once with the association
+ * on behalf of all of its channels.  Each change is encoded once and the bytes are queued on every open channel.  A
+ * channel which opens is sent the current state instead: the available modules, and either the complete topology or,
+ * if its client presents a topology which is still remembered, only the difference.
+ */
+final class NotificationBroadcaster implements ClusterTopologyListener, ModuleAvailabilityListener {
+    private final TopologyHistory topologyHistory;
+    // all of the following are guarded by this
+    private final Set<EJBServerChannel> channels = new LinkedHashSet<>();
+    private final Set<EJBModuleIdentifier> modules = new LinkedHashSet<>();
+    private TopologyHistory.Version topology = TopologyHistory.Version.EMPTY;
+
+    NotificationBroadcaster(final TopologyHistory topologyHistory) {
+        this.topologyHistory = topologyHistory;
+    }
+
+    /**
+     * Send the current state to a channel, and then every later change until it is removed.
+     *
+     * @param channel the channel
+     * @param presentedTopology the topology identifier presented by the client, or 0 if none
+     */
+    synchronized void addChannel(final EJBServerChannel channel, final long presentedTopology) {
+        final int version = channel.getVersion();
+        // always sent, even if empty, because the client waits for the module and topology reports before it is ready
+        channel.queueNotification(encodeModules(Protocol.MODULE_AVAILABLE, modules));
+        final TopologyHistory.Version base = version >= 3 && presentedTopology != 0L ? topologyHistory.get(presentedTopology) : null;
+        if (base != null) {
+            writeDelta(channel, base);
+        } else {
+            final List<ClusterInfo> clusterInfoList = topology.getAdditionsSince(TopologyHistory.Version.EMPTY);
+            channel.queueNotification(encodeClusters(Protocol.CLUSTER_TOPOLOGY_COMPLETE, clusterInfoList));
+            if (version >= 3) {
+                channel.queueNotification(encodeZones(clusterInfoList));
+                channel.queueNotification(encodeTopologyVersion());
+            }
+        }
+        channels.add(channel);
+    }
+
+    synchronized void removeChannel(final EJBServerChannel channel) {
+        channels.remove(channel);
+    }
+
+    private void writeDelta(final EJBServerChannel channel, final TopologyHistory.Version base) {
+        final List<String> clusterRemovals = topology.getClusterRemovalsSince(base);
+        if (! clusterRemovals.isEmpty()) {
+            channel.queueNotification(encodeClusterRemoval(clusterRemovals));
+        }
+        final List<ClusterRemovalInfo> nodeRemovals = topology.getNodeRemovalsSince(base);
+        if (! nodeRemovals.isEmpty()) {
+            channel.queueNotification(encodeNodesRemoved(nodeRemovals));
+        }
+        // always sent, even if empty, because the client waits for a topology report before it is ready
+        final List<ClusterInfo> additions = topology.getAdditionsSince(base);
+        channel.queueNotification(encodeClusters(Protocol.CLUSTER_TOPOLOGY_ADDITION, additions));
+        channel.queueNotification(encodeZones(additions));
+        channel.queueNotification(encodeTopologyVersion());
+        Logs.REMOTING.tracef("Sent cluster topology delta to %s (%d cluster removals, %d node removal lists, %d addition lists)", channel.getChannel().getConnection().getPeerURI(), clusterRemovals.size(), nodeRemovals.size(), additions.size());
+    }
+
+    public synchronized void clusterTopology(final List<ClusterInfo> clusterInfoList) {
+        topology = topologyHistory.full(clusterInfoList);
+        broadcast(encodeClusters(Protocol.CLUSTER_TOPOLOGY_COMPLETE, clusterInfoList), 0);
+        broadcast(encodeZones(clusterInfoList), 3);
+        broadcast(encodeTopologyVersion(), 3);
+    }
+
+    public synchronized void clusterRemoval(final List<String> clusterNames) {
+        topology = topologyHistory.clustersRemoved(topology, clusterNames);
+        broadcast(encodeClusterRemoval(clusterNames), 0);
+        broadcast(encodeTopologyVersion(), 3);
+    }
+
+    public synchronized void clusterNewNodesAdded(final ClusterInfo clusterInfo) {
+        final List<ClusterInfo> clusterInfoList = Collections.singletonList(clusterInfo);
+        topology = topologyHistory.nodesAdded(topology, clusterInfo);
+        broadcast(encodeClusters(Protocol.CLUSTER_TOPOLOGY_ADDITION, clusterInfoList), 0);
+        broadcast(encodeZones(clusterInfoList), 3);
+        broadcast(encodeTopologyVersion(), 3);
+    }
+
+    public synchronized void clusterNodesRemoved(final List<ClusterRemovalInfo> clusterRemovalInfoList) {
+        topology = topologyHistory.nodesRemoved(topology, clusterRemovalInfoList);
+        broadcast(encodeNodesRemoved(clusterRemovalInfoList), 0);
+        broadcast(encodeTopologyVersion(), 3);
+    }
+
+    public synchronized void moduleAvailable(final List<EJBModuleIdentifier> modules) {
+        this.modules.addAll(modules);
+        broadcast(encodeModules(Protocol.MODULE_AVAILABLE, modules), 0);
+    }
+
+    public synchronized void moduleUnavailable(final List<EJBModuleIdentifier> modules) {
+        this.modules.removeAll(modules);
+        broadcast(encodeModules(Protocol.MODULE_UNAVAILABLE, modules), 0);
+    }
+
+    private void broadcast(final byte[] payload, final int minimumVersion) {
+        if (payload == null) {
+            return;
+        }
+        for (EJBServerChannel channel : channels) {
+            if (channel.getVersion() >= minimumVersion) {
+                channel.queueNotification(payload);
+            }
+        }
+    }
+
+    private byte[] encodeTopologyVersion() {
+        final long id = topology.getId();
+        return encode(Protocol.TOPOLOGY_VERSION, os -> os.writeLong(id));
+    }
+
+    private static byte[] encodeModules(final int messageType, final Collection<EJBModuleIdentifier> modules) {
+        return encode(messageType, os -> {
+            PackedInteger.writePackedInteger(os, modules.size());
+            for (EJBModuleIdentifier module : modules) {
+                final String appName = module.getAppName();
+                os.writeUTF(appName == null ? "" : appName);
+                final String moduleName = module.getModuleName();
+                os.writeUTF(moduleName == null ? "" : moduleName);
+                final String distinctName = module.getDistinctName();
+                os.writeUTF(distinctName == null ? "" : distinctName);
+            }
+        });
+    }
+
+    private static byte[] encodeClusters(final int messageType, final List<ClusterInfo> clusterInfoList) {
+        return encode(messageType, os -> {
+            PackedInteger.writePackedInteger(os, clusterInfoList.size());
+            for (ClusterInfo clusterInfo : clusterInfoList) {
+                os.writeUTF(clusterInfo.getClusterName());
+                final List<NodeInfo> nodeInfoList = clusterInfo.getNodeInfoList();
+                PackedInteger.writePackedInteger(os, nodeInfoList.size());
+                for (NodeInfo nodeInfo : nodeInfoList) {
+                    os.writeUTF(nodeInfo.getNodeName());
+                    final List<MappingInfo> mappingInfoList = nodeInfo.getMappingInfoList();
+                    PackedInteger.writePackedInteger(os, mappingInfoList.size());
+                    for (MappingInfo mappingInfo : mappingInfoList) {
+                        boolean is6 = mappingInfo.getSourceAddress() instanceof Inet6Address;
+                        if (is6) {
+                            PackedInteger.writePackedInteger(os, mappingInfo.getNetmaskBits() << 1);
+                        } else {
+                            PackedInteger.writePackedInteger(os, mappingInfo.getNetmaskBits() << 1 | 1);
+                        }
+                        os.write(mappingInfo.getSourceAddress().getAddress());
+                        os.writeUTF(mappingInfo.getDestinationAddress());
+                        os.writeShort(mappingInfo.getDestinationPort());
+                    }
+                }
+            }
+        });
+    }
+
+    private static byte[] encodeClusterRemoval(final List<String> clusterNames) {
+        return encode(Protocol.CLUSTER_TOPOLOGY_REMOVAL, os -> {
+            PackedInteger.writePackedInteger(os, clusterNames.size());
+            for (String clusterName : clusterNames) {
+                os.writeUTF(clusterName);
+            }
+        });
+    }
+
+    private static byte[] encodeNodesRemoved(final List<ClusterRemovalInfo> clusterRemovalInfoList) {
+        return encode(Protocol.CLUSTER_TOPOLOGY_NODE_REMOVAL, os -> {
+            PackedInteger.writePackedInteger(os, clusterRemovalInfoList.size());
+            for (ClusterRemovalInfo removalInfo : clusterRemovalInfoList) {
+                os.writeUTF(removalInfo.getClusterName());
+                final List<String> nodeNamesList = removalInfo.getNodeNames();
+                PackedInteger.writePackedInteger(os, nodeNamesList.size());
+                for (String name : nodeNamesList) {
+                    os.writeUTF(name);
+                }
+            }
+        });
+    }
+
+    private static byte[] encodeZones(final List<ClusterInfo> clusterInfoList) {
+        // zones are sent separately so that older clients, which ignore unknown messages, are unaffected
+        final Map<String, String> zones = new HashMap<>();
+        for (ClusterInfo clusterInfo : clusterInfoList) {
+            for (NodeInfo nodeInfo : clusterInfo.getNodeInfoList()) {
+                final String zone = nodeInfo.getZone();
+                if (zone != null) {
+                    zones.put(nodeInfo.getNodeName(), zone);
+                }
+            }
+        }
+        if (zones.isEmpty()) {
+            return null;
+        }
+        return encode(Protocol.NODE_ZONES, os -> {
+            PackedInteger.writePackedInteger(os, zones.size());
+            for (Map.Entry<String, String> entry : zones.entrySet()) {
+                os.writeUTF(entry.getKey());
+                os.writeUTF(entry.getValue());
+            }
+        });
+    }
+
+    /**
+     * Encode a message.
+     *
+     * @param messageType the message type, which is written as the first byte
+     * @param encoder the encoder of the message body
+     * @return the encoded message, which must not be modified, or {@code null} if the encoder failed
+     */
+    static byte[] encode(final int messageType, final Encoder encoder) {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream os = new DataOutputStream(baos);
+        try {
+            os.writeByte(messageType);
+            encoder.encode(os);
+            os.flush();
+        } catch (IOException e) {
+            Logs.REMOTING.trace("EJB notification message encoding failed", e);
+            return null;
+        }
+        return baos.toByteArray();
+    }
+
+    interface Encoder {
+        void encode(DataOutput os) throws IOException;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.protocol.remote;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The pings of one EJB client channel.  At most one ping is outstanding at a time.  A ping which is not answered
+ * within the timeout only counts as lost if nothing else was received from the server in the meantime either,
+ * because on a busy connection the pong may be queued behind large responses.
+ */
+final class PingMonitor {
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final AtomicBoolean received = new AtomicBoolean();
+    // the sequence of the outstanding ping, or zero if no ping is outstanding
+    private volatile int outstanding;
+    private volatile long sentTime;
+
+    PingMonitor() {
+    }
+
+    /**
+     * Start a ping.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return the sequence to send, which is never zero
+     */
+    int pingSent(final long now) {
+        int next = sequence.incrementAndGet() & 0x7fffffff;
+        if (next == 0) {
+            next = sequence.incrementAndGet() & 0x7fffffff;
+        }
+        received.set(false);
+        sentTime = now;
+        outstanding = next;
+        return next;
+    }
+
+    void messageReceived() {
+        received.set(true);
+    }
+
+    /**
+     * Record a pong.
+     *
+     * @param pongSequence the sequence of the pong
+     * @param now the current {@link System#nanoTime()}
+     * @return the round trip time in nanoseconds, or -1 if the pong does not answer the outstanding ping
+     */
+    long pongReceived(final int pongSequence, final long now) {
+        if (pongSequence == 0 || pongSequence != outstanding) {
+            return -1L;
+        }
+        outstanding = 0;
+        return Math.max(0L, now - sentTime);
+    }
+
+    /**
+     * Determine the state of a ping whose timeout has elapsed.
+     *
+     * @param pingSequence the sequence of the ping
+     * @return the state of the ping
+     */
+    Status check(final int pingSequence) {
+        if (outstanding != pingSequence) {
+            return Status.ANSWERED;
+        }
+        // the server is still sending, so the pong is just late; wait another timeout for it
+        return received.getAndSet(false) ? Status.WAITING : Status.LOST;
+    }
+
+    enum Status {
+        ANSWERED,
+        WAITING,
+        LOST,
+    }
+
+    /**
+     * What a client does when a ping is lost.
+     */
+    enum TimeoutAction {
+        /**
+         * Only log the lost ping, and leave the detection of dead connections to Remoting.
+         */
+        LOG,
+        /**
+         * Close the EJB channel, which fails its invocations with a retryable exception.  The connection, and any
+         * transaction or naming traffic on it, is left open, and the next invocation opens a new channel.
+         */
+        CLOSE_CHANNEL,
+        /**
+         * Close the whole connection, including the transaction and naming traffic which shares it.
+         */
+        CLOSE_CONNECTION,
+        ;
+
+        /**
+         * Get the action for a property value such as {@code close-channel}.
+         *
+         * @param name the property value
+         * @return the action
+         * @throws IllegalArgumentException if there is no such action
+         */
+        static TimeoutAction of(final String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.protocol.remote;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+import org.jboss.ejb._private.Logs;
+import org.jboss.ejb.client.annotation.InvocationPriority;
+import org.wildfly.security.auth.server.SecurityIdentity;
+
+/**
+ * The dispatcher of requests to the worker of the transport, shared by all of the channels of a
+ * {@link RemoteEJBService}.  When a concurrency limit is set, requests wait in one of three lanes and at most that
+ * many are executed at once.  The lanes are served in a weighted rotation, so that while all of them have work, high,
+ * normal and low priority requests are taken in the ratio 4:2:1 and no lane is starved; a lane whose turn it is but
+ * which is empty gives its turn to the highest priority lane with work.  The limit should be below the size of the
+ * worker pool, because requests which have been handed to the worker are executed in arrival order.  Without a
+ * limit, requests are handed straight to the worker.
+ */
+final class PriorityDispatcher {
+    private static final int HIGH = 0;
+    private static final int NORMAL = 1;
+    private static final int LOW = 2;
+    // the lane which goes first for each request taken, spread out so that every lane's turns are evenly spaced
+    private static final int[] ROTATION = { HIGH, NORMAL, HIGH, LOW, HIGH, NORMAL, HIGH };
+
+    private final ConcurrentLinkedQueue<Runnable> high = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Runnable> normal = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Runnable> low = new ConcurrentLinkedQueue<>();
+    private final List<ConcurrentLinkedQueue<Runnable>> lanes = Arrays.asList(high, normal, low);
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger taken = new AtomicInteger();
+    private volatile int concurrency;
+    private volatile ToIntFunction<SecurityIdentity> priorityLimit;
+
+    PriorityDispatcher() {
+    }
+
+    void setConcurrency(final int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    void setPriorityLimit(final ToIntFunction<SecurityIdentity> priorityLimit) {
+        this.priorityLimit = priorityLimit;
+    }
+
+    /**
+     * Get the priority at which a request is executed.
+     *
+     * @param requested the priority requested by the client
+     * @param identity the identity of the request, or {@code null} if the connection is not bound to a security domain
+     * @return the requested priority, limited to the highest priority allowed for the identity, or to normal
+     *     priority if no limit function is set
+     */
+    int getPriority(final int requested, final SecurityIdentity identity) {
+        final ToIntFunction<SecurityIdentity> priorityLimit = this.priorityLimit;
+        return Math.min(requested, priorityLimit == null ? InvocationPriority.NORMAL : priorityLimit.applyAsInt(identity));
+    }
+
+    /**
+     * Get the executor for requests of the given priority.
+     *
+     * @param worker the worker of the transport
+     * @param priority the priority of the request
+     * @return the executor
+     */
+    Executor getExecutor(final Executor worker, final int priority) {
+        if (concurrency <= 0) {
+            return worker;
+        }
+        final ConcurrentLinkedQueue<Runnable> lane = priority > InvocationPriority.NORMAL ? high : priority < InvocationPriority.NORMAL ? low : normal;
+        return task -> {
+            lane.add(task);
+            try {
+                if (claimRunner()) {
+                    worker.execute(this::run);
+                }
+            } catch (RejectedExecutionException e) {
+                running.decrementAndGet();
+                if (lane.remove(task)) {
+                    throw e;
+                }
+            }
+        };
+    }
+
+    private boolean claimRunner() {
+        int running;
+        do {
+            running = this.running.get();
+            if (running >= concurrency) {
+                return false;
+            }
+        } while (! this.running.compareAndSet(running, running + 1));
+        return true;
+    }
+
+    private void run() {
+        do {
+            Runnable task;
+            while ((task = poll()) != null) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    Logs.INVOCATION.unexpectedException(t);
+                }
+            }
+            running.decrementAndGet();
+            // a request may have been queued after the lanes were found to be empty, while all runners were busy
+        } while (! (high.isEmpty() && normal.isEmpty() && low.isEmpty()) && claimRunner());
+    }
+
+    private Runnable poll() {
+        final Runnable task = lanes.get(ROTATION[Math.floorMod(taken.getAndIncrement(), ROTATION.length)]).poll();
+        if (task != null) {
+            return task;
+        }
+        for (ConcurrentLinkedQueue<Runnable> lane : lanes) {
+            final Runnable next = lane.poll();
+            if (next != null) {
+                return next;
+            }
+        }
+        return null;
+    }
+}
@@ -63,6 +63,23 @@ final class Protocol {
 
     // v3 and up
     public static final int BAD_VIEW_TYPE         = 0x1C; // s → c
+    public static final int NODE_LOAD             = 0x1D; // s → c
+    public static final int NODE_ZONES            = 0x1E; // s → c
+    public static final int PING                  = 0x1F; // c → s
+    // sent by the server with sequence 0 when a channel opens, to announce that it answers pings
+    public static final int PONG                  = 0x20; // s → c
+    // identifies the topology the client now has; presented again in the greeting reply when reconnecting
+    public static final int TOPOLOGY_VERSION      = 0x21; // s → c
+    public static final int NODE_DRAINING         = 0x22; // s → c
+    // only sent to clients which announce the capability, whose invocation requests then carry a flag after the
+    // invocation ID marking those which only this node can serve; the request was not unmarshalled
+    public static final int SERVER_BUSY           = 0x23; // s → c
+
+    // capabilities announced in the greeting by the server, and in the greeting reply by the client; each is used
+    // only when the peer announced it too
+    static final int CAPABILITY_SERVER_BUSY         = 0b01;
+    static final int CAPABILITY_INVOCATION_PRIORITY = 0b10;
+    static final int CAPABILITIES = CAPABILITY_SERVER_BUSY | CAPABILITY_INVOCATION_PRIORITY;
 
     static final int UPDATE_BIT_STRONG_AFFINITY = 0b100;
     static final int UPDATE_BIT_WEAK_AFFINITY   = 0b010;
@@ -25,6 +25,8 @@ import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.security.PrivilegedAction;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import javax.ejb.CreateException;
 
@@ -36,6 +38,7 @@ import org.jboss.ejb.client.EJBReceiver;
 import org.jboss.ejb.client.EJBReceiverContext;
 import org.jboss.ejb.client.EJBReceiverInvocationContext;
 import org.jboss.ejb.client.EJBReceiverSessionCreationContext;
+import org.jboss.ejb.client.EJBSessionCreationInvocationContext;
 import org.jboss.ejb.client.RequestSendFailedException;
 import org.jboss.ejb.client.SessionID;
 import org.jboss.ejb.client.StatefulEJBLocator;
@@ -47,6 +50,7 @@ import org.jboss.remoting3.Endpoint;
 import org.wildfly.common.Assert;
 import org.wildfly.common.annotation.NotNull;
 import org.wildfly.security.auth.client.AuthenticationContext;
+import org.xnio.FinishedIoFuture;
 import org.xnio.IoFuture;
 import org.xnio.OptionMap;
 
@@ -64,11 +68,28 @@ class RemoteEJBReceiver extends EJBReceiver {
 
     private final RetryExecutorWrapper retryExecutorWrapper = new RetryExecutorWrapper();
 
+    private final ConnectionCache connectionCache = new ConnectionCache();
+
     RemoteEJBReceiver(final RemoteTransportProvider remoteTransportProvider, final EJBReceiverContext receiverContext, final RemotingEJBDiscoveryProvider discoveredNodeRegistry) {
         this.remoteTransportProvider = remoteTransportProvider;
         this.receiverContext = receiverContext;
         this.discoveredNodeRegistry = discoveredNodeRegistry;
-        serviceHandle = new ClientServiceHandle<>("jboss.ejb", channel -> EJBClientChannel.construct(channel, this.discoveredNodeRegistry, retryExecutorWrapper));
+        serviceHandle = new ClientServiceHandle<>("jboss.ejb", channel -> EJBClientChannel.construct(channel, this.discoveredNodeRegistry, receiverContext.getClientContext().getNodeStatistics(), retryExecutorWrapper));
+    }
+
+    /**
+     * Start the background work of this receiver, once it has been registered as the receiver of its client context.
+     */
+    void start() {
+        final Endpoint endpoint = Endpoint.getCurrent();
+        if (ClusterConnectionWarmer.ENABLED) {
+            discoveredNodeRegistry.setConnectionWarmer(new ClusterConnectionWarmer(this, discoveredNodeRegistry, endpoint, AuthenticationContext.captureCurrent()));
+        }
+        // loaded after the warmer is installed, so that the stored nodes are connected to straight away
+        final TopologyStore topologyStore = TopologyStore.create(discoveredNodeRegistry);
+        if (topologyStore != null) {
+            topologyStore.start(endpoint);
+        }
     }
 
     final IoFuture.HandlingNotifier<ConnectionPeerIdentity, EJBReceiverInvocationContext> notifier = new IoFuture.HandlingNotifier<ConnectionPeerIdentity, EJBReceiverInvocationContext>() {
@@ -150,23 +171,81 @@ class RemoteEJBReceiver extends EJBReceiver {
 
             return result.getSessionId();
         } catch (IOException e) {
-            final RequestSendFailedException failed = new RequestSendFailedException("Failed to create stateful EJB: " + e.getMessage(), true);
-            failed.initCause(e);
-            throw failed;
+            throw sessionCreationFailed(e);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new CreateException("Stateful EJB creation interrupted");
         }
     }
 
+    protected CompletionStage<SessionID> createSessionAsync(final EJBReceiverSessionCreationContext context) {
+        final CompletableFuture<SessionID> future = new CompletableFuture<>();
+        final EJBSessionCreationInvocationContext clientInvocationContext = context.getClientInvocationContext();
+        final StatelessEJBLocator<?> statelessLocator = clientInvocationContext.getLocator().asStateless();
+        final IoFuture<ConnectionPeerIdentity> futureConnection;
+        try {
+            futureConnection = getConnection(clientInvocationContext, clientInvocationContext.getDestination(), context.getAuthenticationContext());
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        // completed from the channel's response handler; no thread waits for the connection, the channel or the response
+        futureConnection.addNotifier(new IoFuture.HandlingNotifier<ConnectionPeerIdentity, CompletableFuture<SessionID>>() {
+            public void handleDone(final ConnectionPeerIdentity identity, final CompletableFuture<SessionID> attachment) {
+                serviceHandle.getClientService(identity.getConnection(), OptionMap.EMPTY).addNotifier(new IoFuture.HandlingNotifier<EJBClientChannel, CompletableFuture<SessionID>>() {
+                    public void handleDone(final EJBClientChannel ejbClientChannel, final CompletableFuture<SessionID> attachment) {
+                        ejbClientChannel.openSessionAsync(statelessLocator, identity, clientInvocationContext).whenComplete((locator, problem) -> {
+                            if (problem == null) {
+                                attachment.complete(locator.getSessionId());
+                            } else {
+                                attachment.completeExceptionally(problem);
+                            }
+                        });
+                    }
+
+                    public void handleFailed(final IOException exception, final CompletableFuture<SessionID> attachment) {
+                        attachment.completeExceptionally(sessionCreationFailed(exception));
+                    }
+
+                    public void handleCancelled(final CompletableFuture<SessionID> attachment) {
+                        attachment.completeExceptionally(new CreateException("Stateful EJB creation cancelled"));
+                    }
+                }, attachment);
+            }
+
+            public void handleFailed(final IOException exception, final CompletableFuture<SessionID> attachment) {
+                attachment.completeExceptionally(sessionCreationFailed(exception));
+            }
+
+            public void handleCancelled(final CompletableFuture<SessionID> attachment) {
+                attachment.completeExceptionally(new CreateException("Stateful EJB creation cancelled"));
+            }
+        }, future);
+        return future;
+    }
+
+    private static RequestSendFailedException sessionCreationFailed(final IOException e) {
+        final RequestSendFailedException failed = new RequestSendFailedException("Failed to create stateful EJB: " + e.getMessage(), true);
+        failed.initCause(e);
+        return failed;
+    }
+
     protected InetSocketAddress getSourceAddress(final InetSocketAddress destination) {
         return Endpoint.getCurrent().getXnioWorker().getBindAddress(destination.getAddress());
     }
 
     protected boolean isConnected(final URI uri) {
-        final IoFuture<ConnectionPeerIdentity> future = Endpoint.getCurrent().getConnectedIdentityIfExists(uri, "ejb", "jboss", AuthenticationContext.captureCurrent());
+        final AuthenticationContext authenticationContext = AuthenticationContext.captureCurrent();
+        if (connectionCache.get(uri, authenticationContext, null) != null) {
+            return true;
+        }
+        final IoFuture<ConnectionPeerIdentity> future = Endpoint.getCurrent().getConnectedIdentityIfExists(uri, "ejb", "jboss", authenticationContext);
         try {
-            return future != null && future.getStatus() == IoFuture.Status.DONE && future.get().getConnection().isOpen();
+            if (future != null && future.getStatus() == IoFuture.Status.DONE && future.get().getConnection().isOpen()) {
+                connectionCache.put(uri, authenticationContext, null, future.get());
+                return true;
+            }
+            return false;
         } catch (IOException e) {
             // impossible
             throw Assert.unreachableCode();
@@ -177,11 +256,17 @@ class RemoteEJBReceiver extends EJBReceiver {
         Affinity affinity = context.getLocator().getAffinity();
         String cluster = (affinity instanceof ClusterAffinity) ? ((ClusterAffinity) affinity).getClusterName() : context.getInitialCluster();
 
+        // steady state: the destination is already connected for this authentication context
+        final ConnectionPeerIdentity cached = connectionCache.get(target, authenticationContext, cluster);
+        if (cached != null) {
+            return new FinishedIoFuture<>(cached);
+        }
+
         if (cluster != null) {
-            return doPrivileged((PrivilegedAction<IoFuture<ConnectionPeerIdentity>>) () ->
-                                discoveredNodeRegistry.getConnectedIdentityUsingClusterEffective(Endpoint.getCurrent(), target, "ejb", "jboss", authenticationContext, cluster));
+            return connectionCache.cache(target, authenticationContext, cluster, doPrivileged((PrivilegedAction<IoFuture<ConnectionPeerIdentity>>) () ->
+                                discoveredNodeRegistry.getConnectedIdentityUsingClusterEffective(Endpoint.getCurrent(), target, "ejb", "jboss", authenticationContext, cluster)));
         }
 
-        return doPrivileged((PrivilegedAction<IoFuture<ConnectionPeerIdentity>>) () -> Endpoint.getCurrent().getConnectedIdentity(target, "ejb", "jboss", authenticationContext));
+        return connectionCache.cache(target, authenticationContext, null, doPrivileged((PrivilegedAction<IoFuture<ConnectionPeerIdentity>>) () -> Endpoint.getCurrent().getConnectedIdentity(target, "ejb", "jboss", authenticationContext)));
     }
 }
@@ -21,10 +21,16 @@ package org.jboss.ejb.protocol.remote;
 import static java.lang.Math.min;
 import static org.xnio.IoUtils.safeClose;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.ToIntFunction;
 
 import org.jboss.ejb.server.Association;
-import org.jboss.ejb.server.ListenerHandle;
 import org.jboss.remoting3.Channel;
 import org.jboss.remoting3.MessageInputStream;
 import org.jboss.remoting3.MessageOutputStream;
@@ -33,6 +39,7 @@ import org.jboss.remoting3.RemotingOptions;
 import org.jboss.remoting3.util.MessageTracker;
 import org.jboss.remoting3.util.StreamUtils;
 import org.wildfly.common.Assert;
+import org.wildfly.security.auth.server.SecurityIdentity;
 import org.wildfly.transaction.client.provider.remoting.RemotingTransactionService;
 
 /**
@@ -41,13 +48,26 @@ import org.wildfly.transaction.client.provider.remoting.RemotingTransactionServi
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class RemoteEJBService {
+    private final Association association;
     private final OpenListener openListener;
     private final CallbackBuffer callbackBuffer = new CallbackBuffer();
+    private final LoadReporter loadReporter = new LoadReporter();
+    private final NotificationBroadcaster broadcaster = new NotificationBroadcaster(new TopologyHistory());
+    private final AtomicBoolean registered = new AtomicBoolean();
+    private final ClassResolutionCache classResolutionCache = new ClassResolutionCache();
+    private final PriorityDispatcher dispatcher = new PriorityDispatcher();
+    private final Set<EJBServerChannel> serverChannels = ConcurrentHashMap.newKeySet();
+    private volatile boolean draining;
 
     private RemoteEJBService(final Association association, final RemotingTransactionService transactionService) {
+        this.association = association;
         openListener = new OpenListener() {
             public void channelOpened(final Channel channel) {
-                final MessageTracker messageTracker = new MessageTracker(channel, channel.getOption(RemotingOptions.MAX_OUTBOUND_MESSAGES).intValue());
+                // one outbound message is kept back from the tracker so that pongs never wait behind responses, unless
+                // that would leave the tracker no window at all
+                final int outboundMessages = channel.getOption(RemotingOptions.MAX_OUTBOUND_MESSAGES).intValue();
+                final boolean pongReserved = outboundMessages > 1;
+                final MessageTracker messageTracker = new MessageTracker(channel, pongReserved ? outboundMessages - 1 : outboundMessages);
                 channel.receiveMessage(new Channel.Receiver() {
                     public void handleError(final Channel channel, final IOException error) {
                     }
@@ -57,8 +77,19 @@ public final class RemoteEJBService {
 
                     public void handleMessage(final Channel channel, final MessageInputStream message) {
                         final int version;
+                        long presentedTopology = 0L;
+                        int capabilities = 0;
                         try {
                             version = min(3, StreamUtils.readInt8(message));
+                            if (version >= 3) {
+                                // newer clients follow the marshaller name with the last topology received from us
+                                message.readUTF();
+                                try {
+                                    presentedTopology = message.readLong();
+                                    capabilities = PackedInteger.readPackedInteger(message);
+                                } catch (EOFException ignored) {
+                                }
+                            }
                             // drain the rest of the message because it's just garbage really
                             while (message.read() != - 1) {
                                 message.skip(Long.MAX_VALUE);
@@ -67,11 +98,24 @@ public final class RemoteEJBService {
                             safeClose(channel);
                             return;
                         }
-                        final EJBServerChannel serverChannel = new EJBServerChannel(transactionService.getServerForConnection(channel.getConnection()), channel, version, messageTracker);
+                        final EJBServerChannel serverChannel = new EJBServerChannel(transactionService.getServerForConnection(channel.getConnection()), channel, version, messageTracker, pongReserved, loadReporter, capabilities, classResolutionCache, dispatcher);
+                        serverChannel.writePingSupport();
+                        serverChannels.add(serverChannel);
+                        channel.addCloseHandler((closed, exception) -> {
+                            serverChannels.remove(serverChannel);
+                            broadcaster.removeChannel(serverChannel);
+                        });
+                        if (draining) {
+                            serverChannel.writeDraining(true);
+                        }
+                        final long topology = presentedTopology;
                         callbackBuffer.addListener((sc, a) -> {
-                            final ListenerHandle handle1 = a.registerClusterTopologyListener(sc.createTopologyListener());
-                            final ListenerHandle handle2 = a.registerModuleAvailabilityListener(sc.createModuleListener());
-                            channel.receiveMessage(sc.getReceiver(a, handle1, handle2));
+                            broadcaster.addChannel(sc, topology);
+                            if (! channel.isOpen()) {
+                                // the close handler may have run before the channel was added
+                                broadcaster.removeChannel(sc);
+                            }
+                            channel.receiveMessage(sc.getReceiver(a));
                         }, serverChannel, association);
                     }
                 });
@@ -79,6 +123,8 @@ public final class RemoteEJBService {
                     mos.writeByte(Protocol.LATEST_VERSION);
                     StreamUtils.writePackedUnsignedInt31(mos, 1);
                     mos.writeUTF("river");
+                    // older clients discard anything after the marshaller names
+                    PackedInteger.writePackedInteger(mos, Protocol.CAPABILITIES);
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     safeClose(channel);
@@ -119,6 +165,122 @@ public final class RemoteEJBService {
      * in order for invocations to flow through the server.
      */
     public void serverUp() {
+        if (registered.compareAndSet(false, true)) {
+            // registered before the buffered channels are let through, so that each of them is sent the initial state;
+            // the registrations last as long as the association
+            association.registerClusterTopologyListener(broadcaster);
+            association.registerModuleAvailabilityListener(broadcaster);
+            association.registerModuleAvailabilityListener(classResolutionCache);
+        }
         callbackBuffer.activate();
     }
+
+    /**
+     * Set the relative capacity weight which is reported to clients along with the current load, so that
+     * load-aware clients can send proportionally more requests to larger servers.  The default weight is 100.
+     *
+     * @param capacityWeight the capacity weight (must not be negative)
+     */
+    public void setCapacityWeight(int capacityWeight) {
+        Assert.checkMinimumParameter("capacityWeight", 0, capacityWeight);
+        loadReporter.setCapacityWeight(capacityWeight);
+    }
+
+    /**
+     * Set the source of the queue depth which is reported to clients along with the number of active requests.  By
+     * default, a queue depth of zero is reported.
+     *
+     * @param queueDepthSupplier the supplier of the number of requests waiting to be executed (must not be {@code null})
+     */
+    public void setQueueDepthSupplier(IntSupplier queueDepthSupplier) {
+        Assert.checkNotNullParam("queueDepthSupplier", queueDepthSupplier);
+        loadReporter.setQueueDepthSupplier(queueDepthSupplier);
+    }
+
+    /**
+     * Set the maximum number of invocations which may be in progress at once.  An invocation is in progress from the
+     * time it is admitted until its response is written, so invocations which are waiting for their turn under a
+     * {@linkplain #setDispatchConcurrency(int) dispatch concurrency} limit count as well as those which are running.
+     * Further invocations are turned away with a "server busy" response before they are unmarshalled, so that the
+     * client can retry them on another node at once instead of waiting for them to be queued.  Invocations which only
+     * this node can serve, because they target a stateful session or run in a transaction, are always admitted, as
+     * are the invocations of clients which do not understand the response.  The default is zero, which is no limit.
+     *
+     * @param maxConcurrentInvocations the maximum number of invocations in progress, or zero for no limit (must not be negative)
+     */
+    public void setMaxConcurrentInvocations(int maxConcurrentInvocations) {
+        Assert.checkMinimumParameter("maxConcurrentInvocations", 0, maxConcurrentInvocations);
+        loadReporter.setMaxActiveRequests(maxConcurrentInvocations);
+    }
+
+    /**
+     * Set the queue depth, as given by the {@linkplain #setQueueDepthSupplier(IntSupplier) queue depth supplier}, at
+     * which invocations are turned away with a "server busy" response.  The default is zero, which is no limit.
+     *
+     * @param maxQueueDepth the maximum queue depth, or zero for no limit (must not be negative)
+     */
+    public void setMaxQueueDepth(int maxQueueDepth) {
+        Assert.checkMinimumParameter("maxQueueDepth", 0, maxQueueDepth);
+        loadReporter.setMaxQueueDepth(maxQueueDepth);
+    }
+
+    /**
+     * Set an additional signal, such as one derived from CPU usage or response times, which turns invocations away
+     * with a "server busy" response while it returns {@code true}.  It is consulted for every invocation, so it should
+     * be cheap.
+     *
+     * @param overloadSignal the overload signal, or {@code null} to remove it
+     */
+    public void setOverloadSignal(BooleanSupplier overloadSignal) {
+        loadReporter.setOverloadSignal(overloadSignal);
+    }
+
+    /**
+     * Set the number of invocations which are executed at once in order of priority.  Further invocations wait, and
+     * higher priority invocations get a larger share, while every priority keeps a share of its own.  The limit
+     * should be below the number of worker threads of the transport.  The default is zero, which hands invocations
+     * to the worker as they arrive, regardless of their priority.
+     *
+     * @param dispatchConcurrency the number of invocations executed at once, or zero to ignore priorities (must not be negative)
+     */
+    public void setDispatchConcurrency(int dispatchConcurrency) {
+        Assert.checkMinimumParameter("dispatchConcurrency", 0, dispatchConcurrency);
+        dispatcher.setConcurrency(dispatchConcurrency);
+    }
+
+    /**
+     * Set the function which gives the highest invocation priority allowed for an identity, so that, for example,
+     * reporting clients cannot claim a higher priority than interactive ones.  Invocations which request a higher
+     * priority are executed at the limit.  The function is given {@code null} for connections which are not bound
+     * to a security domain.  By default, clients may request normal or low priority, but not high priority.
+     *
+     * @param priorityLimit the priority limit function, or {@code null} to remove it
+     */
+    public void setPriorityLimit(ToIntFunction<SecurityIdentity> priorityLimit) {
+        dispatcher.setPriorityLimit(priorityLimit);
+    }
+
+    /**
+     * Set whether this server is draining in preparation for shutdown.  Connected clients are told to stop routing
+     * new invocations to this node where they have a choice; invocations already in flight, and those with affinity
+     * to this node (such as calls to existing stateful sessions), continue to be accepted.  Clients which connect
+     * while the server is draining are told immediately.
+     *
+     * @param draining {@code true} to start draining, {@code false} to accept new work again
+     */
+    public void setDraining(boolean draining) {
+        this.draining = draining;
+        for (EJBServerChannel serverChannel : serverChannels) {
+            serverChannel.writeDraining(draining);
+        }
+    }
+
+    /**
+     * Determine whether this server is draining.
+     *
+     * @return {@code true} if the server is draining, {@code false} otherwise
+     */
+    public boolean isDraining() {
+        return draining;
+    }
 }
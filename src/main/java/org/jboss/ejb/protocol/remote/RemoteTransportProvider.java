@@ -40,7 +40,10 @@ public final class RemoteTransportProvider implements EJBTransportProvider {
 
     public void notifyRegistered(final EJBReceiverContext receiverContext) {
         final EJBClientContext clientContext = receiverContext.getClientContext();
-        clientContext.putAttachmentIfAbsent(ATTACHMENT_KEY, new RemoteEJBReceiver(this, receiverContext, new RemotingEJBDiscoveryProvider()));
+        final RemoteEJBReceiver receiver = new RemoteEJBReceiver(this, receiverContext, new RemotingEJBDiscoveryProvider());
+        if (clientContext.putAttachmentIfAbsent(ATTACHMENT_KEY, receiver) == null) {
+            receiver.start();
+        }
     }
 
     public boolean supportsProtocol(final String uriScheme) {
@@ -20,12 +20,15 @@ package org.jboss.ejb.protocol.remote;
 
 import static org.jboss.ejb.client.annotation.ClientInterceptorPriority.JBOSS_AFTER;
 
+import java.util.Collections;
+
 import javax.ejb.NoSuchEJBException;
 
 import org.jboss.ejb.client.AbstractInvocationContext;
 import org.jboss.ejb.client.Affinity;
 import org.jboss.ejb.client.EJBClientInterceptor;
 import org.jboss.ejb.client.EJBClientInvocationContext;
+import org.jboss.ejb.client.EJBModuleIdentifier;
 import org.jboss.ejb.client.EJBSessionCreationInvocationContext;
 import org.jboss.ejb.client.NodeAffinity;
 import org.jboss.ejb.client.SessionID;
@@ -78,10 +81,9 @@ public final class RemotingEJBClientInterceptor implements EJBClientInterceptor
             if (ejbReceiver != null) {
                 final EJBClientChannel ejbClientChannel = context.getAttachment(RemoteEJBReceiver.EJBCC_KEY);
                 if (ejbClientChannel != null) {
-                    final NodeInformation nodeInformation = ejbReceiver.getDiscoveredNodeRegistry().getNodeInformation(((NodeAffinity) targetAffinity).getNodeName());
-                    if (nodeInformation != null) {
-                        nodeInformation.removeModule(ejbClientChannel, context.getLocator().getIdentifier().getModuleIdentifier());
-                    }
+                    final String nodeName = ((NodeAffinity) targetAffinity).getNodeName();
+                    final EJBModuleIdentifier moduleIdentifier = context.getLocator().getIdentifier().getModuleIdentifier();
+                    ejbReceiver.getDiscoveredNodeRegistry().updateTopology(builder -> builder.removeModules(nodeName, ejbClientChannel, Collections.singleton(moduleIdentifier)));
                 }
             }
         }
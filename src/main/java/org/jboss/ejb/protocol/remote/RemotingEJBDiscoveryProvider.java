@@ -19,6 +19,7 @@
 package org.jboss.ejb.protocol.remote;
 
 import static java.security.AccessController.doPrivileged;
+import static org.jboss.ejb.client.EJBClientContext.FILTER_ATTR_CLUSTER;
 import static org.jboss.ejb.client.EJBClientContext.FILTER_ATTR_EJB_MODULE;
 import static org.jboss.ejb.client.EJBClientContext.FILTER_ATTR_EJB_MODULE_DISTINCT;
 import static org.jboss.ejb.client.EJBClientContext.FILTER_ATTR_NODE;
@@ -33,14 +34,20 @@ import java.net.URISyntaxException;
 import java.security.GeneralSecurityException;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import javax.net.ssl.SSLContext;
 
@@ -68,6 +75,7 @@ import org.wildfly.security.auth.client.AuthenticationContextConfigurationClient
 import org.xnio.FailedIoFuture;
 import org.xnio.IoFuture;
 import org.xnio.OptionMap;
+import org.xnio.XnioExecutor;
 
 /**
  * Provides discovery service based on all known EJBClientChannel service registry entries.
@@ -78,14 +86,38 @@ final class RemotingEJBDiscoveryProvider implements DiscoveryProvider, Discovere
 
     static final AuthenticationContextConfigurationClient AUTH_CONFIGURATION_CLIENT = doPrivileged(AuthenticationContextConfigurationClient.ACTION);
 
+    // delay between starting successive configured connection attempts; 0 starts them all at once
+    static final long CONNECTION_RACE_DELAY = doPrivileged((PrivilegedAction<Long>) () -> Long.valueOf(System.getProperty("org.jboss.ejb.client.discovery.connection-race-delay", "250"))).longValue();
+
+    // minimum time between attempts to reconnect to every known destination after a discovery found nothing
+    static final long RECONNECT_ALL_INTERVAL = doPrivileged((PrivilegedAction<Long>) () -> Long.valueOf(System.getProperty("org.jboss.ejb.client.discovery.reconnect-all-interval", "1000"))).longValue();
+
     private final ConcurrentHashMap<String, NodeInformation> nodes = new ConcurrentHashMap<>();
 
     private final Set<URI> failedDestinations = Collections.newSetFromMap(new ConcurrentHashMap<URI, Boolean>());
 
-    private final ConcurrentHashMap<String, Set<String>> clusterNodes = new ConcurrentHashMap<>();
+    // writers are serialized on topologyLock; readers just read the current snapshot
+    private final Object topologyLock = new Object();
+
+    private volatile TopologySnapshot topology = TopologySnapshot.EMPTY;
+
+    // resolved results of plain module queries, invalidated by module availability and topology changes
+    private final ConcurrentHashMap<EJBModuleIdentifier, List<ServiceURL>> moduleResultCache = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<URI, DestinationHistory> destinationHistory = new ConcurrentHashMap<>();
+
+    private volatile ClusterConnectionWarmer connectionWarmer;
+
+    // discoveries in progress, joined by equivalent concurrent requests instead of starting their own
+    private final ConcurrentHashMap<AttemptKey, SharedDiscovery> inFlightDiscoveries = new ConcurrentHashMap<>();
 
-    private final ConcurrentHashMap<String, URI> effectiveAuthURIs = new ConcurrentHashMap<>();
+    private final AtomicLong lastReconnectAll = new AtomicLong(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(RECONNECT_ALL_INTERVAL));
 
+    // configured destinations in the order in which they are best attempted: recently successful ones by connect time, then unknown ones, then failed ones
+    private final Comparator<URI> destinationOrder = Comparator.comparingDouble(uri -> {
+        final DestinationHistory history = destinationHistory.get(uri);
+        return history == null ? Double.MAX_VALUE / 2 : history.getRank();
+    });
 
 
     public RemotingEJBDiscoveryProvider() {
@@ -93,26 +125,64 @@ final class RemotingEJBDiscoveryProvider implements DiscoveryProvider, Discovere
     }
 
     public NodeInformation getNodeInformation(final String nodeName) {
-        return nodes.computeIfAbsent(nodeName, NodeInformation::new);
+        return nodes.computeIfAbsent(nodeName, name -> new NodeInformation(name));
     }
 
     public List<NodeInformation> getAllNodeInformation() {
         return new ArrayList<>(nodes.values());
     }
 
+    public TopologySnapshot getTopology() {
+        return topology;
+    }
+
+    public boolean updateTopology(final Consumer<TopologySnapshot.Builder> update) {
+        final TopologySnapshot updated;
+        final TopologySnapshot.Builder builder;
+        synchronized (topologyLock) {
+            builder = topology.builder();
+            update.accept(builder);
+            if (! builder.isChanged()) {
+                return false;
+            }
+            topology = updated = builder.build();
+        }
+        if (builder.isClustersChanged() || builder.isConnectionsChanged()) {
+            moduleResultCache.clear();
+        } else {
+            // only module availability changed, so only the results for those modules are stale
+            for (EJBModuleIdentifier moduleIdentifier : builder.getChangedModules()) {
+                moduleResultCache.remove(moduleIdentifier);
+            }
+        }
+        if (builder.isClustersChanged()) {
+            final ClusterConnectionWarmer connectionWarmer = this.connectionWarmer;
+            if (connectionWarmer != null) {
+                connectionWarmer.topologyChanged(updated);
+            }
+        }
+        return true;
+    }
+
+    void setConnectionWarmer(final ClusterConnectionWarmer connectionWarmer) {
+        this.connectionWarmer = connectionWarmer;
+    }
+
     public void addNode(final String clusterName, final String nodeName, URI registeredBy) {
-        effectiveAuthURIs.putIfAbsent(clusterName, registeredBy);
-        clusterNodes.computeIfAbsent(clusterName, ignored -> Collections.newSetFromMap(new ConcurrentHashMap<>())).add(nodeName);
+        updateTopology(builder -> builder.addNode(clusterName, nodeName, registeredBy));
     }
 
     public void removeNode(final String clusterName, final String nodeName) {
-        clusterNodes.getOrDefault(clusterName, Collections.emptySet()).remove(nodeName);
+        updateTopology(builder -> builder.removeNode(clusterName, nodeName));
     }
 
     public void removeCluster(final String clusterName) {
-        final Set<String> removed = clusterNodes.remove(clusterName);
-        if (removed != null) removed.clear();
-        effectiveAuthURIs.remove(clusterName);
+        updateTopology(builder -> builder.removeCluster(clusterName));
+    }
+
+    static EJBModuleIdentifier getCacheKey(final FilterSpec filterSpec) {
+        // only plain module queries are cached; anything more specific is rare enough to evaluate each time
+        return filterSpec instanceof EqualsFilterSpec ? filterSpec.accept(MI_EXTRACTOR) : null;
     }
 
     public DiscoveryRequest discover(final ServiceType serviceType, final FilterSpec filterSpec, final DiscoveryResult result) {
@@ -129,13 +199,55 @@ final class RemotingEJBDiscoveryProvider implements DiscoveryProvider, Discovere
             return DiscoveryRequest.NULL;
         }
 
+        final EJBModuleIdentifier cacheKey = getCacheKey(filterSpec);
+        if (cacheKey != null && failedDestinations.isEmpty()) {
+            final List<ServiceURL> cached = moduleResultCache.get(cacheKey);
+            if (cached != null) {
+                Logs.INVOCATION.tracef("EJB discovery provider: using cached result for module %s", cacheKey);
+                for (ServiceURL serviceURL : cached) {
+                    if (serviceType.implies(serviceURL)) {
+                        result.addMatch(serviceURL);
+                    }
+                }
+                result.complete();
+                return DiscoveryRequest.NULL;
+            }
+        }
+
+        final AuthenticationContext authenticationContext = AuthenticationContext.captureCurrent();
+        final ClusterConnectionWarmer connectionWarmer = this.connectionWarmer;
+        if (connectionWarmer != null) {
+            connectionWarmer.discoveryStarted(authenticationContext);
+        }
+        final AttemptKey attemptKey = new AttemptKey(serviceType, filterSpec, authenticationContext);
+        SharedDiscovery sharedDiscovery;
+        for (;;) {
+            final SharedDiscovery existing = inFlightDiscoveries.get(attemptKey);
+            if (existing != null) {
+                if (existing.subscribe(result)) {
+                    Logs.INVOCATION.tracef("EJB discovery provider: joining discovery in progress for %s", filterSpec);
+                    return existing.requestFor(result);
+                }
+                // it completed in the meantime
+                inFlightDiscoveries.remove(attemptKey, existing);
+                continue;
+            }
+            sharedDiscovery = new SharedDiscovery(attemptKey);
+            sharedDiscovery.subscribe(result);
+            if (inFlightDiscoveries.putIfAbsent(attemptKey, sharedDiscovery) == null) {
+                break;
+            }
+        }
+
         final List<EJBClientConnection> configuredConnections = ejbClientContext.getConfiguredConnections();
 
-        final DiscoveryAttempt discoveryAttempt = new DiscoveryAttempt(serviceType, filterSpec, result, ejbReceiver, AuthenticationContext.captureCurrent());
+        final DiscoveryAttempt discoveryAttempt = new DiscoveryAttempt(serviceType, filterSpec, sharedDiscovery, ejbReceiver, authenticationContext);
+        sharedDiscovery.setAttempt(discoveryAttempt);
 
         boolean ok = false;
         boolean discoveryConnections = false;
         // first pass
+        final List<URI> race = new ArrayList<>(configuredConnections.size());
         for (EJBClientConnection connection : configuredConnections) {
             if (! connection.isForDiscovery()) {
                 continue;
@@ -147,53 +259,22 @@ final class RemotingEJBDiscoveryProvider implements DiscoveryProvider, Discovere
                 continue;
             }
             ok = true;
-            Logs.INVOCATION.tracef("EJB discovery provider: attempting to connect to configured connection %s", uri);
-            discoveryAttempt.connectAndDiscover(uri, null);
+            race.add(uri);
         }
+        discoveryAttempt.race(race);
         // also establish cluster nodes if known
-        for (Map.Entry<String, Set<String>> entry : clusterNodes.entrySet()) {
+        for (Map.Entry<String, Set<String>> entry : topology.getClusterNodes().entrySet()) {
             final String clusterName = entry.getKey();
             final Set<String> nodeSet = entry.getValue();
             int maxConnections = ejbClientContext.getMaximumConnectedClusterNodes();
-            nodeLoop: for (String nodeName : nodeSet) {
+            for (String nodeName : nodeSet) {
                 if (maxConnections <= 0) break;
-                final NodeInformation nodeInformation = nodes.get(nodeName);
-                if (nodeInformation != null) {
-                    final NodeInformation.ClusterNodeInformation clusterInfo = nodeInformation.getClustersByName().get(clusterName);
-                    if (clusterInfo != null) {
-                        final Map<String, CidrAddressTable<InetSocketAddress>> tables = clusterInfo.getAddressTablesByProtocol();
-                        for (Map.Entry<String, CidrAddressTable<InetSocketAddress>> entry2 : tables.entrySet()) {
-                            final String protocol = entry2.getKey();
-                            final CidrAddressTable<InetSocketAddress> addressTable = entry2.getValue();
-                            for (CidrAddressTable.Mapping<InetSocketAddress> mapping : addressTable) {
-                                final InetSocketAddress destination = mapping.getValue();
-                                final InetSocketAddress source = ejbReceiver.getSourceAddress(destination);
-                                if (source == null ? mapping.getRange().getNetmaskBits() == 0 : source.equals(destination)) {
-                                    try {
-                                        final InetAddress destinationAddress = destination.getAddress();
-                                        String hostName = Inet.getHostNameIfResolved(destinationAddress);
-                                        if (hostName == null) {
-                                            if (destinationAddress instanceof Inet6Address) {
-                                                hostName = '[' + Inet.toOptimalString(destinationAddress) + ']';
-                                            } else {
-                                                hostName = Inet.toOptimalString(destinationAddress);
-                                            }
-                                        }
-                                        final URI uri = new URI(protocol, null, hostName, destination.getPort(), null, null, null);
-                                        if (! failedDestinations.contains(uri)) {
-                                            maxConnections--;
-                                            Logs.INVOCATION.tracef("EJB discovery provider: attempting to connect to cluster %s connection %s", clusterName, uri);
-                                            discoveryAttempt.connectAndDiscover(uri, clusterName);
-                                            ok = true;
-                                            continue nodeLoop;
-                                        }
-                                    } catch (URISyntaxException e) {
-                                        // ignore URI and try the next one
-                                    }
-                                }
-                            }
-                        }
-                    }
+                final URI uri = getClusterNodeURI(clusterName, nodeName, ejbReceiver);
+                if (uri != null) {
+                    maxConnections--;
+                    Logs.INVOCATION.tracef("EJB discovery provider: attempting to connect to cluster %s connection %s", clusterName, uri);
+                    discoveryAttempt.connectAndDiscover(uri, clusterName);
+                    ok = true;
                 }
             }
         }
@@ -204,14 +285,65 @@ final class RemotingEJBDiscoveryProvider implements DiscoveryProvider, Discovere
                 if (! connection.isForDiscovery()) {
                     continue;
                 }
-                URI destination = connection.getDestination();
-                Logs.INVOCATION.tracef("EJB discovery provider: attempting to connect to connection %s", destination);
-                discoveryAttempt.connectAndDiscover(destination, null);
+                race.add(connection.getDestination());
             }
+            discoveryAttempt.race(race);
         }
 
         discoveryAttempt.countDown();
-        return discoveryAttempt;
+        return sharedDiscovery.requestFor(result);
+    }
+
+    /**
+     * Claim the right to reconnect to every known destination, which is granted at most once per
+     * {@link #RECONNECT_ALL_INTERVAL} so that a burst of failing discoveries does not become a connection storm.
+     */
+    boolean claimReconnectAll() {
+        final long now = System.nanoTime();
+        final long last = lastReconnectAll.get();
+        return now - last >= TimeUnit.MILLISECONDS.toNanos(RECONNECT_ALL_INTERVAL) && lastReconnectAll.compareAndSet(last, now);
+    }
+
+    /**
+     * Get the URI by which the given cluster node can be reached from this client, according to the client mappings
+     * reported in the cluster topology.  Destinations which are marked as failed are skipped.
+     *
+     * @return the URI, or {@code null} if the node has no usable mapping
+     */
+    URI getClusterNodeURI(final String clusterName, final String nodeName, final RemoteEJBReceiver ejbReceiver) {
+        final NodeInformation.ClusterNodeInformation clusterInfo = topology.getNodeClusters(nodeName).get(clusterName);
+        if (clusterInfo == null) {
+            return null;
+        }
+        final Map<String, CidrAddressTable<InetSocketAddress>> tables = clusterInfo.getAddressTablesByProtocol();
+        for (Map.Entry<String, CidrAddressTable<InetSocketAddress>> entry : tables.entrySet()) {
+            final String protocol = entry.getKey();
+            final CidrAddressTable<InetSocketAddress> addressTable = entry.getValue();
+            for (CidrAddressTable.Mapping<InetSocketAddress> mapping : addressTable) {
+                final InetSocketAddress destination = mapping.getValue();
+                final InetSocketAddress source = ejbReceiver.getSourceAddress(destination);
+                if (source == null ? mapping.getRange().getNetmaskBits() == 0 : source.equals(destination)) {
+                    try {
+                        final InetAddress destinationAddress = destination.getAddress();
+                        String hostName = Inet.getHostNameIfResolved(destinationAddress);
+                        if (hostName == null) {
+                            if (destinationAddress instanceof Inet6Address) {
+                                hostName = '[' + Inet.toOptimalString(destinationAddress) + ']';
+                            } else {
+                                hostName = Inet.toOptimalString(destinationAddress);
+                            }
+                        }
+                        final URI uri = new URI(protocol, null, hostName, destination.getPort(), null, null, null);
+                        if (! failedDestinations.contains(uri)) {
+                            return uri;
+                        }
+                    } catch (URISyntaxException e) {
+                        // ignore URI and try the next one
+                    }
+                }
+            }
+        }
+        return null;
     }
 
     static EJBModuleIdentifier getIdentifierForAttribute(String attribute, AttributeValue value) {
@@ -289,11 +421,59 @@ final class RemotingEJBDiscoveryProvider implements DiscoveryProvider, Discovere
         }
     };
 
+    static final FilterSpec.Visitor<Void, String, RuntimeException> CLUSTER_EXTRACTOR = new FilterSpec.Visitor<Void, String, RuntimeException>() {
+        public String handle(final EqualsFilterSpec filterSpec, final Void parameter) throws RuntimeException {
+            final AttributeValue value = filterSpec.getValue();
+            return filterSpec.getAttribute().equals(FILTER_ATTR_CLUSTER) && value.isString() ? value.toString() : null;
+        }
+
+        public String handle(final AllFilterSpec filterSpec, final Void parameter) throws RuntimeException {
+            for (FilterSpec child : filterSpec) {
+                final String match = child.accept(this);
+                if (match != null) {
+                    return match;
+                }
+            }
+            return null;
+        }
+    };
+
+    /**
+     * Get the nodes which could possibly satisfy the given filter, using the module index and the membership of the
+     * given topology snapshot to narrow down node, module and cluster equality queries.
+     */
+    Collection<NodeInformation> getCandidateNodes(final FilterSpec filterSpec, final TopologySnapshot topology) {
+        final String node = filterSpec.accept(NODE_EXTRACTOR);
+        if (node != null) {
+            final NodeInformation information = nodes.get(node);
+            return information == null ? Collections.emptyList() : Collections.singletonList(information);
+        }
+        final Set<String> nodeNames;
+        final EJBModuleIdentifier module = filterSpec.accept(MI_EXTRACTOR);
+        if (module != null) {
+            nodeNames = topology.getNodesForModule(module);
+        } else {
+            final String cluster = filterSpec.accept(CLUSTER_EXTRACTOR);
+            if (cluster == null) {
+                return nodes.values();
+            }
+            nodeNames = topology.getClusterNodes(cluster);
+        }
+        final List<NodeInformation> candidates = new ArrayList<>(nodeNames.size());
+        for (String nodeName : nodeNames) {
+            final NodeInformation information = nodes.get(nodeName);
+            if (information != null) {
+                candidates.add(information);
+            }
+        }
+        return candidates;
+    }
+
     IoFuture<ConnectionPeerIdentity> getConnectedIdentityUsingClusterEffective(Endpoint endpoint, URI destination, String abstractType, String abstractTypeAuthority, AuthenticationContext context, String clusterName) {
         Assert.checkNotNullParam("destination", destination);
         Assert.checkNotNullParam("context", context);
 
-        URI effectiveAuth = clusterName != null ? effectiveAuthURIs.get(clusterName) : null;
+        URI effectiveAuth = clusterName != null ? topology.getEffectiveAuthURI(clusterName) : null;
         boolean updateAuth = effectiveAuth != null;
 
         if (!updateAuth) {
@@ -323,11 +503,19 @@ final class RemotingEJBDiscoveryProvider implements DiscoveryProvider, Discovere
         private final DiscoveryResult discoveryResult;
         private final RemoteEJBReceiver ejbReceiver;
         private final AuthenticationContext authenticationContext;
+        private final EJBModuleIdentifier cacheKey;
+        private final long topologyVersion = topology.getVersion();
 
         private final Endpoint endpoint;
         private final AtomicInteger outstandingCount = new AtomicInteger(1); // this is '1' so that we don't finish until all connections are searched
         private volatile boolean phase2;
-        private final List<Runnable> cancellers = Collections.synchronizedList(new ArrayList<>());
+        private volatile boolean cancelled;
+        private final List<Runnable> cancellers = new ArrayList<>();
+        // guarded by cancellers; once set, cancellers which are registered later are run straight away
+        private boolean cancellersRun;
+        private final Set<ServiceURL> delivered = ConcurrentHashMap.newKeySet();
+        private final ConcurrentHashMap<URI, Long> startTimes = new ConcurrentHashMap<>();
+        private final DiscoveryResult deduplicatingResult;
         private final IoFuture.HandlingNotifier<ConnectionPeerIdentity, URI> outerNotifier;
         private final IoFuture.HandlingNotifier<EJBClientChannel, URI> innerNotifier;
 
@@ -338,6 +526,8 @@ final class RemotingEJBDiscoveryProvider implements DiscoveryProvider, Discovere
             this.ejbReceiver = ejbReceiver;
 
             this.authenticationContext = authenticationContext;
+            cacheKey = getCacheKey(filterSpec);
+            deduplicatingResult = new DeduplicatingResult(discoveryResult, delivered);
             endpoint = Endpoint.getCurrent();
             outerNotifier = new IoFuture.HandlingNotifier<ConnectionPeerIdentity, URI>() {
                 public void handleCancelled(final URI destination) {
@@ -347,6 +537,7 @@ final class RemotingEJBDiscoveryProvider implements DiscoveryProvider, Discovere
                 public void handleFailed(final IOException exception, final URI destination) {
                     DiscoveryAttempt.this.discoveryResult.reportProblem(exception);
                     failedDestinations.add(destination);
+                    recordAttempt(destination, false);
                     countDown();
                 }
 
@@ -364,57 +555,133 @@ final class RemotingEJBDiscoveryProvider implements DiscoveryProvider, Discovere
                 public void handleFailed(final IOException exception, final URI destination) {
                     DiscoveryAttempt.this.discoveryResult.reportProblem(exception);
                     failedDestinations.add(destination);
+                    recordAttempt(destination, false);
                     countDown();
                 }
 
                 public void handleDone(final EJBClientChannel clientChannel, final URI destination) {
                     failedDestinations.remove(destination);
+                    recordAttempt(destination, true);
+                    deliverEarly(clientChannel);
                     countDown();
                 }
             };
         }
 
-        void connectAndDiscover(URI uri, String clusterEffective) {
+        IoFuture<ConnectionPeerIdentity> connectAndDiscover(URI uri, String clusterEffective) {
             final String scheme = uri.getScheme();
             if (scheme == null || ! ejbReceiver.getRemoteTransportProvider().supportsProtocol(scheme) || ! endpoint.isValidUriScheme(scheme)) {
                 countDown();
-                return;
+                return null;
             }
             outstandingCount.getAndIncrement();
+            startTimes.put(uri, Long.valueOf(System.nanoTime()));
             final IoFuture<ConnectionPeerIdentity> future = doPrivileged((PrivilegedAction<IoFuture<ConnectionPeerIdentity>>) () -> getConnectedIdentityUsingClusterEffective(endpoint, uri, "ejb", "jboss", authenticationContext, clusterEffective));
             onCancel(future::cancel);
             future.addNotifier(outerNotifier, uri);
+            return future;
+        }
+
+        /**
+         * Connect to the given destinations in a staggered race, most promising first.  Each attempt is started when
+         * its predecessor has connected or failed, or after the race delay, whichever comes first, so that a healthy
+         * server answers quickly without every configured server being contacted at the same instant.  Every
+         * destination is eventually attempted, since configured servers need not host the same deployments, unless the
+         * attempt is cancelled first.
+         */
+        void race(final List<URI> uris) {
+            if (uris.isEmpty()) {
+                return;
+            }
+            uris.sort(destinationOrder);
+            // hold the attempt open until the last destination has been started
+            outstandingCount.getAndIncrement();
+            launch(uris, 0);
+        }
+
+        private void launch(final List<URI> uris, final int index) {
+            if (cancelled) {
+                // release the hold taken by race(); the remaining destinations are not attempted
+                countDown();
+                return;
+            }
+            final URI uri = uris.get(index);
+            Logs.INVOCATION.tracef("EJB discovery provider: attempting to connect to configured connection %s", uri);
+            final IoFuture<ConnectionPeerIdentity> future = connectAndDiscover(uri, null);
+            if (index == uris.size() - 1) {
+                countDown();
+                return;
+            }
+            final AtomicBoolean launched = new AtomicBoolean();
+            final Runnable next = () -> {
+                if (launched.compareAndSet(false, true)) {
+                    launch(uris, index + 1);
+                }
+            };
+            if (future == null || CONNECTION_RACE_DELAY <= 0L) {
+                next.run();
+                return;
+            }
+            future.addNotifier((ignored, attachment) -> next.run(), null);
+            final XnioExecutor.Key key = endpoint.getXnioWorker().getIoThread().executeAfter(next, CONNECTION_RACE_DELAY, TimeUnit.MILLISECONDS);
+            onCancel(key::remove);
+        }
+
+        void recordAttempt(final URI destination, final boolean succeeded) {
+            final Long startTime = startTimes.remove(destination);
+            if (startTime != null) {
+                destinationHistory.computeIfAbsent(destination, ignored -> new DestinationHistory()).record(succeeded, System.nanoTime() - startTime.longValue());
+            }
+        }
+
+        /**
+         * Deliver the matches of a newly connected node straight away, so that first-match queries need not wait for
+         * the slowest connection attempt.  The channel is only complete once its initial module report has arrived.
+         */
+        void deliverEarly(final EJBClientChannel clientChannel) {
+            if (cancelled) {
+                return;
+            }
+            final NodeInformation information = nodes.get(clientChannel.getChannel().getConnection().getRemoteEndpointName());
+            if (information != null) {
+                information.discover(serviceType, filterSpec, deduplicatingResult, topology);
+            }
         }
 
         void countDown() {
             if (outstandingCount.decrementAndGet() == 0) {
-                final DiscoveryResult result = this.discoveryResult;
-                final String node = filterSpec.accept(NODE_EXTRACTOR);
-                final EJBModuleIdentifier module = filterSpec.accept(MI_EXTRACTOR);
+                // matches which were delivered early are not delivered again
+                final DiscoveryResult result = deduplicatingResult;
+                final TopologySnapshot snapshot = topology;
                 if (phase2) {
-                    if (node != null) {
-                        final NodeInformation information = nodes.get(node);
-                        if (information != null) information.discover(serviceType, filterSpec, result);
-                    } else for (NodeInformation information : nodes.values()) {
-                        information.discover(serviceType, filterSpec, result);
+                    for (NodeInformation information : getCandidateNodes(filterSpec, snapshot)) {
+                        information.discover(serviceType, filterSpec, result, snapshot);
                     }
                     result.complete();
                 } else {
                     boolean ok = false;
-                    // optimize for simple module identifier and node name queries
-                    if (node != null) {
-                        final NodeInformation information = nodes.get(node);
-                        if (information != null) {
-                            if (information.discover(serviceType, filterSpec, result)) {
-                                ok = true;
-                            }
-                        }
-                    } else for (NodeInformation information : nodes.values()) {
-                        if (information.discover(serviceType, filterSpec, result)) {
+                    final List<ServiceURL> matches = cacheKey == null ? null : new ArrayList<>();
+                    final DiscoveryResult target = matches == null ? result : new RecordingResult(result, matches);
+                    // optimize for simple module identifier, cluster and node name queries
+                    for (NodeInformation information : getCandidateNodes(filterSpec, snapshot)) {
+                        if (information.discover(serviceType, filterSpec, target, snapshot)) {
                             ok = true;
                         }
                     }
+                    ok |= ! delivered.isEmpty();
                     if (ok) {
+                        if (matches != null && failedDestinations.isEmpty() && topology.getVersion() == topologyVersion) {
+                            moduleResultCache.put(cacheKey, matches);
+                            // an invalidation may have raced with us
+                            if (topology.getVersion() != topologyVersion) {
+                                moduleResultCache.remove(cacheKey, matches);
+                            }
+                        }
+                        result.complete();
+                    } else if (cancelled) {
+                        result.complete();
+                    } else if (! claimReconnectAll()) {
+                        Logs.INVOCATION.tracef("EJB discovery provider: no match for %s, and all destinations were reconnected recently", filterSpec);
                         result.complete();
                     } else {
                         // everything failed.  We have to reconnect everything.
@@ -426,7 +693,7 @@ final class RemotingEJBDiscoveryProvider implements DiscoveryProvider, Discovere
                             }
                         }
                         outer: for (NodeInformation information : nodes.values()) {
-                            for (NodeInformation.ClusterNodeInformation cni : information.getClustersByName().values()) {
+                            for (NodeInformation.ClusterNodeInformation cni : snapshot.getNodeClusters(information.getNodeName()).values()) {
                                 final Map<String, CidrAddressTable<InetSocketAddress>> atm = cni.getAddressTablesByProtocol();
                                 for (Map.Entry<String, CidrAddressTable<InetSocketAddress>> entry2 : atm.entrySet()) {
                                     final String protocol = entry2.getKey();
@@ -490,19 +757,227 @@ final class RemotingEJBDiscoveryProvider implements DiscoveryProvider, Discovere
         // discovery request methods
 
         public void cancel() {
+            // no further destinations are started, whether or not the caller was answered
+            cancelled = true;
+            if (! delivered.isEmpty()) {
+                // the caller was answered early; let the attempts in progress finish to populate the topology
+                return;
+            }
             final List<Runnable> cancellers = this.cancellers;
+            final Runnable[] actions;
             synchronized (cancellers) {
-                for (Runnable canceller : cancellers) {
-                    canceller.run();
-                }
+                cancellersRun = true;
+                actions = cancellers.toArray(new Runnable[cancellers.size()]);
+                cancellers.clear();
+            }
+            // run outside of the lock, since cancelling a future may register further cancellers
+            for (Runnable action : actions) {
+                action.run();
             }
         }
 
         void onCancel(final Runnable action) {
             final List<Runnable> cancellers = this.cancellers;
             synchronized (cancellers) {
-                cancellers.add(action);
+                if (! cancellersRun) {
+                    cancellers.add(action);
+                    return;
+                }
+            }
+            action.run();
+        }
+    }
+
+    static final class AttemptKey {
+        private final ServiceType serviceType;
+        private final String filter;
+        private final AuthenticationContext authenticationContext;
+        private final int hashCode;
+
+        AttemptKey(final ServiceType serviceType, final FilterSpec filterSpec, final AuthenticationContext authenticationContext) {
+            this.serviceType = serviceType;
+            // the string form is canonical for the filters built by the EJB client
+            filter = filterSpec.toString();
+            this.authenticationContext = authenticationContext;
+            hashCode = (serviceType.hashCode() * 31 + filter.hashCode()) * 31 + System.identityHashCode(authenticationContext);
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof AttemptKey && equals((AttemptKey) obj);
+        }
+
+        boolean equals(final AttemptKey other) {
+            // callers with different authentication contexts may be able to see different servers
+            return this == other || other != null && hashCode == other.hashCode && authenticationContext == other.authenticationContext && serviceType.equals(other.serviceType) && filter.equals(other.filter);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * A discovery attempt shared by every concurrent request with the same key.  Matches and problems are fanned out
+     * to all subscribers, and replayed to subscribers which join late.  The attempt is cancelled once the last
+     * subscriber has cancelled.
+     */
+    final class SharedDiscovery implements DiscoveryResult {
+        private final AttemptKey key;
+        private final List<DiscoveryResult> subscribers = new ArrayList<>();
+        private final List<ServiceURL> matches = new ArrayList<>();
+        private final List<Throwable> problems = new ArrayList<>();
+        private boolean complete;
+        private volatile DiscoveryAttempt attempt;
+
+        SharedDiscovery(final AttemptKey key) {
+            this.key = key;
+        }
+
+        void setAttempt(final DiscoveryAttempt attempt) {
+            this.attempt = attempt;
+        }
+
+        /**
+         * Add a subscriber.
+         *
+         * @return {@code true} if the subscriber was added, {@code false} if the attempt is already complete
+         */
+        synchronized boolean subscribe(final DiscoveryResult subscriber) {
+            if (complete) {
+                return false;
+            }
+            for (Throwable problem : problems) {
+                subscriber.reportProblem(problem);
+            }
+            for (ServiceURL match : matches) {
+                subscriber.addMatch(match);
+            }
+            subscribers.add(subscriber);
+            return true;
+        }
+
+        DiscoveryRequest requestFor(final DiscoveryResult subscriber) {
+            return () -> unsubscribe(subscriber);
+        }
+
+        private void unsubscribe(final DiscoveryResult subscriber) {
+            final boolean last;
+            synchronized (this) {
+                if (complete || ! subscribers.remove(subscriber)) {
+                    return;
+                }
+                last = subscribers.isEmpty();
             }
+            subscriber.complete();
+            if (last) {
+                // nobody is waiting any more; later requests start afresh rather than joining a cancelled attempt
+                inFlightDiscoveries.remove(key, this);
+                final DiscoveryAttempt attempt = this.attempt;
+                if (attempt != null) {
+                    attempt.cancel();
+                }
+            }
+        }
+
+        public synchronized void addMatch(final ServiceURL serviceURL) {
+            if (! complete) {
+                matches.add(serviceURL);
+                for (DiscoveryResult subscriber : subscribers) {
+                    subscriber.addMatch(serviceURL);
+                }
+            }
+        }
+
+        public synchronized void reportProblem(final Throwable description) {
+            if (! complete) {
+                problems.add(description);
+                for (DiscoveryResult subscriber : subscribers) {
+                    subscriber.reportProblem(description);
+                }
+            }
+        }
+
+        public void complete() {
+            final DiscoveryResult[] finished;
+            synchronized (this) {
+                if (complete) {
+                    return;
+                }
+                complete = true;
+                finished = subscribers.toArray(new DiscoveryResult[subscribers.size()]);
+                subscribers.clear();
+            }
+            inFlightDiscoveries.remove(key, this);
+            for (DiscoveryResult subscriber : finished) {
+                subscriber.complete();
+            }
+        }
+    }
+
+    static final class RecordingResult implements DiscoveryResult {
+        private final DiscoveryResult delegate;
+        private final List<ServiceURL> matches;
+
+        RecordingResult(final DiscoveryResult delegate, final List<ServiceURL> matches) {
+            this.delegate = delegate;
+            this.matches = matches;
+        }
+
+        public void complete() {
+            delegate.complete();
+        }
+
+        public void reportProblem(final Throwable description) {
+            delegate.reportProblem(description);
+        }
+
+        public void addMatch(final ServiceURL serviceURL) {
+            matches.add(serviceURL);
+            delegate.addMatch(serviceURL);
+        }
+    }
+
+    static final class DeduplicatingResult implements DiscoveryResult {
+        private final DiscoveryResult delegate;
+        private final Set<ServiceURL> delivered;
+
+        DeduplicatingResult(final DiscoveryResult delegate, final Set<ServiceURL> delivered) {
+            this.delegate = delegate;
+            this.delivered = delivered;
+        }
+
+        public void complete() {
+            delegate.complete();
+        }
+
+        public void reportProblem(final Throwable description) {
+            delegate.reportProblem(description);
+        }
+
+        public void addMatch(final ServiceURL serviceURL) {
+            if (delivered.add(serviceURL)) {
+                delegate.addMatch(serviceURL);
+            }
+        }
+    }
+
+    static final class DestinationHistory {
+        private double connectTime;
+        private boolean failed;
+
+        DestinationHistory() {
+        }
+
+        synchronized void record(final boolean succeeded, final long elapsedNanos) {
+            failed = ! succeeded;
+            if (succeeded) {
+                connectTime = connectTime == 0.0 ? elapsedNanos : 0.7 * connectTime + 0.3 * elapsedNanos;
+            }
+        }
+
+        synchronized double getRank() {
+            // failed destinations sort after those never attempted
+            return failed ? Double.MAX_VALUE : connectTime;
         }
     }
 }
@@ -0,0 +1,257 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.protocol.remote;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.jboss.ejb.server.ClusterTopologyListener.ClusterInfo;
+import org.jboss.ejb.server.ClusterTopologyListener.ClusterRemovalInfo;
+import org.jboss.ejb.server.ClusterTopologyListener.MappingInfo;
+import org.jboss.ejb.server.ClusterTopologyListener.NodeInfo;
+
+/**
+ * The recent cluster topologies reported to the clients of a {@link RemoteEJBService}.  Each topology is identified by
+ * a digest of its content, which is independent of the order of clusters, nodes and events, so that the same
+ * membership always arrives at the same identifier.  A reconnecting client presents the identifier of the last
+ * topology it received, and if that topology is still remembered the channel sends only the difference.  Since a
+ * client merges the topologies of all of the servers it is connected to, it only presents an identifier while no
+ * other server has changed its view of the topology since this server last sent it in full.
+ */
+final class TopologyHistory {
+    static final int DEFAULT_CAPACITY = 32;
+
+    private final Map<Long, Version> versions;
+
+    TopologyHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    TopologyHistory(final int capacity) {
+        versions = new LinkedHashMap<Long, Version>(capacity, 0.75f, true) {
+            protected boolean removeEldestEntry(final Map.Entry<Long, Version> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Get a remembered topology.
+     *
+     * @param id the topology identifier
+     * @return the topology, or {@code null} if it is not (or no longer) known
+     */
+    Version get(final long id) {
+        synchronized (versions) {
+            return versions.get(Long.valueOf(id));
+        }
+    }
+
+    Version full(final List<ClusterInfo> clusterInfoList) {
+        long id = 0;
+        for (ClusterInfo clusterInfo : clusterInfoList) {
+            for (NodeInfo nodeInfo : clusterInfo.getNodeInfoList()) {
+                id += hash(clusterInfo.getClusterName(), nodeInfo);
+            }
+        }
+        final Version existing = get(id);
+        if (existing != null) {
+            return existing;
+        }
+        final Map<String, Map<String, NodeInfo>> clusters = new HashMap<>();
+        for (ClusterInfo clusterInfo : clusterInfoList) {
+            final Map<String, NodeInfo> nodes = clusters.computeIfAbsent(clusterInfo.getClusterName(), ignored -> new HashMap<>());
+            for (NodeInfo nodeInfo : clusterInfo.getNodeInfoList()) {
+                nodes.put(nodeInfo.getNodeName(), nodeInfo);
+            }
+        }
+        return record(new Version(id, clusters));
+    }
+
+    Version nodesAdded(final Version base, final ClusterInfo clusterInfo) {
+        final String clusterName = clusterInfo.getClusterName();
+        final Map<String, NodeInfo> existingNodes = base.clusters.getOrDefault(clusterName, Collections.emptyMap());
+        long id = base.id;
+        for (NodeInfo nodeInfo : clusterInfo.getNodeInfoList()) {
+            final NodeInfo replaced = existingNodes.get(nodeInfo.getNodeName());
+            if (replaced != null) {
+                id -= hash(clusterName, replaced);
+            }
+            id += hash(clusterName, nodeInfo);
+        }
+        final Version existing = get(id);
+        if (existing != null) {
+            return existing;
+        }
+        final Map<String, Map<String, NodeInfo>> clusters = new HashMap<>(base.clusters);
+        final Map<String, NodeInfo> nodes = new HashMap<>(existingNodes);
+        for (NodeInfo nodeInfo : clusterInfo.getNodeInfoList()) {
+            nodes.put(nodeInfo.getNodeName(), nodeInfo);
+        }
+        clusters.put(clusterName, nodes);
+        return record(new Version(id, clusters));
+    }
+
+    Version nodesRemoved(final Version base, final List<ClusterRemovalInfo> clusterRemovalInfoList) {
+        long id = base.id;
+        for (ClusterRemovalInfo removalInfo : clusterRemovalInfoList) {
+            final Map<String, NodeInfo> nodes = base.clusters.getOrDefault(removalInfo.getClusterName(), Collections.emptyMap());
+            for (String nodeName : removalInfo.getNodeNames()) {
+                final NodeInfo removed = nodes.get(nodeName);
+                if (removed != null) {
+                    id -= hash(removalInfo.getClusterName(), removed);
+                }
+            }
+        }
+        final Version existing = get(id);
+        if (existing != null) {
+            return existing;
+        }
+        final Map<String, Map<String, NodeInfo>> clusters = new HashMap<>(base.clusters);
+        for (ClusterRemovalInfo removalInfo : clusterRemovalInfoList) {
+            final Map<String, NodeInfo> nodes = clusters.get(removalInfo.getClusterName());
+            if (nodes != null) {
+                final Map<String, NodeInfo> copy = new HashMap<>(nodes);
+                copy.keySet().removeAll(removalInfo.getNodeNames());
+                clusters.put(removalInfo.getClusterName(), copy);
+            }
+        }
+        return record(new Version(id, clusters));
+    }
+
+    Version clustersRemoved(final Version base, final List<String> clusterNames) {
+        long id = base.id;
+        for (String clusterName : clusterNames) {
+            for (NodeInfo nodeInfo : base.clusters.getOrDefault(clusterName, Collections.emptyMap()).values()) {
+                id -= hash(clusterName, nodeInfo);
+            }
+        }
+        final Version existing = get(id);
+        if (existing != null) {
+            return existing;
+        }
+        final Map<String, Map<String, NodeInfo>> clusters = new HashMap<>(base.clusters);
+        clusters.keySet().removeAll(clusterNames);
+        return record(new Version(id, clusters));
+    }
+
+    private Version record(final Version version) {
+        synchronized (versions) {
+            final Version existing = versions.putIfAbsent(Long.valueOf(version.id), version);
+            return existing == null ? version : existing;
+        }
+    }
+
+    private static long hash(final String clusterName, final NodeInfo nodeInfo) {
+        long h = clusterName.hashCode() * 31L + nodeInfo.getNodeName().hashCode();
+        h = h * 31L + Objects.hashCode(nodeInfo.getZone());
+        for (MappingInfo mappingInfo : nodeInfo.getMappingInfoList()) {
+            h = h * 31L + Arrays.hashCode(mappingInfo.getSourceAddress().getAddress());
+            h = h * 31L + mappingInfo.getNetmaskBits();
+            h = h * 31L + mappingInfo.getDestinationAddress().hashCode();
+            h = h * 31L + mappingInfo.getDestinationPort();
+        }
+        // finalization step of MurmurHash3, so that the sum of the entries is well distributed
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    static final class Version {
+        static final Version EMPTY = new Version(0L, Collections.emptyMap());
+
+        private final long id;
+        private final Map<String, Map<String, NodeInfo>> clusters;
+
+        Version(final long id, final Map<String, Map<String, NodeInfo>> clusters) {
+            this.id = id;
+            this.clusters = clusters;
+        }
+
+        long getId() {
+            return id;
+        }
+
+        /**
+         * Get the nodes which were added to, or whose mappings changed in, this topology relative to an older one.
+         */
+        List<ClusterInfo> getAdditionsSince(final Version base) {
+            final List<ClusterInfo> additions = new ArrayList<>();
+            for (Map.Entry<String, Map<String, NodeInfo>> entry : clusters.entrySet()) {
+                final String clusterName = entry.getKey();
+                final Map<String, NodeInfo> baseNodes = base.clusters.getOrDefault(clusterName, Collections.emptyMap());
+                final List<NodeInfo> added = new ArrayList<>();
+                for (NodeInfo nodeInfo : entry.getValue().values()) {
+                    final NodeInfo baseInfo = baseNodes.get(nodeInfo.getNodeName());
+                    if (baseInfo == null || hash(clusterName, baseInfo) != hash(clusterName, nodeInfo)) {
+                        added.add(nodeInfo);
+                    }
+                }
+                if (! added.isEmpty()) {
+                    additions.add(new ClusterInfo(clusterName, added));
+                }
+            }
+            return additions;
+        }
+
+        /**
+         * Get the nodes which were removed from clusters which still exist in this topology relative to an older one.
+         */
+        List<ClusterRemovalInfo> getNodeRemovalsSince(final Version base) {
+            final List<ClusterRemovalInfo> removals = new ArrayList<>();
+            for (Map.Entry<String, Map<String, NodeInfo>> entry : base.clusters.entrySet()) {
+                final Map<String, NodeInfo> nodes = clusters.get(entry.getKey());
+                if (nodes != null) {
+                    final List<String> removed = new ArrayList<>();
+                    for (String nodeName : entry.getValue().keySet()) {
+                        if (! nodes.containsKey(nodeName)) {
+                            removed.add(nodeName);
+                        }
+                    }
+                    if (! removed.isEmpty()) {
+                        removals.add(new ClusterRemovalInfo(entry.getKey(), removed));
+                    }
+                }
+            }
+            return removals;
+        }
+
+        /**
+         * Get the clusters which no longer exist in this topology relative to an older one.
+         */
+        List<String> getClusterRemovalsSince(final Version base) {
+            final List<String> removals = new ArrayList<>();
+            for (String clusterName : base.clusters.keySet()) {
+                if (! clusters.containsKey(clusterName)) {
+                    removals.add(clusterName);
+                }
+            }
+            return removals;
+        }
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.protocol.remote;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.ejb.client.EJBModuleIdentifier;
+import org.jboss.ejb.protocol.remote.NodeInformation.ClusterNodeInformation;
+import org.wildfly.common.net.CidrAddress;
+import org.wildfly.common.net.CidrAddressTable;
+import org.wildfly.discovery.AttributeValue;
+import org.wildfly.discovery.ServiceURL;
+
+/**
+ * An immutable, versioned snapshot of the discovered topology.  A new snapshot is built copy-on-write for each
+ * topology or module availability message and published atomically, so readers always see a consistent view of
+ * cluster membership, client mappings and module availability without locking.  The version increases with every
+ * published change and can be used by caches to detect staleness.  The address tables and module sets of a published
+ * snapshot are never modified, as a builder copies anything it changes.  The service URLs of each node are derived
+ * from the rest of the snapshot when it is built.
+ */
+final class TopologySnapshot {
+    static final TopologySnapshot EMPTY = new TopologySnapshot(0L, Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
+
+    private final long version;
+    private final Map<String, Set<String>> clusterNodes;
+    private final Map<String, URI> effectiveAuthURIs;
+    private final Map<String, Map<String, ClusterNodeInformation>> nodeClusters;
+    private final Map<String, Map<Object, Connection>> nodeConnections;
+    private final Map<EJBModuleIdentifier, Set<String>> moduleNodes;
+    private final Map<String, Map<URI, List<ServiceURL>>> nodeServiceURLs;
+
+    private TopologySnapshot(final long version, final Map<String, Set<String>> clusterNodes, final Map<String, URI> effectiveAuthURIs, final Map<String, Map<String, ClusterNodeInformation>> nodeClusters, final Map<String, Map<Object, Connection>> nodeConnections, final Map<EJBModuleIdentifier, Set<String>> moduleNodes, final Map<String, Map<URI, List<ServiceURL>>> nodeServiceURLs) {
+        this.version = version;
+        this.clusterNodes = clusterNodes;
+        this.effectiveAuthURIs = effectiveAuthURIs;
+        this.nodeClusters = nodeClusters;
+        this.nodeConnections = nodeConnections;
+        this.moduleNodes = moduleNodes;
+        this.nodeServiceURLs = nodeServiceURLs;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    Map<String, Set<String>> getClusterNodes() {
+        return clusterNodes;
+    }
+
+    Set<String> getClusterNodes(final String clusterName) {
+        return clusterNodes.getOrDefault(clusterName, Collections.emptySet());
+    }
+
+    boolean isClusterMember(final String nodeName) {
+        for (Set<String> nodes : clusterNodes.values()) {
+            if (nodes.contains(nodeName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    URI getEffectiveAuthURI(final String clusterName) {
+        return effectiveAuthURIs.get(clusterName);
+    }
+
+    /**
+     * Get the client mappings of a node, by cluster name.  The returned map is the same instance in every snapshot
+     * until the mappings of the node change.
+     *
+     * @param nodeName the node name
+     * @return the mappings of the node in each of its clusters (not {@code null})
+     */
+    Map<String, ClusterNodeInformation> getNodeClusters(final String nodeName) {
+        return nodeClusters.getOrDefault(nodeName, Collections.emptyMap());
+    }
+
+    /**
+     * Get the names of the nodes which have reported the given module over any of their connections.
+     *
+     * @param moduleIdentifier the module identifier
+     * @return the node names (not {@code null})
+     */
+    Set<String> getNodesForModule(final EJBModuleIdentifier moduleIdentifier) {
+        return moduleNodes.getOrDefault(moduleIdentifier, Collections.emptySet());
+    }
+
+    /**
+     * Get the service URLs of a node, by destination.  The list of a destination is the same instance in every
+     * snapshot until a connection, module or client mapping which leads to that destination changes.
+     *
+     * @param nodeName the node name
+     * @return the service URLs of each destination of the node (not {@code null})
+     */
+    Map<URI, List<ServiceURL>> getServiceURLs(final String nodeName) {
+        return nodeServiceURLs.getOrDefault(nodeName, Collections.emptyMap());
+    }
+
+    Builder builder() {
+        return new Builder(this);
+    }
+
+    /**
+     * A connection to a node, with the modules which the node reported over it.
+     */
+    static final class Connection {
+        private final URI destination;
+        private final Set<EJBModuleIdentifier> modules;
+
+        Connection(final URI destination, final Set<EJBModuleIdentifier> modules) {
+            this.destination = destination;
+            this.modules = modules;
+        }
+
+        URI getDestination() {
+            return destination;
+        }
+
+        Set<EJBModuleIdentifier> getModules() {
+            return modules;
+        }
+    }
+
+    static final class Builder {
+        private final TopologySnapshot base;
+        private final Map<String, Set<String>> clusterNodes;
+        private final Map<String, URI> effectiveAuthURIs;
+        private final Map<String, Map<String, ClusterNodeInformation>> nodeClusters;
+        private final Map<String, Map<Object, Connection>> nodeConnections;
+        private final Map<EJBModuleIdentifier, Set<String>> moduleNodes;
+        private final Set<String> copiedClusters = new HashSet<>();
+        private final Set<String> copiedNodes = new HashSet<>();
+        private final Set<ClusterNodeInformation> copiedMappings = new HashSet<>();
+        private final Set<String> copiedConnections = new HashSet<>();
+        private final Set<EJBModuleIdentifier> copiedModules = new HashSet<>();
+        // the destinations of each node whose service URLs must be rebuilt; the rest are shared with the base snapshot
+        private final Map<String, Set<URI>> changedDestinations = new HashMap<>();
+        private final Set<EJBModuleIdentifier> changedModules = new HashSet<>();
+        private boolean clustersChanged;
+        private boolean connectionsChanged;
+
+        Builder(final TopologySnapshot base) {
+            this.base = base;
+            clusterNodes = new HashMap<>(base.clusterNodes);
+            effectiveAuthURIs = new HashMap<>(base.effectiveAuthURIs);
+            nodeClusters = new HashMap<>(base.nodeClusters);
+            nodeConnections = new HashMap<>(base.nodeConnections);
+            moduleNodes = new HashMap<>(base.moduleNodes);
+        }
+
+        /**
+         * Get the current members of a cluster, including the changes made by this builder so far.
+         *
+         * @param clusterName the cluster name
+         * @return the member node names (not {@code null})
+         */
+        Set<String> getClusterNodes(final String clusterName) {
+            return clusterNodes.getOrDefault(clusterName, Collections.emptySet());
+        }
+
+        Builder addNode(final String clusterName, final String nodeName, final URI registeredBy) {
+            if (registeredBy != null && effectiveAuthURIs.putIfAbsent(clusterName, registeredBy) == null) {
+                clustersChanged = true;
+            }
+            final Set<String> nodes = clusterNodes.get(clusterName);
+            if (nodes == null || ! nodes.contains(nodeName)) {
+                getMutableNodes(clusterName).add(nodeName);
+                clustersChanged = true;
+            }
+            return this;
+        }
+
+        Builder addMapping(final String clusterName, final String nodeName, final String protocol, final CidrAddress block, final InetSocketAddress destination) {
+            final ClusterNodeInformation existing = nodeClusters.getOrDefault(nodeName, Collections.emptyMap()).get(clusterName);
+            if (existing != null && existing.hasMapping(protocol, block, destination)) {
+                return this;
+            }
+            clustersChanged = true;
+            if (existing != null) {
+                // a replaced mapping no longer leads to its old destination
+                final InetSocketAddress replaced = existing.getMapping(protocol, block);
+                if (replaced != null) {
+                    destinationChanged(nodeName, NodeInformation.getClusterURI(protocol, replaced));
+                }
+            }
+            destinationChanged(nodeName, NodeInformation.getClusterURI(protocol, destination));
+            final Map<String, ClusterNodeInformation> clusters = getMutableClusters(nodeName);
+            ClusterNodeInformation information = clusters.get(clusterName);
+            if (information == null || ! copiedMappings.contains(information)) {
+                information = information == null ? new ClusterNodeInformation() : new ClusterNodeInformation(information);
+                copiedMappings.add(information);
+                clusters.put(clusterName, information);
+            }
+            information.getAddressTablesByProtocol().computeIfAbsent(protocol, ignored -> new CidrAddressTable<>()).put(block, destination);
+            return this;
+        }
+
+        Builder removeNode(final String clusterName, final String nodeName) {
+            final Set<String> nodes = clusterNodes.get(clusterName);
+            if (nodes != null && nodes.contains(nodeName)) {
+                getMutableNodes(clusterName).remove(nodeName);
+                clustersChanged = true;
+            }
+            removeMappings(clusterName, nodeName);
+            return this;
+        }
+
+        Builder removeCluster(final String clusterName) {
+            if (clusterNodes.remove(clusterName) != null) {
+                clustersChanged = true;
+            }
+            copiedClusters.remove(clusterName);
+            effectiveAuthURIs.remove(clusterName);
+            for (String nodeName : nodeClusters.keySet()) {
+                removeMappings(clusterName, nodeName);
+            }
+            return this;
+        }
+
+        private void removeMappings(final String clusterName, final String nodeName) {
+            final Map<String, ClusterNodeInformation> clusters = nodeClusters.get(nodeName);
+            if (clusters != null && clusters.containsKey(clusterName)) {
+                final ClusterNodeInformation removed = getMutableClusters(nodeName).remove(clusterName);
+                clustersChanged = true;
+                removed.addDestinations(getChangedDestinations(nodeName));
+            }
+        }
+
+        /**
+         * Record a connection to a node, over which it has not yet reported any modules.
+         *
+         * @param nodeName the node name
+         * @param connection the key of the connection, compared by identity
+         * @param destination the peer URI of the connection
+         */
+        Builder addConnection(final String nodeName, final Object connection, final URI destination) {
+            if (! nodeConnections.getOrDefault(nodeName, Collections.emptyMap()).containsKey(connection)) {
+                getMutableConnections(nodeName).put(connection, new Connection(destination, Collections.emptySet()));
+                connectionsChanged = true;
+                destinationChanged(nodeName, destination);
+            }
+            return this;
+        }
+
+        Builder removeConnection(final String nodeName, final Object connection) {
+            if (nodeConnections.getOrDefault(nodeName, Collections.emptyMap()).containsKey(connection)) {
+                final Connection removed = getMutableConnections(nodeName).remove(connection);
+                for (EJBModuleIdentifier moduleIdentifier : removed.getModules()) {
+                    unindexModule(nodeName, moduleIdentifier);
+                }
+                connectionsChanged = true;
+                destinationChanged(nodeName, removed.getDestination());
+            }
+            return this;
+        }
+
+        Builder addModules(final String nodeName, final Object connection, final URI destination, final Collection<EJBModuleIdentifier> moduleIdentifiers) {
+            final Connection existing = nodeConnections.getOrDefault(nodeName, Collections.emptyMap()).get(connection);
+            final Set<EJBModuleIdentifier> modules = existing == null ? new HashSet<>() : new HashSet<>(existing.getModules());
+            if (! modules.addAll(moduleIdentifiers) && existing != null) {
+                return this;
+            }
+            getMutableConnections(nodeName).put(connection, new Connection(destination, Collections.unmodifiableSet(modules)));
+            for (EJBModuleIdentifier moduleIdentifier : moduleIdentifiers) {
+                if (existing == null || ! existing.getModules().contains(moduleIdentifier)) {
+                    getMutableModuleNodes(moduleIdentifier).add(nodeName);
+                    changedModules.add(moduleIdentifier);
+                }
+            }
+            if (existing == null) {
+                connectionsChanged = true;
+            }
+            destinationChanged(nodeName, destination);
+            return this;
+        }
+
+        Builder removeModules(final String nodeName, final Object connection, final Collection<EJBModuleIdentifier> moduleIdentifiers) {
+            final Connection existing = nodeConnections.getOrDefault(nodeName, Collections.emptyMap()).get(connection);
+            if (existing == null) {
+                return this;
+            }
+            final Set<EJBModuleIdentifier> modules = new HashSet<>(existing.getModules());
+            if (! modules.removeAll(moduleIdentifiers)) {
+                return this;
+            }
+            getMutableConnections(nodeName).put(connection, new Connection(existing.getDestination(), Collections.unmodifiableSet(modules)));
+            for (EJBModuleIdentifier moduleIdentifier : moduleIdentifiers) {
+                if (existing.getModules().contains(moduleIdentifier)) {
+                    unindexModule(nodeName, moduleIdentifier);
+                }
+            }
+            destinationChanged(nodeName, existing.getDestination());
+            return this;
+        }
+
+        private void unindexModule(final String nodeName, final EJBModuleIdentifier moduleIdentifier) {
+            changedModules.add(moduleIdentifier);
+            // another connection to the node may still report the module
+            for (Connection connection : nodeConnections.getOrDefault(nodeName, Collections.emptyMap()).values()) {
+                if (connection.getModules().contains(moduleIdentifier)) {
+                    return;
+                }
+            }
+            final Set<String> nodes = moduleNodes.get(moduleIdentifier);
+            if (nodes != null && nodes.contains(nodeName)) {
+                getMutableModuleNodes(moduleIdentifier).remove(nodeName);
+            }
+        }
+
+        private Set<URI> getChangedDestinations(final String nodeName) {
+            return changedDestinations.computeIfAbsent(nodeName, ignored -> new HashSet<>());
+        }
+
+        private void destinationChanged(final String nodeName, final URI destination) {
+            if (destination != null) {
+                getChangedDestinations(nodeName).add(destination);
+            }
+        }
+
+        private Map<String, ClusterNodeInformation> getMutableClusters(final String nodeName) {
+            // likewise copy each node's cluster map at most once per update
+            if (copiedNodes.add(nodeName)) {
+                final Map<String, ClusterNodeInformation> existing = nodeClusters.get(nodeName);
+                final Map<String, ClusterNodeInformation> copy = existing == null ? new HashMap<>() : new HashMap<>(existing);
+                nodeClusters.put(nodeName, copy);
+                return copy;
+            }
+            return nodeClusters.get(nodeName);
+        }
+
+        private Set<String> getMutableNodes(final String clusterName) {
+            // copy each cluster's member set at most once per update
+            if (copiedClusters.add(clusterName)) {
+                final Set<String> existing = clusterNodes.get(clusterName);
+                final Set<String> copy = existing == null ? new HashSet<>() : new HashSet<>(existing);
+                clusterNodes.put(clusterName, copy);
+                return copy;
+            }
+            return clusterNodes.get(clusterName);
+        }
+
+        private Map<Object, Connection> getMutableConnections(final String nodeName) {
+            if (copiedConnections.add(nodeName)) {
+                final Map<Object, Connection> existing = nodeConnections.get(nodeName);
+                final Map<Object, Connection> copy = existing == null ? new HashMap<>() : new HashMap<>(existing);
+                nodeConnections.put(nodeName, copy);
+                return copy;
+            }
+            return nodeConnections.get(nodeName);
+        }
+
+        private Set<String> getMutableModuleNodes(final EJBModuleIdentifier moduleIdentifier) {
+            if (copiedModules.add(moduleIdentifier)) {
+                final Set<String> existing = moduleNodes.get(moduleIdentifier);
+                final Set<String> copy = existing == null ? new HashSet<>() : new HashSet<>(existing);
+                moduleNodes.put(moduleIdentifier, copy);
+                return copy;
+            }
+            return moduleNodes.get(moduleIdentifier);
+        }
+
+        /**
+         * Determine whether anything has been changed by this builder.
+         */
+        boolean isChanged() {
+            return clustersChanged || connectionsChanged || ! changedModules.isEmpty();
+        }
+
+        /**
+         * Determine whether the cluster membership or the client mappings have been changed by this builder.
+         */
+        boolean isClustersChanged() {
+            return clustersChanged;
+        }
+
+        /**
+         * Determine whether a connection has been added or removed by this builder.
+         */
+        boolean isConnectionsChanged() {
+            return connectionsChanged;
+        }
+
+        /**
+         * Get the modules whose availability on some node has been changed by this builder.
+         */
+        Set<EJBModuleIdentifier> getChangedModules() {
+            return changedModules;
+        }
+
+        TopologySnapshot build() {
+            final Map<String, Set<String>> clusterNodes = new HashMap<>(this.clusterNodes.size());
+            for (Map.Entry<String, Set<String>> entry : this.clusterNodes.entrySet()) {
+                clusterNodes.put(entry.getKey(), copiedClusters.contains(entry.getKey()) ? Collections.unmodifiableSet(entry.getValue()) : entry.getValue());
+            }
+            final Map<String, Map<String, ClusterNodeInformation>> nodeClusters = new HashMap<>(this.nodeClusters.size());
+            for (Map.Entry<String, Map<String, ClusterNodeInformation>> entry : this.nodeClusters.entrySet()) {
+                if (! copiedNodes.contains(entry.getKey())) {
+                    nodeClusters.put(entry.getKey(), entry.getValue());
+                } else if (! entry.getValue().isEmpty()) {
+                    nodeClusters.put(entry.getKey(), Collections.unmodifiableMap(entry.getValue()));
+                }
+            }
+            final Map<String, Map<Object, Connection>> nodeConnections = new HashMap<>(this.nodeConnections.size());
+            for (Map.Entry<String, Map<Object, Connection>> entry : this.nodeConnections.entrySet()) {
+                if (! copiedConnections.contains(entry.getKey())) {
+                    nodeConnections.put(entry.getKey(), entry.getValue());
+                } else if (! entry.getValue().isEmpty()) {
+                    nodeConnections.put(entry.getKey(), Collections.unmodifiableMap(entry.getValue()));
+                }
+            }
+            final Map<EJBModuleIdentifier, Set<String>> moduleNodes = new HashMap<>(this.moduleNodes.size());
+            for (Map.Entry<EJBModuleIdentifier, Set<String>> entry : this.moduleNodes.entrySet()) {
+                if (! copiedModules.contains(entry.getKey())) {
+                    moduleNodes.put(entry.getKey(), entry.getValue());
+                } else if (! entry.getValue().isEmpty()) {
+                    moduleNodes.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
+                }
+            }
+            // only rebuild the service URLs of the destinations which were affected by this update
+            final Map<String, Map<URI, List<ServiceURL>>> nodeServiceURLs = new HashMap<>(base.nodeServiceURLs);
+            for (Map.Entry<String, Set<URI>> entry : changedDestinations.entrySet()) {
+                final String nodeName = entry.getKey();
+                final Map<String, ClusterNodeInformation> clusters = nodeClusters.getOrDefault(nodeName, Collections.emptyMap());
+                final Collection<Connection> connections = nodeConnections.getOrDefault(nodeName, Collections.emptyMap()).values();
+                final AttributeValue nodeNameValue = AttributeValue.fromString(nodeName);
+                final Map<URI, List<ServiceURL>> serviceURLs = new HashMap<>(base.getServiceURLs(nodeName));
+                for (URI destination : entry.getValue()) {
+                    final List<ServiceURL> list = NodeInformation.createServiceURLs(nodeNameValue, destination, clusters, connections);
+                    if (list == null) {
+                        serviceURLs.remove(destination);
+                    } else {
+                        serviceURLs.put(destination, list);
+                    }
+                }
+                if (serviceURLs.isEmpty()) {
+                    nodeServiceURLs.remove(nodeName);
+                } else {
+                    nodeServiceURLs.put(nodeName, Collections.unmodifiableMap(serviceURLs));
+                }
+            }
+            return new TopologySnapshot(base.version + 1, Collections.unmodifiableMap(clusterNodes), Collections.unmodifiableMap(new HashMap<>(effectiveAuthURIs)), Collections.unmodifiableMap(nodeClusters), Collections.unmodifiableMap(nodeConnections), Collections.unmodifiableMap(moduleNodes), Collections.unmodifiableMap(nodeServiceURLs));
+        }
+    }
+}
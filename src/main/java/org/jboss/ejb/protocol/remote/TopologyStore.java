@@ -0,0 +1,288 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.protocol.remote;
+
+import static java.security.AccessController.doPrivileged;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.jboss.ejb._private.Logs;
+import org.jboss.remoting3.Endpoint;
+import org.wildfly.common.net.CidrAddress;
+import org.wildfly.common.net.CidrAddressTable;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioWorker;
+
+/**
+ * An optional on-disk copy of the cluster topology, so that a restarted client can route to and connect to cluster
+ * nodes before the configured connections have reported the topology again.  Loaded nodes are marked provisional
+ * until a live channel confirms them; only confirmed nodes are saved, so a node which has left the cluster is
+ * forgotten after one run.  Module availability is not stored, because it is only meaningful for a live channel.
+ * Only one store at a time saves to a given file; the stores of other client contexts only load it.
+ */
+final class TopologyStore {
+    static final String FILE = doPrivileged((PrivilegedAction<String>) () -> System.getProperty("org.jboss.ejb.client.discovery.topology-file"));
+    static final long SAVE_INTERVAL = doPrivileged((PrivilegedAction<Long>) () -> Long.valueOf(System.getProperty("org.jboss.ejb.client.discovery.topology-save-interval", "60000"))).longValue();
+
+    private static final int FORMAT_VERSION = 1;
+
+    // the files which a started store is saving to; any other store of the same file only loads it
+    private static final Set<Path> SAVING = ConcurrentHashMap.newKeySet();
+
+    private final DiscoveredNodeRegistry discoveryProvider;
+    private final Path path;
+    private final Thread shutdownHook = new Thread(this::stop, "EJB client topology store");
+    // guarded by this
+    private long savedVersion = -1L;
+    private boolean saving;
+    private boolean stopped;
+    private XnioExecutor.Key saveKey;
+
+    TopologyStore(final DiscoveredNodeRegistry discoveryProvider, final Path path) {
+        this.discoveryProvider = discoveryProvider;
+        this.path = path.toAbsolutePath();
+    }
+
+    static TopologyStore create(final DiscoveredNodeRegistry discoveryProvider) {
+        return FILE == null ? null : new TopologyStore(discoveryProvider, Paths.get(FILE));
+    }
+
+    /**
+     * Load the stored topology and, unless another store is already saving to the same file, save it periodically
+     * and when the endpoint is closed or the JVM exits.
+     *
+     * @param endpoint the endpoint whose worker runs the periodic saves
+     */
+    void start(final Endpoint endpoint) {
+        doPrivileged((PrivilegedAction<Void>) () -> {
+            load();
+            synchronized (this) {
+                saving = SAVING.add(path);
+                if (saving) {
+                    Runtime.getRuntime().addShutdownHook(shutdownHook);
+                }
+            }
+            return null;
+        });
+        if (saving) {
+            endpoint.addCloseHandler((closed, e) -> stop());
+            scheduleSave(endpoint);
+        }
+    }
+
+    /**
+     * Stop saving, after saving the topology one last time.
+     */
+    void stop() {
+        synchronized (this) {
+            if (! saving || stopped) {
+                return;
+            }
+            stopped = true;
+            if (saveKey != null) {
+                saveKey.remove();
+                saveKey = null;
+            }
+            doPrivileged((PrivilegedAction<Void>) () -> {
+                if (Thread.currentThread() != shutdownHook) {
+                    try {
+                        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                    } catch (IllegalStateException ignored) {
+                        // already shutting down
+                    }
+                }
+                save();
+                return null;
+            });
+        }
+        SAVING.remove(path);
+    }
+
+    private synchronized void scheduleSave(final Endpoint endpoint) {
+        if (SAVE_INTERVAL <= 0L || stopped) {
+            return;
+        }
+        final XnioWorker worker = endpoint.getXnioWorker();
+        saveKey = worker.getIoThread().executeAfter(() -> worker.execute(() -> {
+            doPrivileged((PrivilegedAction<Void>) () -> {
+                save();
+                return null;
+            });
+            scheduleSave(endpoint);
+        }), SAVE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    void load() {
+        final List<String[]> members = new ArrayList<>();
+        final List<Consumer<TopologySnapshot.Builder>> mappings = new ArrayList<>();
+        final Map<String, URI> effectiveAuthURIs = new HashMap<>();
+        try (InputStream is = Files.newInputStream(path)) {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            int clusterCount = in.readInt();
+            for (int i = 0; i < clusterCount; i ++) {
+                final String clusterName = in.readUTF();
+                if (in.readBoolean()) {
+                    effectiveAuthURIs.put(clusterName, new URI(in.readUTF()));
+                }
+            }
+            int nodeCount = in.readInt();
+            for (int i = 0; i < nodeCount; i ++) {
+                final NodeInformation nodeInformation = discoveryProvider.getNodeInformation(in.readUTF());
+                final String nodeName = nodeInformation.getNodeName();
+                nodeInformation.setProvisional(true);
+                int nodeClusterCount = in.readInt();
+                for (int j = 0; j < nodeClusterCount; j ++) {
+                    final String clusterName = in.readUTF();
+                    members.add(new String[] { clusterName, nodeName });
+                    int protocolCount = in.readInt();
+                    for (int k = 0; k < protocolCount; k ++) {
+                        final String protocol = in.readUTF();
+                        int mappingCount = in.readInt();
+                        for (int l = 0; l < mappingCount; l ++) {
+                            final byte[] address = new byte[in.readUnsignedByte()];
+                            in.readFully(address);
+                            final CidrAddress block = CidrAddress.create(address, in.readUnsignedByte());
+                            final InetSocketAddress destination = new InetSocketAddress(in.readUTF(), in.readUnsignedShort());
+                            mappings.add(builder -> builder.addMapping(clusterName, nodeName, protocol, block, destination));
+                        }
+                    }
+                }
+            }
+        } catch (NoSuchFileException ignored) {
+            return;
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            Logs.INVOCATION.topologyLoadFailed(path, e);
+            return;
+        }
+        Logs.INVOCATION.debugf("Loaded provisional cluster topology of %d cluster memberships from %s", Integer.valueOf(members.size()), path);
+        discoveryProvider.updateTopology(builder -> {
+            for (String[] member : members) {
+                builder.addNode(member[0], member[1], effectiveAuthURIs.get(member[0]));
+            }
+            for (Consumer<TopologySnapshot.Builder> mapping : mappings) {
+                mapping.accept(builder);
+            }
+        });
+    }
+
+    synchronized void save() {
+        final TopologySnapshot topology = discoveryProvider.getTopology();
+        if (topology.getVersion() == savedVersion) {
+            return;
+        }
+        final List<NodeInformation> confirmed = new ArrayList<>();
+        for (NodeInformation nodeInformation : discoveryProvider.getAllNodeInformation()) {
+            if (! nodeInformation.isProvisional() && ! topology.getNodeClusters(nodeInformation.getNodeName()).isEmpty()) {
+                confirmed.add(nodeInformation);
+            }
+        }
+        if (confirmed.isEmpty()) {
+            // nothing has been confirmed yet; keep what we had
+            return;
+        }
+        Path temp = null;
+        try {
+            // a file of our own, so that another process saving the same topology cannot interleave with this one
+            temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            try (OutputStream os = Files.newOutputStream(temp)) {
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+                out.writeInt(FORMAT_VERSION);
+                final Map<String, Set<String>> clusterNodes = topology.getClusterNodes();
+                out.writeInt(clusterNodes.size());
+                for (String clusterName : clusterNodes.keySet()) {
+                    out.writeUTF(clusterName);
+                    final URI effectiveAuthURI = topology.getEffectiveAuthURI(clusterName);
+                    out.writeBoolean(effectiveAuthURI != null);
+                    if (effectiveAuthURI != null) {
+                        out.writeUTF(effectiveAuthURI.toString());
+                    }
+                }
+                out.writeInt(confirmed.size());
+                for (NodeInformation nodeInformation : confirmed) {
+                    out.writeUTF(nodeInformation.getNodeName());
+                    writeClusters(out, topology.getNodeClusters(nodeInformation.getNodeName()));
+                }
+                out.flush();
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            savedVersion = topology.getVersion();
+        } catch (IOException e) {
+            Logs.INVOCATION.topologySaveFailed(path, e);
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static void writeClusters(final DataOutputStream out, final Map<String, NodeInformation.ClusterNodeInformation> clusters) throws IOException {
+        // the address tables of a published snapshot are never modified
+        out.writeInt(clusters.size());
+        for (Map.Entry<String, NodeInformation.ClusterNodeInformation> entry : clusters.entrySet()) {
+            out.writeUTF(entry.getKey());
+            final Map<String, CidrAddressTable<InetSocketAddress>> tables = entry.getValue().getAddressTablesByProtocol();
+            out.writeInt(tables.size());
+            for (Map.Entry<String, CidrAddressTable<InetSocketAddress>> tableEntry : tables.entrySet()) {
+                out.writeUTF(tableEntry.getKey());
+                final List<CidrAddressTable.Mapping<InetSocketAddress>> mappings = new ArrayList<>();
+                for (CidrAddressTable.Mapping<InetSocketAddress> mapping : tableEntry.getValue()) {
+                    mappings.add(mapping);
+                }
+                out.writeInt(mappings.size());
+                for (CidrAddressTable.Mapping<InetSocketAddress> mapping : mappings) {
+                    final byte[] address = mapping.getRange().getNetworkAddress().getAddress();
+                    out.writeByte(address.length);
+                    out.write(address);
+                    out.writeByte(mapping.getRange().getNetmaskBits());
+                    final InetSocketAddress destination = mapping.getValue();
+                    out.writeUTF(destination.getHostString());
+                    out.writeShort(destination.getPort());
+                }
+            }
+        }
+    }
+}
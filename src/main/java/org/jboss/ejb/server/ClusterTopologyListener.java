@@ -57,10 +57,16 @@ public interface ClusterTopologyListener {
     final class NodeInfo {
         private final String nodeName;
         private final List<MappingInfo> mappingInfoList;
+        private final String zone;
 
         public NodeInfo(final String nodeName, final List<MappingInfo> mappingInfoList) {
+            this(nodeName, mappingInfoList, null);
+        }
+
+        public NodeInfo(final String nodeName, final List<MappingInfo> mappingInfoList, final String zone) {
             this.nodeName = nodeName;
             this.mappingInfoList = mappingInfoList;
+            this.zone = zone;
         }
 
         public String getNodeName() {
@@ -70,6 +76,15 @@ public interface ClusterTopologyListener {
         public List<MappingInfo> getMappingInfoList() {
             return mappingInfoList;
         }
+
+        /**
+         * Get the locality zone (for example the availability zone or rack) of the node, if any.
+         *
+         * @return the zone name, or {@code null} if the node has no zone
+         */
+        public String getZone() {
+            return zone;
+        }
     }
 
     final class MappingInfo {
@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.server;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.ejb.client.EJBMethodLocator;
+import org.wildfly.common.Assert;
+
+/**
+ * Resolves EJB method locators to the public methods of a view class.  The methods of each view class are indexed
+ * once, on first use, and the index is attached to the class itself, so it is shared by every channel and
+ * association and goes away with the class loader of the view.
+ */
+public final class EJBMethodResolver {
+
+    private static final ClassValue<Map<EJBMethodLocator, Method>> METHODS = new ClassValue<Map<EJBMethodLocator, Method>>() {
+        protected Map<EJBMethodLocator, Method> computeValue(final Class<?> type) {
+            final Method[] methods = type.getMethods();
+            final Map<EJBMethodLocator, Method> map = new HashMap<>(methods.length);
+            for (Method method : methods) {
+                // the first match wins, as with a linear search of the methods
+                map.putIfAbsent(EJBMethodLocator.forMethod(method), method);
+            }
+            return Collections.unmodifiableMap(map);
+        }
+    };
+
+    private EJBMethodResolver() {
+    }
+
+    /**
+     * Find the public method of a view class which matches a method locator.
+     *
+     * @param viewType the view class (must not be {@code null})
+     * @param methodLocator the method locator (must not be {@code null})
+     * @return the method, or {@code null} if the view class has no matching method
+     */
+    public static Method findMethod(Class<?> viewType, EJBMethodLocator methodLocator) {
+        Assert.checkNotNullParam("viewType", viewType);
+        Assert.checkNotNullParam("methodLocator", methodLocator);
+        return METHODS.get(viewType).get(methodLocator);
+    }
+}
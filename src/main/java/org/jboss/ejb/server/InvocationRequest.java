@@ -19,6 +19,7 @@
 package org.jboss.ejb.server;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.util.Map;
 
 import javax.transaction.SystemException;
@@ -54,6 +55,18 @@ public interface InvocationRequest extends Request {
     @NotNull
     EJBMethodLocator getMethodLocator();
 
+    /**
+     * Get the method of the given view class which is being invoked.  The result is cached per view class and shared
+     * by all requests.
+     *
+     * @param viewType the view class, normally that of the resolved {@linkplain Resolved#getEJBLocator() EJB locator} (must not be {@code null})
+     * @return the invoked method, or {@code null} if the view class has no method matching the method locator
+     * @see EJBMethodResolver
+     */
+    default Method getMethod(Class<?> viewType) {
+        return EJBMethodResolver.findMethod(viewType, getMethodLocator());
+    }
+
     /**
      * Write a message indicating that the method is not found on the EJB.  The request should be abandoned after
      * invoking this method.
@@ -24,6 +24,7 @@ import java.util.concurrent.Executor;
 import org.jboss.ejb.client.Affinity;
 import org.jboss.ejb.client.EJBIdentifier;
 import org.jboss.ejb.client.SessionID;
+import org.jboss.ejb.client.annotation.InvocationPriority;
 import org.wildfly.common.Assert;
 import org.wildfly.common.annotation.NotNull;
 import org.wildfly.security.auth.server.SecurityIdentity;
@@ -43,6 +44,16 @@ public interface Request {
      */
     Executor getRequestExecutor();
 
+    /**
+     * Get the priority of the request.  Higher priority requests are taken first by the
+     * {@linkplain #getRequestExecutor() request executor} when the transport is busy.
+     *
+     * @return the priority of the request, as defined by {@link InvocationPriority}
+     */
+    default int getPriority() {
+        return InvocationPriority.NORMAL;
+    }
+
     /**
      * Get the peer address that the request was received from, if known.
      *
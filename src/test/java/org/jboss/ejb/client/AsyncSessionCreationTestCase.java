@@ -0,0 +1,163 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.ejb.client;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.wildfly.security.auth.client.AuthenticationContext;
+
+/**
+ * Tests that {@link EJBClientContext#createSessionAsync} completes from the receiver's outcome instead of waiting for
+ * it, and retries failed attempts the way a blocking session creation does.
+ */
+public class AsyncSessionCreationTestCase {
+
+    private static final URI NODE1 = URI.create("test://node1");
+    private static final URI NODE2 = URI.create("test://node2");
+
+    private final Queue<URI> destinations = new ArrayDeque<>();
+    private final List<URI> requested = new ArrayList<>();
+    private final List<CompletableFuture<SessionID>> pending = new ArrayList<>();
+    private EJBClientContext clientContext;
+    private StatelessEJBLocator<SimpleInterface> locator;
+
+    @Before
+    public void setUp() {
+        final EJBReceiver receiver = new EJBReceiver() {
+            protected void processInvocation(final EJBReceiverInvocationContext receiverContext) {
+                throw new UnsupportedOperationException();
+            }
+
+            protected SessionID createSession(final EJBReceiverSessionCreationContext receiverContext) {
+                throw new UnsupportedOperationException();
+            }
+
+            protected CompletionStage<SessionID> createSessionAsync(final EJBReceiverSessionCreationContext receiverContext) {
+                requested.add(receiverContext.getClientInvocationContext().getDestination());
+                final CompletableFuture<SessionID> future = new CompletableFuture<>();
+                pending.add(future);
+                return future;
+            }
+        };
+        clientContext = new EJBClientContext.Builder()
+            .addTransportProvider(new EJBTransportProvider() {
+                public boolean supportsProtocol(final String uriScheme) {
+                    return uriScheme.equals("test");
+                }
+
+                public EJBReceiver getReceiver(final EJBReceiverContext receiverContext, final String uriScheme) {
+                    return receiver;
+                }
+            })
+            .addInterceptor(new EJBClientInterceptor() {
+                public void handleInvocation(final EJBClientInvocationContext context) throws Exception {
+                    context.sendRequest();
+                }
+
+                public Object handleInvocationResult(final EJBClientInvocationContext context) throws Exception {
+                    return context.getResult();
+                }
+
+                public SessionID handleSessionCreation(final EJBSessionCreationInvocationContext context) throws Exception {
+                    if (context.getDestination() == null) {
+                        context.setDestination(destinations.poll());
+                    }
+                    return context.proceed();
+                }
+            })
+            .build();
+        locator = new StatelessEJBLocator<>(SimpleInterface.class, "app", "module", "bean");
+    }
+
+    private CompletableFuture<StatefulEJBLocator<SimpleInterface>> createSessionAsync() {
+        final EJBSessionCreationInvocationContext context = clientContext.createSessionCreationInvocationContext(locator, AuthenticationContext.empty());
+        return clientContext.createSessionAsync(context, locator, null, Runnable::run);
+    }
+
+    @Test
+    public void testCompletesFromReceiver() throws Exception {
+        destinations.add(NODE1);
+        final CompletableFuture<StatefulEJBLocator<SimpleInterface>> future = createSessionAsync();
+        // the attempt has been handed to the receiver, and nothing waits for it
+        Assert.assertEquals(Arrays.asList(NODE1), requested);
+        Assert.assertFalse(future.isDone());
+        final SessionID sessionID = new UUIDSessionID(UUID.randomUUID());
+        pending.get(0).complete(sessionID);
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals(sessionID, future.get().getSessionId());
+    }
+
+    @Test
+    public void testFailedAttemptIsRetriedElsewhere() throws Exception {
+        destinations.add(NODE1);
+        destinations.add(NODE2);
+        final CompletableFuture<StatefulEJBLocator<SimpleInterface>> future = createSessionAsync();
+        pending.get(0).completeExceptionally(new RequestSendFailedException("node1 failed", true));
+        Assert.assertFalse(future.isDone());
+        Assert.assertEquals(Arrays.asList(NODE1, NODE2), requested);
+        final SessionID sessionID = new UUIDSessionID(UUID.randomUUID());
+        pending.get(1).complete(sessionID);
+        Assert.assertEquals(sessionID, future.get().getSessionId());
+    }
+
+    @Test
+    public void testNonRetryableFailureIsReported() throws Exception {
+        destinations.add(NODE1);
+        destinations.add(NODE2);
+        final CompletableFuture<StatefulEJBLocator<SimpleInterface>> future = createSessionAsync();
+        final RequestSendFailedException failure = new RequestSendFailedException("node1 failed", false);
+        pending.get(0).completeExceptionally(failure);
+        Assert.assertEquals(Arrays.asList(NODE1), requested);
+        try {
+            future.get();
+            Assert.fail("Expected the session creation to fail");
+        } catch (ExecutionException e) {
+            Assert.assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void testRetriesAreLimited() throws Exception {
+        destinations.add(NODE1);
+        final CompletableFuture<StatefulEJBLocator<SimpleInterface>> future = createSessionAsync();
+        for (int i = 2; ! future.isDone(); i ++) {
+            Assert.assertTrue("Too many attempts", i < 100);
+            destinations.add(URI.create("test://node" + i));
+            pending.get(pending.size() - 1).completeExceptionally(new RequestSendFailedException("failed", true));
+        }
+        try {
+            future.get();
+            Assert.fail("Expected the session creation to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RequestSendFailedException);
+        }
+        Assert.assertEquals(8, requested.size());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.ejb.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the latency tracking of {@link NodeStatistics} which the peak-EWMA selectors rely on.
+ */
+public class NodeStatisticsTestCase {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1L);
+    private static final long MINUTES = TimeUnit.MINUTES.toNanos(1L);
+
+    @Test
+    public void testPeakIsTakenAtOnce() {
+        final NodeStatistics.Latency latency = new NodeStatistics.Latency();
+        final long now = System.nanoTime();
+        latency.requestStarted();
+        latency.requestFinished(MILLIS, false, now);
+        latency.requestStarted();
+        latency.requestFinished(1000 * MILLIS, false, now);
+        Assert.assertEquals(1000 * MILLIS, latency.getEstimate(now));
+    }
+
+    @Test
+    public void testPeakDecaysWithoutSamples() {
+        final NodeStatistics.Latency latency = new NodeStatistics.Latency();
+        final long now = System.nanoTime();
+        latency.recordRoundTrip(MILLIS);
+        latency.requestStarted();
+        latency.requestFinished(1000 * MILLIS, false, now);
+        final long later = latency.getEstimate(now + 2 * MINUTES);
+        Assert.assertTrue("Estimate did not decay: " + later, later < 2 * MILLIS);
+        Assert.assertTrue("Estimate decayed below the round trip: " + later, later >= MILLIS);
+    }
+
+    @Test
+    public void testFastFailureIsPenalised() {
+        final NodeStatistics.Latency latency = new NodeStatistics.Latency();
+        final long now = System.nanoTime();
+        latency.requestStarted();
+        latency.requestFinished(MILLIS, false, now);
+        latency.requestStarted();
+        latency.requestFinished(1000, true, now);
+        Assert.assertTrue(latency.getEstimate(now) >= 1000 * MILLIS);
+    }
+
+    @Test
+    public void testSpikedNodeIsChosenAgainAfterDecay() {
+        final NodeStatistics statistics = new NodeStatistics();
+        final String[] nodes = { "fast", "spiked" };
+        statistics.recordRoundTrip("fast", MILLIS);
+        statistics.recordRoundTrip("spiked", MILLIS);
+        statistics.requestStarted("fast");
+        statistics.requestFinished("fast", 2 * MILLIS, false);
+        statistics.requestStarted("spiked");
+        statistics.requestFinished("spiked", 1000 * MILLIS, false);
+        // keep the fast node busy, so that it only wins while the spike is recent
+        statistics.requestStarted("fast");
+        final long now = System.nanoTime();
+        for (int i = 0; i < 20; i ++) {
+            Assert.assertEquals("fast", statistics.selectByLatency(nodes, now));
+        }
+        for (int i = 0; i < 20; i ++) {
+            Assert.assertEquals("spiked", statistics.selectByLatency(nodes, now + 2 * MINUTES));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.ejb.client;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that {@link RendezvousHashing} only moves the keys of a node which joins or leaves.
+ */
+public class RendezvousHashingTestCase {
+
+    private static final int KEYS = 10000;
+
+    @Test
+    public void testSelectionIgnoresNodeOrder() {
+        final String[] nodes = { "node1", "node2", "node3", "node4" };
+        final String[] reversed = { "node4", "node3", "node2", "node1" };
+        for (int i = 0; i < KEYS; i ++) {
+            final String key = "key" + i;
+            Assert.assertEquals(RendezvousHashing.select(nodes, key), RendezvousHashing.select(reversed, key));
+        }
+    }
+
+    @Test
+    public void testAddedNodeOnlyTakesKeys() {
+        final String[] before = { "node1", "node2", "node3", "node4" };
+        final String[] after = { "node1", "node2", "node3", "node4", "node5" };
+        int moved = 0;
+        for (int i = 0; i < KEYS; i ++) {
+            final String key = "key" + i;
+            final String oldNode = RendezvousHashing.select(before, key);
+            final String newNode = RendezvousHashing.select(after, key);
+            if (! oldNode.equals(newNode)) {
+                Assert.assertEquals("Key " + key + " moved between existing nodes", "node5", newNode);
+                moved ++;
+            }
+        }
+        // about a fifth of the keys should move to the new node
+        Assert.assertTrue("Moved " + moved + " keys", moved > KEYS / 10 && moved < KEYS * 3 / 10);
+    }
+
+    @Test
+    public void testRemovedNodeOnlyLosesItsKeys() {
+        final String[] before = { "node1", "node2", "node3", "node4" };
+        final String[] after = { "node1", "node2", "node4" };
+        for (int i = 0; i < KEYS; i ++) {
+            final String key = "key" + i;
+            final String oldNode = RendezvousHashing.select(before, key);
+            if (! oldNode.equals("node3")) {
+                Assert.assertEquals("Key " + key + " moved from a remaining node", oldNode, RendezvousHashing.select(after, key));
+            }
+        }
+    }
+
+    @Test
+    public void testKeysAreSpread() {
+        final String[] nodes = { "node1", "node2", "node3", "node4" };
+        final Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i ++) {
+            counts.merge(RendezvousHashing.select(nodes, Integer.valueOf(i)), Integer.valueOf(1), Integer::sum);
+        }
+        for (String node : nodes) {
+            final int count = counts.getOrDefault(node, Integer.valueOf(0)).intValue();
+            Assert.assertTrue(node + " was selected for " + count + " keys", count > KEYS / 8 && count < KEYS * 3 / 8);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.ejb.client;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the zone-aware node selectors prefer local nodes and fall back to the other zones.
+ */
+public class ZoneAwareSelectorTestCase {
+
+    private static final String[] NODES = { "east1", "west1", "east2" };
+
+    private NodeStatistics statistics;
+
+    @Before
+    public void setUp() {
+        statistics = new NodeStatistics();
+        statistics.setZone("east1", "east");
+        statistics.setZone("west1", "west");
+        statistics.setZone("east2", "east");
+    }
+
+    @Test
+    public void testLocalZoneIsPreferred() {
+        final ClusterNodeSelector selector = ClusterNodeSelector.zoneAware("west", 2, ClusterNodeSelector.FIRST_AVAILABLE);
+        Assert.assertEquals("west1", selector.selectNode("cluster", NODES, NODES, statistics));
+        final DeploymentNodeSelector deploymentSelector = DeploymentNodeSelector.zoneAware("west", 2, (eligibleNodes, appName, moduleName, distinctName) -> eligibleNodes[0]);
+        Assert.assertEquals("west1", deploymentSelector.selectNode(NODES, "app", "module", "", statistics));
+    }
+
+    @Test
+    public void testFallbackWhenLocalZoneIsUnavailable() {
+        final String[] remaining = { "east1", "east2" };
+        final ClusterNodeSelector selector = ClusterNodeSelector.zoneAware("west", 2, ClusterNodeSelector.FIRST_AVAILABLE);
+        Assert.assertEquals("east1", selector.selectNode("cluster", remaining, remaining, statistics));
+        final DeploymentNodeSelector deploymentSelector = DeploymentNodeSelector.zoneAware("west", 2, (eligibleNodes, appName, moduleName, distinctName) -> eligibleNodes[0]);
+        Assert.assertEquals("east1", deploymentSelector.selectNode(remaining, "app", "module", "", statistics));
+    }
+
+    @Test
+    public void testFallbackWhenLocalZoneIsOverloaded() {
+        final ClusterNodeSelector selector = ClusterNodeSelector.zoneAware("west", 2, ClusterNodeSelector.FIRST_AVAILABLE);
+        statistics.requestStarted("west1");
+        Assert.assertEquals("west1", selector.selectNode("cluster", NODES, NODES, statistics));
+        statistics.requestStarted("west1");
+        Assert.assertEquals("east1", selector.selectNode("cluster", NODES, NODES, statistics));
+        statistics.requestFinished("west1", 1000L, false);
+        Assert.assertEquals("west1", selector.selectNode("cluster", NODES, NODES, statistics));
+    }
+
+    @Test
+    public void testUnconnectedLocalNodeIsPreferred() {
+        final String[] connected = { "east1", "east2" };
+        final ClusterNodeSelector selector = ClusterNodeSelector.zoneAware("west", 2, ClusterNodeSelector.FIRST_CONNECTED);
+        Assert.assertEquals("west1", selector.selectNode("cluster", connected, NODES, statistics));
+    }
+
+    @Test
+    public void testNodesWithoutZoneAreNotLocal() {
+        final String[] nodes = { "east1", "unknown" };
+        final ClusterNodeSelector selector = ClusterNodeSelector.zoneAware("west", 2, ClusterNodeSelector.FIRST_AVAILABLE);
+        Assert.assertEquals("east1", selector.selectNode("cluster", nodes, nodes, statistics));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.ejb.client.test;
+
+import org.jboss.ejb.client.ClusterAffinity;
+import org.jboss.ejb.client.EJBClient;
+import org.jboss.ejb.client.StatefulEJBLocator;
+import org.jboss.ejb.client.StatelessEJBLocator;
+import org.jboss.ejb.client.legacy.JBossEJBProperties;
+import org.jboss.ejb.client.test.common.DummyServer;
+import org.jboss.ejb.client.test.common.Echo;
+import org.jboss.ejb.client.test.common.EchoBean;
+import org.jboss.ejb.server.ClusterTopologyListener.ClusterInfo;
+import org.jboss.ejb.server.ClusterTopologyListener.NodeInfo;
+import org.jboss.logging.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests that invocations which are turned away with a "server busy" response are retried on another node, and that
+ * invocations which only one node can serve are admitted regardless.
+ */
+public class ServerBusyTestCase {
+
+    private static final Logger logger = Logger.getLogger(ServerBusyTestCase.class);
+    private static final String PROPERTIES_FILE = "clustered-jboss-ejb-client.properties";
+
+    // servers
+    private static final String SERVER1_NAME = "node1";
+    private static final String SERVER2_NAME = "node2";
+
+    private DummyServer[] servers = new DummyServer[2];
+    private static String[] serverNames = {SERVER1_NAME, SERVER2_NAME};
+    private boolean[] serversStarted = new boolean[2];
+
+    // module
+    private static final String APP_NAME = "my-foo-app";
+    private static final String MODULE_NAME = "my-bar-module";
+    private static final String DISTINCT_NAME = "";
+
+    // cluster
+    // note: node names and server names should match!
+    private static final String CLUSTER_NAME = "ejb";
+
+    private static final NodeInfo NODE1 = DummyServer.getNodeInfo(SERVER1_NAME, "localhost", 6999, "0.0.0.0", 0);
+    private static final NodeInfo NODE2 = DummyServer.getNodeInfo(SERVER2_NAME, "localhost", 7099, "0.0.0.0", 0);
+    private static final ClusterInfo CLUSTER = DummyServer.getClusterInfo(CLUSTER_NAME, NODE1, NODE2);
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        // trigger the static init of the correct properties file - this also depends on running in forkMode=always
+        JBossEJBProperties ejbProperties = JBossEJBProperties.fromClassPath(ServerBusyTestCase.class.getClassLoader(), PROPERTIES_FILE);
+        JBossEJBProperties.getContextManager().setGlobalDefault(ejbProperties);
+    }
+
+    @Before
+    public void beforeTest() throws Exception {
+        for (int i = 0; i < servers.length; i++) {
+            servers[i] = new DummyServer("localhost", 6999 + (i * 100), serverNames[i]);
+            servers[i].start();
+            serversStarted[i] = true;
+            logger.info("Started server " + serverNames[i]);
+
+            // each bean answers with the name of its node
+            servers[i].register(APP_NAME, MODULE_NAME, DISTINCT_NAME, Echo.class.getSimpleName(), new EchoBean(serverNames[i]));
+            servers[i].addCluster(CLUSTER);
+        }
+    }
+
+    /**
+     * Test that stateless invocations turned away by a busy node are completed by the other node.
+     */
+    @Test
+    public void testBusyNodeIsAvoided() {
+        final AtomicInteger refused = new AtomicInteger();
+        servers[0].setOverloadSignal(() -> {
+            refused.incrementAndGet();
+            return true;
+        });
+
+        final StatelessEJBLocator<Echo> statelessEJBLocator = new StatelessEJBLocator<Echo>(Echo.class, APP_NAME, MODULE_NAME, Echo.class.getSimpleName(), DISTINCT_NAME);
+        final Echo proxy = EJBClient.createProxy(statelessEJBLocator);
+        EJBClient.setStrongAffinity(proxy, new ClusterAffinity(CLUSTER_NAME));
+
+        // the cluster node selector picks at random, so the busy node is tried at least once
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals("Invocation was served by the busy node", SERVER2_NAME, proxy.whoAreYouNonTX());
+        }
+        Assert.assertTrue("Busy node was never tried", refused.get() > 0);
+    }
+
+    /**
+     * Test that invocations on a stateful session are admitted even when its node is busy, since no other node can
+     * serve them.
+     */
+    @Test
+    public void testAffineInvocationIsAdmitted() throws Exception {
+        final StatelessEJBLocator<Echo> statelessEJBLocator = new StatelessEJBLocator<Echo>(Echo.class, APP_NAME, MODULE_NAME, Echo.class.getSimpleName(), DISTINCT_NAME);
+        final StatefulEJBLocator<Echo> statefulEJBLocator = EJBClient.createSession(statelessEJBLocator);
+        final Echo proxy = EJBClient.createProxy(statefulEJBLocator);
+        EJBClient.setStrongAffinity(proxy, new ClusterAffinity(CLUSTER_NAME));
+        final String node = proxy.whoAreYouNonTX();
+
+        for (DummyServer server : servers) {
+            server.setOverloadSignal(() -> true);
+        }
+        final String message = "hello!";
+        Assert.assertEquals("Got an unexpected echo", message, proxy.echo(message));
+        Assert.assertEquals("Session moved to another node", node, proxy.whoAreYouNonTX());
+    }
+
+    @After
+    public void afterTest() {
+        for (int i = 0; i < servers.length; i++) {
+            if (serversStarted[i]) {
+                try {
+                    servers[i].unregister(APP_NAME, MODULE_NAME, DISTINCT_NAME, Echo.class.getSimpleName());
+                    servers[i].removeCluster(CLUSTER_NAME);
+                    servers[i].stop();
+                    logger.info("Stopped server " + serverNames[i]);
+                } catch (Throwable t) {
+                    logger.info("Could not stop server", t);
+                } finally {
+                    serversStarted[i] = false;
+                }
+            }
+        }
+    }
+}
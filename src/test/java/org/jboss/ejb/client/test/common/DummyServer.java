@@ -56,6 +56,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BooleanSupplier;
 
 /**
  * @author <a href="mailto:cdewolf@redhat.com">Carlo de Wolf</a>
@@ -76,6 +77,7 @@ public class DummyServer {
     private AcceptingChannel<org.xnio.StreamConnection> server;
     private EJBDeploymentRepository deploymentRepository = new EJBDeploymentRepository();
     private EJBClusterRegistry clusterRegistry = new EJBClusterRegistry();
+    private RemoteEJBService remoteEJBService;
 
     public DummyServer(final String host, final int port) {
         this(host, port, "default-dummy-server-endpoint");
@@ -156,7 +158,7 @@ public class DummyServer {
         RemotingTransactionService transactionService = txnServiceBuilder.build();
 
         // setup remote EJB service
-        RemoteEJBService remoteEJBService = RemoteEJBService.create(dummyAssociation,transactionService);
+        remoteEJBService = RemoteEJBService.create(dummyAssociation,transactionService);
         remoteEJBService.serverUp();
 
         // Register an EJB channel open listener
@@ -174,6 +176,11 @@ public class DummyServer {
         IoUtils.safeClose(this.endpoint);
     }
 
+    // load management interface
+    public void setOverloadSignal(final BooleanSupplier overloadSignal) {
+        remoteEJBService.setOverloadSignal(overloadSignal);
+    }
+
     // module deployment interface
     public void register(final String appName, final String moduleName, final String distinctName, final String beanName, final Object instance) {
         deploymentRepository.register(appName, moduleName, distinctName, beanName, instance);
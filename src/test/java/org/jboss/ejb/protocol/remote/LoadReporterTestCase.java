@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.ejb.protocol.remote;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests the admission decisions of {@link LoadReporter}.
+ */
+public final class LoadReporterTestCase {
+
+    @Test
+    public void testNoLimits() {
+        final LoadReporter reporter = new LoadReporter();
+        for (int i = 0; i < 1000; i++) {
+            reporter.requestStarted();
+        }
+        reporter.setQueueDepthSupplier(() -> 1000);
+        assertFalse(reporter.isOverloaded());
+    }
+
+    @Test
+    public void testMaxActiveRequests() {
+        final LoadReporter reporter = new LoadReporter();
+        reporter.setMaxActiveRequests(2);
+        reporter.requestStarted();
+        assertFalse(reporter.isOverloaded());
+        reporter.requestStarted();
+        assertTrue(reporter.isOverloaded());
+        // an answered request makes room again
+        reporter.requestFinished();
+        assertFalse(reporter.isOverloaded());
+        assertEquals(1, reporter.getActiveRequests());
+    }
+
+    @Test
+    public void testMaxQueueDepth() {
+        final LoadReporter reporter = new LoadReporter();
+        final AtomicInteger queueDepth = new AtomicInteger();
+        reporter.setQueueDepthSupplier(queueDepth::get);
+        reporter.setMaxQueueDepth(3);
+        queueDepth.set(2);
+        assertFalse(reporter.isOverloaded());
+        queueDepth.set(3);
+        assertTrue(reporter.isOverloaded());
+        // a limit of zero is no limit
+        reporter.setMaxQueueDepth(0);
+        assertFalse(reporter.isOverloaded());
+    }
+
+    @Test
+    public void testOverloadSignal() {
+        final LoadReporter reporter = new LoadReporter();
+        final AtomicBoolean overloaded = new AtomicBoolean();
+        reporter.setOverloadSignal(overloaded::get);
+        assertFalse(reporter.isOverloaded());
+        overloaded.set(true);
+        assertTrue(reporter.isOverloaded());
+        reporter.setOverloadSignal(null);
+        assertFalse(reporter.isOverloaded());
+    }
+
+    @Test
+    public void testNegativeCountsAreReportedAsZero() {
+        final LoadReporter reporter = new LoadReporter();
+        reporter.requestFinished();
+        reporter.setQueueDepthSupplier(() -> -5);
+        assertEquals(0, reporter.getActiveRequests());
+        assertEquals(0, reporter.getQueueDepth());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.ejb.protocol.remote;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests that {@link PingMonitor} only reports a ping as lost when the server has sent nothing at all since the ping.
+ */
+public final class PingMonitorTestCase {
+
+    @Test
+    public void testAnsweredPing() {
+        final PingMonitor monitor = new PingMonitor();
+        final int sequence = monitor.pingSent(1000L);
+        assertNotEquals(0, sequence);
+        assertEquals(250L, monitor.pongReceived(sequence, 1250L));
+        assertEquals(PingMonitor.Status.ANSWERED, monitor.check(sequence));
+    }
+
+    @Test
+    public void testTimeout() {
+        final PingMonitor monitor = new PingMonitor();
+        final int sequence = monitor.pingSent(1000L);
+        assertEquals(PingMonitor.Status.LOST, monitor.check(sequence));
+    }
+
+    @Test
+    public void testTrafficDefersTimeout() {
+        final PingMonitor monitor = new PingMonitor();
+        final int sequence = monitor.pingSent(1000L);
+        // a large response is still arriving, with the pong queued behind it
+        monitor.messageReceived();
+        assertEquals(PingMonitor.Status.WAITING, monitor.check(sequence));
+        // but a server which then falls silent is given up on after another timeout
+        assertEquals(PingMonitor.Status.LOST, monitor.check(sequence));
+    }
+
+    @Test
+    public void testTrafficBeforePingIsIgnored() {
+        final PingMonitor monitor = new PingMonitor();
+        monitor.messageReceived();
+        final int sequence = monitor.pingSent(1000L);
+        assertEquals(PingMonitor.Status.LOST, monitor.check(sequence));
+    }
+
+    @Test
+    public void testLatePongIsIgnored() {
+        final PingMonitor monitor = new PingMonitor();
+        final int first = monitor.pingSent(1000L);
+        assertEquals(PingMonitor.Status.LOST, monitor.check(first));
+        final int second = monitor.pingSent(2000L);
+        assertNotEquals(first, second);
+        assertEquals(-1L, monitor.pongReceived(first, 2100L));
+        assertEquals(-1L, monitor.pongReceived(0, 2100L));
+        assertEquals(PingMonitor.Status.LOST, monitor.check(second));
+        assertEquals(200L, monitor.pongReceived(second, 2200L));
+        assertEquals(-1L, monitor.pongReceived(second, 2300L));
+    }
+
+    @Test
+    public void testTimeoutActionNames() {
+        assertSame(PingMonitor.TimeoutAction.LOG, PingMonitor.TimeoutAction.of("log"));
+        assertSame(PingMonitor.TimeoutAction.CLOSE_CHANNEL, PingMonitor.TimeoutAction.of("close-channel"));
+        assertSame(PingMonitor.TimeoutAction.CLOSE_CONNECTION, PingMonitor.TimeoutAction.of(" Close-Connection "));
+        try {
+            PingMonitor.TimeoutAction.of("restart");
+            fail("Expected an unknown action to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.protocol.remote;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import org.jboss.ejb.client.annotation.InvocationPriority;
+import org.junit.Test;
+
+/**
+ * Tests the ordering of requests by {@link PriorityDispatcher}, using a worker which only runs tasks when asked to.
+ */
+public final class PriorityDispatcherTestCase {
+
+    private final Queue<Runnable> workerTasks = new ArrayDeque<>();
+    private final Executor worker = workerTasks::add;
+    private final List<String> executed = new ArrayList<>();
+
+    private void submit(final PriorityDispatcher dispatcher, final int priority, final String name) {
+        dispatcher.getExecutor(worker, priority).execute(() -> executed.add(name));
+    }
+
+    private void runWorker() {
+        Runnable task;
+        while ((task = workerTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void testWithoutLimitRequestsGoStraightToWorker() {
+        final PriorityDispatcher dispatcher = new PriorityDispatcher();
+        assertSame(worker, dispatcher.getExecutor(worker, InvocationPriority.HIGH));
+        assertSame(worker, dispatcher.getExecutor(worker, InvocationPriority.LOW));
+    }
+
+    @Test
+    public void testHigherPriorityIsTakenFirst() {
+        final PriorityDispatcher dispatcher = new PriorityDispatcher();
+        dispatcher.setConcurrency(1);
+        submit(dispatcher, InvocationPriority.LOW, "low");
+        submit(dispatcher, InvocationPriority.NORMAL, "normal");
+        submit(dispatcher, InvocationPriority.HIGH, "high");
+        submit(dispatcher, 5, "above normal");
+        runWorker();
+        // the high lane goes first, and then each lane takes its turn in the rotation
+        assertEquals(Arrays.asList("high", "normal", "above normal", "low"), executed);
+    }
+
+    private List<Integer> positions(final String name) {
+        final List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < executed.size(); i ++) {
+            if (executed.get(i).equals(name)) {
+                positions.add(Integer.valueOf(i));
+            }
+        }
+        return positions;
+    }
+
+    @Test
+    public void testLowPriorityKeepsMinimumShare() {
+        final PriorityDispatcher dispatcher = new PriorityDispatcher();
+        dispatcher.setConcurrency(1);
+        for (int i = 0; i < 20; i ++) {
+            submit(dispatcher, InvocationPriority.HIGH, "high");
+        }
+        for (int i = 0; i < 3; i ++) {
+            submit(dispatcher, InvocationPriority.LOW, "low");
+        }
+        runWorker();
+        assertEquals(23, executed.size());
+        // one in every seven requests comes from the low priority lane while it has work, before the high lane drains
+        assertEquals(Arrays.asList(Integer.valueOf(3), Integer.valueOf(10), Integer.valueOf(17)), positions("low"));
+    }
+
+    @Test
+    public void testNormalPriorityKeepsShare() {
+        final PriorityDispatcher dispatcher = new PriorityDispatcher();
+        dispatcher.setConcurrency(1);
+        for (int i = 0; i < 20; i ++) {
+            submit(dispatcher, InvocationPriority.HIGH, "high");
+        }
+        for (int i = 0; i < 4; i ++) {
+            submit(dispatcher, InvocationPriority.NORMAL, "normal");
+        }
+        runWorker();
+        assertEquals(24, executed.size());
+        // two in every seven requests come from the normal lane, so sustained high priority traffic cannot starve it
+        assertEquals(Arrays.asList(Integer.valueOf(1), Integer.valueOf(5), Integer.valueOf(8), Integer.valueOf(12)), positions("normal"));
+    }
+
+    @Test
+    public void testSharesOfBusyLanes() {
+        final PriorityDispatcher dispatcher = new PriorityDispatcher();
+        dispatcher.setConcurrency(1);
+        for (int i = 0; i < 10; i ++) {
+            submit(dispatcher, InvocationPriority.LOW, "low");
+            submit(dispatcher, InvocationPriority.NORMAL, "normal");
+            submit(dispatcher, InvocationPriority.HIGH, "high");
+        }
+        runWorker();
+        final List<String> first = executed.subList(0, 14);
+        assertEquals(8, first.stream().filter("high"::equals).count());
+        assertEquals(4, first.stream().filter("normal"::equals).count());
+        assertEquals(2, first.stream().filter("low"::equals).count());
+    }
+
+    @Test
+    public void testConcurrencyLimitsRunners() {
+        final PriorityDispatcher dispatcher = new PriorityDispatcher();
+        dispatcher.setConcurrency(2);
+        for (int i = 0; i < 5; i ++) {
+            submit(dispatcher, InvocationPriority.NORMAL, "normal");
+        }
+        assertEquals(2, workerTasks.size());
+        runWorker();
+        assertEquals(5, executed.size());
+        // once idle, a new request claims a runner again
+        submit(dispatcher, InvocationPriority.NORMAL, "normal");
+        assertEquals(1, workerTasks.size());
+        runWorker();
+        assertEquals(6, executed.size());
+    }
+
+    @Test
+    public void testPriorityLimit() {
+        final PriorityDispatcher dispatcher = new PriorityDispatcher();
+        // without a limit function, clients cannot claim high priority
+        assertEquals(InvocationPriority.NORMAL, dispatcher.getPriority(InvocationPriority.HIGH, null));
+        assertEquals(InvocationPriority.LOW, dispatcher.getPriority(InvocationPriority.LOW, null));
+        dispatcher.setPriorityLimit(identity -> InvocationPriority.HIGH);
+        assertEquals(InvocationPriority.HIGH, dispatcher.getPriority(InvocationPriority.HIGH, null));
+        dispatcher.setPriorityLimit(identity -> InvocationPriority.LOW);
+        assertEquals(InvocationPriority.LOW, dispatcher.getPriority(InvocationPriority.HIGH, null));
+        assertEquals(InvocationPriority.LOW, dispatcher.getPriority(InvocationPriority.NORMAL, null));
+    }
+}
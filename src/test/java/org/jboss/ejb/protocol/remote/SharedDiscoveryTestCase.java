@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.ejb.protocol.remote;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.ejb.client.EJBClientContext;
+import org.junit.Test;
+import org.wildfly.discovery.FilterSpec;
+import org.wildfly.discovery.ServiceURL;
+import org.wildfly.discovery.spi.DiscoveryRequest;
+import org.wildfly.discovery.spi.DiscoveryResult;
+import org.wildfly.security.auth.client.AuthenticationConfiguration;
+import org.wildfly.security.auth.client.AuthenticationContext;
+import org.wildfly.security.auth.client.MatchRule;
+
+/**
+ * Tests that concurrent equivalent discoveries share one attempt, and that reconnecting to every destination is
+ * rate limited.
+ */
+public final class SharedDiscoveryTestCase {
+
+    private static final FilterSpec FILTER = FilterSpec.equal(EJBClientContext.FILTER_ATTR_NODE, "node1");
+
+    private final RemotingEJBDiscoveryProvider provider = new RemotingEJBDiscoveryProvider();
+
+    private static ServiceURL serviceURL(final String host) {
+        final ServiceURL.Builder builder = new ServiceURL.Builder();
+        builder.setUri(URI.create("remote+http://" + host + ":8080"));
+        builder.setAbstractType(EJBClientContext.EJB_SERVICE_TYPE.getAbstractType());
+        builder.setAbstractTypeAuthority(EJBClientContext.EJB_SERVICE_TYPE.getAbstractTypeAuthority());
+        return builder.create();
+    }
+
+    private RemotingEJBDiscoveryProvider.SharedDiscovery sharedDiscovery() {
+        return provider.new SharedDiscovery(new RemotingEJBDiscoveryProvider.AttemptKey(EJBClientContext.EJB_SERVICE_TYPE, FILTER, AuthenticationContext.empty()));
+    }
+
+    static final class Subscriber implements DiscoveryResult {
+        final List<ServiceURL> matches = new ArrayList<>();
+        final List<Throwable> problems = new ArrayList<>();
+        int completions;
+
+        public void complete() {
+            completions ++;
+        }
+
+        public void reportProblem(final Throwable description) {
+            problems.add(description);
+        }
+
+        public void addMatch(final ServiceURL serviceURL) {
+            matches.add(serviceURL);
+        }
+    }
+
+    @Test
+    public void testEquivalentRequestsShareAKey() {
+        final AuthenticationContext authenticationContext = AuthenticationContext.empty();
+        final RemotingEJBDiscoveryProvider.AttemptKey key = new RemotingEJBDiscoveryProvider.AttemptKey(EJBClientContext.EJB_SERVICE_TYPE, FILTER, authenticationContext);
+        assertEquals(key, new RemotingEJBDiscoveryProvider.AttemptKey(EJBClientContext.EJB_SERVICE_TYPE, FilterSpec.equal(EJBClientContext.FILTER_ATTR_NODE, "node1"), authenticationContext));
+        assertEquals(key.hashCode(), new RemotingEJBDiscoveryProvider.AttemptKey(EJBClientContext.EJB_SERVICE_TYPE, FILTER, authenticationContext).hashCode());
+        assertNotEquals(key, new RemotingEJBDiscoveryProvider.AttemptKey(EJBClientContext.EJB_SERVICE_TYPE, FilterSpec.equal(EJBClientContext.FILTER_ATTR_NODE, "node2"), authenticationContext));
+        // callers with different authentication contexts may see different servers, so they never share
+        assertNotEquals(key, new RemotingEJBDiscoveryProvider.AttemptKey(EJBClientContext.EJB_SERVICE_TYPE, FILTER, authenticationContext.with(MatchRule.ALL, AuthenticationConfiguration.EMPTY)));
+    }
+
+    @Test
+    public void testLateSubscriberIsCaughtUp() {
+        final RemotingEJBDiscoveryProvider.SharedDiscovery shared = sharedDiscovery();
+        final Subscriber first = new Subscriber();
+        final Subscriber second = new Subscriber();
+        final ServiceURL match1 = serviceURL("node1");
+        final ServiceURL match2 = serviceURL("node2");
+        final Throwable problem = new IOException("connection refused");
+        assertTrue(shared.subscribe(first));
+        shared.addMatch(match1);
+        shared.reportProblem(problem);
+        assertTrue(shared.subscribe(second));
+        assertEquals(Collections.singletonList(match1), second.matches);
+        assertEquals(Collections.singletonList(problem), second.problems);
+        shared.addMatch(match2);
+        assertEquals(Arrays.asList(match1, match2), first.matches);
+        assertEquals(Arrays.asList(match1, match2), second.matches);
+        shared.complete();
+        assertEquals(1, first.completions);
+        assertEquals(1, second.completions);
+        // a finished attempt is not joined; the request starts a new one instead
+        assertFalse(shared.subscribe(new Subscriber()));
+        shared.complete();
+        assertEquals(1, first.completions);
+    }
+
+    @Test
+    public void testCancelledSubscriberLeavesTheOthers() {
+        final RemotingEJBDiscoveryProvider.SharedDiscovery shared = sharedDiscovery();
+        final Subscriber first = new Subscriber();
+        final Subscriber second = new Subscriber();
+        shared.subscribe(first);
+        shared.subscribe(second);
+        final DiscoveryRequest request = shared.requestFor(first);
+        request.cancel();
+        assertEquals(1, first.completions);
+        assertEquals(0, second.completions);
+        final ServiceURL match = serviceURL("node1");
+        shared.addMatch(match);
+        assertTrue(first.matches.isEmpty());
+        assertEquals(Collections.singletonList(match), second.matches);
+        // cancelling twice changes nothing
+        request.cancel();
+        assertEquals(1, first.completions);
+        shared.complete();
+        assertEquals(1, first.completions);
+        assertEquals(1, second.completions);
+    }
+
+    @Test
+    public void testReconnectAllIsRateLimited() {
+        assertTrue(RemotingEJBDiscoveryProvider.RECONNECT_ALL_INTERVAL > 0L);
+        assertTrue(provider.claimReconnectAll());
+        // a burst of failing discoveries reconnects everything only once
+        for (int i = 0; i < 10; i ++) {
+            assertFalse(provider.claimReconnectAll());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.protocol.remote;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.ejb.server.ClusterTopologyListener.ClusterInfo;
+import org.jboss.ejb.server.ClusterTopologyListener.ClusterRemovalInfo;
+import org.jboss.ejb.server.ClusterTopologyListener.MappingInfo;
+import org.jboss.ejb.server.ClusterTopologyListener.NodeInfo;
+import org.junit.Test;
+
+/**
+ * Tests that {@link TopologyHistory} identifies topologies by content and computes the difference between them.
+ */
+public final class TopologyHistoryTestCase {
+
+    private static NodeInfo node(final String nodeName, final String zone) throws UnknownHostException {
+        final MappingInfo mapping = new MappingInfo(nodeName + ".example.com", 8080, InetAddress.getByAddress("", new byte[] { 10, 0, 0, 0 }), 8);
+        return new NodeInfo(nodeName, Collections.singletonList(mapping), zone);
+    }
+
+    private static List<String> nodeNames(final ClusterInfo clusterInfo) {
+        final String[] names = new String[clusterInfo.getNodeInfoList().size()];
+        for (int i = 0; i < names.length; i ++) {
+            names[i] = clusterInfo.getNodeInfoList().get(i).getNodeName();
+        }
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    @Test
+    public void testIdentifierIgnoresOrder() throws UnknownHostException {
+        final TopologyHistory history = new TopologyHistory();
+        final TopologyHistory.Version first = history.full(Arrays.asList(
+            new ClusterInfo("web", Arrays.asList(node("node1", null), node("node2", null))),
+            new ClusterInfo("ejb", Collections.singletonList(node("node1", null)))));
+        final TopologyHistory.Version second = history.full(Arrays.asList(
+            new ClusterInfo("ejb", Collections.singletonList(node("node1", null))),
+            new ClusterInfo("web", Arrays.asList(node("node2", null), node("node1", null)))));
+        assertNotEquals(0L, first.getId());
+        assertSame(first, second);
+        assertSame(first, history.get(first.getId()));
+    }
+
+    @Test
+    public void testDeltaReachesSameTopologyAsFull() throws UnknownHostException {
+        final TopologyHistory history = new TopologyHistory();
+        final TopologyHistory.Version base = history.full(Collections.singletonList(new ClusterInfo("web", Arrays.asList(node("node1", null), node("node2", null)))));
+        final TopologyHistory.Version added = history.nodesAdded(base, new ClusterInfo("web", Collections.singletonList(node("node3", null))));
+        final TopologyHistory.Version full = history.full(Collections.singletonList(new ClusterInfo("web", Arrays.asList(node("node1", null), node("node2", null), node("node3", null)))));
+        assertSame(added, full);
+    }
+
+    @Test
+    public void testAdditionIsSentAsDelta() throws UnknownHostException {
+        final TopologyHistory history = new TopologyHistory();
+        final TopologyHistory.Version base = history.full(Collections.singletonList(new ClusterInfo("web", Arrays.asList(node("node1", null), node("node2", null)))));
+        final TopologyHistory.Version current = history.nodesAdded(base, new ClusterInfo("web", Collections.singletonList(node("node3", null))));
+        final List<ClusterInfo> additions = current.getAdditionsSince(base);
+        assertEquals(1, additions.size());
+        assertEquals("web", additions.get(0).getClusterName());
+        assertEquals(Collections.singletonList("node3"), nodeNames(additions.get(0)));
+        assertTrue(current.getNodeRemovalsSince(base).isEmpty());
+        assertTrue(current.getClusterRemovalsSince(base).isEmpty());
+    }
+
+    @Test
+    public void testRemovalsAreSentAsDelta() throws UnknownHostException {
+        final TopologyHistory history = new TopologyHistory();
+        final TopologyHistory.Version base = history.full(Arrays.asList(
+            new ClusterInfo("web", Arrays.asList(node("node1", null), node("node2", null))),
+            new ClusterInfo("ejb", Collections.singletonList(node("node1", null)))));
+        final TopologyHistory.Version nodeRemoved = history.nodesRemoved(base, Collections.singletonList(new ClusterRemovalInfo("web", Collections.singletonList("node2"))));
+        final TopologyHistory.Version current = history.clustersRemoved(nodeRemoved, Collections.singletonList("ejb"));
+        assertTrue(current.getAdditionsSince(base).isEmpty());
+        final List<ClusterRemovalInfo> nodeRemovals = current.getNodeRemovalsSince(base);
+        assertEquals(1, nodeRemovals.size());
+        assertEquals("web", nodeRemovals.get(0).getClusterName());
+        assertEquals(Collections.singletonList("node2"), nodeRemovals.get(0).getNodeNames());
+        assertEquals(Collections.singletonList("ejb"), current.getClusterRemovalsSince(base));
+        assertSame(current, history.full(Collections.singletonList(new ClusterInfo("web", Collections.singletonList(node("node1", null))))));
+    }
+
+    @Test
+    public void testZoneChangeIsSent() throws UnknownHostException {
+        final TopologyHistory history = new TopologyHistory();
+        final TopologyHistory.Version base = history.full(Collections.singletonList(new ClusterInfo("web", Arrays.asList(node("node1", "east"), node("node2", "east")))));
+        final TopologyHistory.Version current = history.nodesAdded(base, new ClusterInfo("web", Collections.singletonList(node("node2", "west"))));
+        assertNotEquals(base.getId(), current.getId());
+        final List<ClusterInfo> additions = current.getAdditionsSince(base);
+        assertEquals(1, additions.size());
+        assertEquals(Collections.singletonList("node2"), nodeNames(additions.get(0)));
+        assertEquals("west", additions.get(0).getNodeInfoList().get(0).getZone());
+    }
+
+    @Test
+    public void testForgottenTopologyNeedsFullSnapshot() throws UnknownHostException {
+        final TopologyHistory history = new TopologyHistory(2);
+        final TopologyHistory.Version first = history.full(Collections.singletonList(new ClusterInfo("web", Collections.singletonList(node("node1", null)))));
+        TopologyHistory.Version current = first;
+        for (int i = 2; i <= 3; i ++) {
+            current = history.nodesAdded(current, new ClusterInfo("web", Collections.singletonList(node("node" + i, null))));
+        }
+        assertNull(history.get(first.getId()));
+        assertNull(history.get(12345L));
+        assertSame(current, history.get(current.getId()));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.protocol.remote;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.jboss.ejb.client.EJBClientContext;
+import org.jboss.ejb.client.EJBModuleIdentifier;
+import org.junit.Test;
+import org.wildfly.common.net.CidrAddress;
+import org.wildfly.discovery.AttributeValue;
+import org.wildfly.discovery.ServiceURL;
+
+/**
+ * Tests that {@link TopologySnapshot} publishes module availability consistently with the rest of the topology.
+ */
+public final class TopologySnapshotTestCase {
+
+    private static final URI DESTINATION = URI.create("remote+http://node1.example.com:8080");
+    private static final URI CLUSTER_DESTINATION = URI.create("remote+http://node1.internal:8080");
+    private static final CidrAddress ANY = CidrAddress.create(new byte[4], 0);
+    private static final CidrAddress INTERNAL = CidrAddress.create(new byte[] { 10, 0, 0, 0 }, 8);
+    private static final EJBModuleIdentifier MODULE1 = new EJBModuleIdentifier("app", "module1", "");
+    private static final EJBModuleIdentifier MODULE2 = new EJBModuleIdentifier("app", "module2", "");
+    private static final EJBModuleIdentifier MODULE3 = new EJBModuleIdentifier("app", "module3", "");
+
+    @Test
+    public void testMessageIsPublishedAsOneSnapshot() {
+        final Object connection = new Object();
+        final TopologySnapshot before = TopologySnapshot.EMPTY.builder().addConnection("node1", connection, DESTINATION).build();
+        final TopologySnapshot.Builder builder = before.builder().addModules("node1", connection, DESTINATION, Arrays.asList(MODULE1, MODULE2, MODULE3));
+        assertTrue(builder.isChanged());
+        assertFalse(builder.isClustersChanged());
+        assertFalse(builder.isConnectionsChanged());
+        assertEquals(3, builder.getChangedModules().size());
+        final TopologySnapshot after = builder.build();
+        assertEquals(before.getVersion() + 1, after.getVersion());
+        for (EJBModuleIdentifier moduleIdentifier : Arrays.asList(MODULE1, MODULE2, MODULE3)) {
+            // the published snapshot is never modified by a later update
+            assertTrue(before.getNodesForModule(moduleIdentifier).isEmpty());
+            assertEquals(Collections.singleton("node1"), after.getNodesForModule(moduleIdentifier));
+        }
+        assertEquals(Collections.singleton(DESTINATION), after.getServiceURLs("node1").keySet());
+        assertNotSame(before.getServiceURLs("node1").get(DESTINATION), after.getServiceURLs("node1").get(DESTINATION));
+    }
+
+    @Test
+    public void testRepeatedModulesChangeNothing() {
+        final Object connection = new Object();
+        final TopologySnapshot snapshot = TopologySnapshot.EMPTY.builder().addModules("node1", connection, DESTINATION, Arrays.asList(MODULE1, MODULE2)).build();
+        final TopologySnapshot.Builder builder = snapshot.builder().addModules("node1", connection, DESTINATION, Collections.singleton(MODULE1));
+        assertFalse(builder.isChanged());
+        assertFalse(snapshot.builder().removeModules("node1", connection, Collections.singleton(MODULE3)).isChanged());
+        assertFalse(snapshot.builder().removeModules("node2", connection, Collections.singleton(MODULE1)).isChanged());
+    }
+
+    @Test
+    public void testModuleRemainsWhileAnotherConnectionReportsIt() {
+        final Object connection1 = new Object();
+        final Object connection2 = new Object();
+        TopologySnapshot snapshot = TopologySnapshot.EMPTY.builder()
+            .addModules("node1", connection1, DESTINATION, Arrays.asList(MODULE1, MODULE2))
+            .addModules("node1", connection2, DESTINATION, Collections.singleton(MODULE1))
+            .build();
+        snapshot = snapshot.builder().removeModules("node1", connection1, Arrays.asList(MODULE1, MODULE2)).build();
+        assertEquals(Collections.singleton("node1"), snapshot.getNodesForModule(MODULE1));
+        assertTrue(snapshot.getNodesForModule(MODULE2).isEmpty());
+        snapshot = snapshot.builder().removeConnection("node1", connection2).build();
+        assertTrue(snapshot.getNodesForModule(MODULE1).isEmpty());
+        // the first connection is still open, so the node can still be discovered at its destination
+        assertEquals(Collections.singleton(DESTINATION), snapshot.getServiceURLs("node1").keySet());
+    }
+
+    @Test
+    public void testClosedConnectionRemovesEverything() {
+        final Object connection = new Object();
+        TopologySnapshot snapshot = TopologySnapshot.EMPTY.builder().addModules("node1", connection, DESTINATION, Arrays.asList(MODULE1, MODULE2)).build();
+        final TopologySnapshot.Builder builder = snapshot.builder().removeConnection("node1", connection);
+        assertTrue(builder.isConnectionsChanged());
+        snapshot = builder.build();
+        assertTrue(snapshot.getNodesForModule(MODULE1).isEmpty());
+        assertTrue(snapshot.getNodesForModule(MODULE2).isEmpty());
+        assertTrue(snapshot.getServiceURLs("node1").isEmpty());
+    }
+
+    @Test
+    public void testNodesAreIndexedByModule() {
+        final TopologySnapshot snapshot = TopologySnapshot.EMPTY.builder()
+            .addModules("node1", new Object(), DESTINATION, Arrays.asList(MODULE1, MODULE2))
+            .addModules("node2", new Object(), URI.create("remote+http://node2.example.com:8080"), Collections.singleton(MODULE2))
+            .build();
+        assertEquals(Collections.singleton("node1"), snapshot.getNodesForModule(MODULE1));
+        assertEquals(new HashSet<>(Arrays.asList("node1", "node2")), snapshot.getNodesForModule(MODULE2));
+        assertTrue(snapshot.getNodesForModule(MODULE3).isEmpty());
+    }
+
+    @Test
+    public void testServiceURLsCombineModulesAndClusters() {
+        final TopologySnapshot snapshot = TopologySnapshot.EMPTY.builder()
+            .addModules("node1", new Object(), DESTINATION, Collections.singleton(MODULE1))
+            .addNode("web", "node1", DESTINATION)
+            .addMapping("web", "node1", "remote+http", ANY, InetSocketAddress.createUnresolved("node1.example.com", 8080))
+            .build();
+        final List<ServiceURL> serviceURLs = snapshot.getServiceURLs("node1").get(DESTINATION);
+        // one without and one with the cluster attribute, both carrying the module
+        assertEquals(2, serviceURLs.size());
+        for (ServiceURL serviceURL : serviceURLs) {
+            assertEquals(Collections.singletonList(AttributeValue.fromString("app/module1")), serviceURL.getAttributeValues(EJBClientContext.FILTER_ATTR_EJB_MODULE));
+            assertEquals(Collections.singletonList(AttributeValue.fromString("node1")), serviceURL.getAttributeValues(EJBClientContext.FILTER_ATTR_NODE));
+        }
+        assertTrue(serviceURLs.get(0).getAttributeValues(EJBClientContext.FILTER_ATTR_CLUSTER).isEmpty());
+        assertEquals(Collections.singletonList(AttributeValue.fromString("web")), serviceURLs.get(1).getAttributeValues(EJBClientContext.FILTER_ATTR_CLUSTER));
+    }
+
+    @Test
+    public void testOnlyAffectedDestinationsAreRebuilt() {
+        final Object connection = new Object();
+        final TopologySnapshot before = TopologySnapshot.EMPTY.builder()
+            .addModules("node1", connection, DESTINATION, Collections.singleton(MODULE1))
+            .addNode("web", "node1", DESTINATION)
+            .addMapping("web", "node1", "remote+http", INTERNAL, InetSocketAddress.createUnresolved("node1.internal", 8080))
+            .build();
+        assertEquals(new HashSet<>(Arrays.asList(DESTINATION, CLUSTER_DESTINATION)), before.getServiceURLs("node1").keySet());
+        final TopologySnapshot modules = before.builder().addModules("node1", connection, DESTINATION, Collections.singleton(MODULE2)).build();
+        assertNotSame(before.getServiceURLs("node1").get(DESTINATION), modules.getServiceURLs("node1").get(DESTINATION));
+        assertSame(before.getServiceURLs("node1").get(CLUSTER_DESTINATION), modules.getServiceURLs("node1").get(CLUSTER_DESTINATION));
+        final TopologySnapshot mappings = modules.builder().addNode("ejb", "node1", DESTINATION).addMapping("ejb", "node1", "remote+http", INTERNAL, InetSocketAddress.createUnresolved("node1.internal", 8080)).build();
+        assertSame(modules.getServiceURLs("node1").get(DESTINATION), mappings.getServiceURLs("node1").get(DESTINATION));
+        assertEquals(3, mappings.getServiceURLs("node1").get(CLUSTER_DESTINATION).size());
+    }
+
+    @Test
+    public void testReplacedMappingMovesServiceURLs() {
+        final TopologySnapshot before = TopologySnapshot.EMPTY.builder()
+            .addModules("node1", new Object(), DESTINATION, Collections.singleton(MODULE1))
+            .addNode("web", "node1", DESTINATION)
+            .addMapping("web", "node1", "remote+http", INTERNAL, InetSocketAddress.createUnresolved("node1.internal", 8080))
+            .build();
+        final URI moved = URI.create("remote+http://node1.internal:8180");
+        final TopologySnapshot after = before.builder().addMapping("web", "node1", "remote+http", INTERNAL, InetSocketAddress.createUnresolved("node1.internal", 8180)).build();
+        assertEquals(new HashSet<>(Arrays.asList(DESTINATION, moved)), after.getServiceURLs("node1").keySet());
+        assertSame(before.getServiceURLs("node1").get(DESTINATION), after.getServiceURLs("node1").get(DESTINATION));
+        final TopologySnapshot removed = after.builder().removeNode("web", "node1").build();
+        assertEquals(Collections.singleton(DESTINATION), removed.getServiceURLs("node1").keySet());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.ejb.protocol.remote;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wildfly.common.net.CidrAddress;
+
+/**
+ * Tests that {@link TopologyStore} restores the confirmed topology as provisional nodes.
+ */
+public final class TopologyStoreTestCase {
+
+    private static final URI AUTH_URI = URI.create("remote+http://localhost:8080");
+    private static final CidrAddress ANY = CidrAddress.create(new byte[4], 0);
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("topology-store");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for (Path path : paths) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testConfirmedTopologyRoundTrip() {
+        final Registry saved = new Registry();
+        saved.updateTopology(builder -> builder
+            .addNode("web", "node1", AUTH_URI)
+            .addMapping("web", "node1", "remote+http", ANY, new InetSocketAddress("127.0.0.1", 8180))
+            .addNode("web", "node2", AUTH_URI)
+            .addMapping("web", "node2", "remote+http", ANY, new InetSocketAddress("127.0.0.2", 8180)));
+        saved.getNodeInformation("node1");
+        saved.getNodeInformation("node2");
+        final Path path = directory.resolve("topology");
+        new TopologyStore(saved, path).save();
+        assertTrue(Files.exists(path));
+
+        final Registry loaded = new Registry();
+        new TopologyStore(loaded, path).load();
+        final TopologySnapshot topology = loaded.getTopology();
+        assertEquals(saved.getTopology().getClusterNodes(), topology.getClusterNodes());
+        assertEquals(AUTH_URI, topology.getEffectiveAuthURI("web"));
+        assertTrue(topology.getNodeClusters("node1").get("web").hasMapping("remote+http", ANY, new InetSocketAddress("127.0.0.1", 8180)));
+        assertTrue(loaded.getNodeInformation("node1").isProvisional());
+        assertTrue(loaded.getNodeInformation("node2").isProvisional());
+    }
+
+    @Test
+    public void testProvisionalNodesAreNotSaved() {
+        final Registry registry = new Registry();
+        registry.getNodeInformation("node1").setProvisional(true);
+        registry.updateTopology(builder -> builder
+            .addNode("web", "node1", AUTH_URI)
+            .addMapping("web", "node1", "remote+http", ANY, new InetSocketAddress("127.0.0.1", 8180)));
+        final Path path = directory.resolve("topology");
+        new TopologyStore(registry, path).save();
+        assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void testMissingFileLoadsNothing() {
+        final Registry registry = new Registry();
+        new TopologyStore(registry, directory.resolve("missing")).load();
+        assertTrue(registry.getTopology().getClusterNodes().isEmpty());
+        assertTrue(registry.getAllNodeInformation().isEmpty());
+    }
+
+    static final class Registry implements DiscoveredNodeRegistry {
+        private final ConcurrentHashMap<String, NodeInformation> nodes = new ConcurrentHashMap<>();
+        private volatile TopologySnapshot topology = TopologySnapshot.EMPTY;
+
+        public NodeInformation getNodeInformation(final String nodeName) {
+            return nodes.computeIfAbsent(nodeName, NodeInformation::new);
+        }
+
+        public List<NodeInformation> getAllNodeInformation() {
+            return new ArrayList<>(nodes.values());
+        }
+
+        public TopologySnapshot getTopology() {
+            return topology;
+        }
+
+        public synchronized boolean updateTopology(final Consumer<TopologySnapshot.Builder> update) {
+            final TopologySnapshot.Builder builder = topology.builder();
+            update.accept(builder);
+            if (! builder.isChanged()) {
+                return false;
+            }
+            topology = builder.build();
+            return true;
+        }
+
+        public void addNode(final String clusterName, final String nodeName, final URI registeredBy) {
+            updateTopology(builder -> builder.addNode(clusterName, nodeName, registeredBy));
+        }
+
+        public void removeNode(final String clusterName, final String nodeName) {
+            updateTopology(builder -> builder.removeNode(clusterName, nodeName));
+        }
+
+        public void removeCluster(final String clusterName) {
+            updateTopology(builder -> builder.removeCluster(clusterName));
+        }
+    }
+}